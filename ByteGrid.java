@@ -0,0 +1,683 @@
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/**
+ * A grid of cells for Generations rules with more than two states, one byte to a cell in a single
+ * flat array. A generation is computed eight cells at a time, by treating each long read from the
+ * array as eight one-byte lanes (SIMD within a register): the live cells of a row are picked out
+ * with a lane-wise test for state 1, the rows above and below are added in lane by lane, and the
+ * columns either side are added in by shifting whole lanes. The rule is then applied to all eight
+ * lanes with masks rather than with a lookup per cell. No lane can carry into the next, since a
+ * neighbor count never exceeds 9 and a dying cell never ages past the last state.
+ *
+ * Cell (i, j) is stored at cells[(i + 1) * stride + PAD + j]. The grid is surrounded by a border of
+ * ghost cells: an extra row above and below, and a ghost cell just to the left and right of every
+ * row, which is filled in once per generation according to the edge rule. Each row is padded so
+ * that every column that is a multiple of 8 starts a long, and so that the long just past either
+ * end of a row can always be read.
+ *
+ * Larger than Life rules, which count the live cells out to a radius r around each cell, are run
+ * here as well, one cell at a time (see stepLarger). Each row of a run of tiles keeps the sum of
+ * the live cells in every column of the 2r + 1 rows around it, which is slid down a row by adding
+ * the row entering the window and taking away the one leaving it. Each cell's count is then a
+ * sum of 2r + 1 column sums, which is slid along the row in the same way, so a cell costs the
+ * same at any radius. Cells more than one beyond the edge are found through maps of where each
+ * row and column beyond it comes from (see mapEdges) rather than through the border.
+ */
+public class ByteGrid
+{
+    /*
+     * Contents:
+     * Definitions-----------------------------
+     * Methods---------------------------------
+     * ByteGrid
+     * clear
+     * swap
+     * refreshBorder
+     * ghostCell
+     * mapEdges
+     * source
+     * stepTiles
+     * stepRow
+     * columnSum
+     * equal
+     * stepLarger
+     * clearChanges
+     * slideRows
+     * addRow
+     * ghostLive
+     * Accessors-------------------------------
+     */
+    
+    ////////////////////////////////////////////////////
+    // Definitions
+    ////////////////////////////////////////////////////
+    
+    private static final int PAD = 8; // bytes before the first column of each row
+    private static final long ONES = 0x0101010101010101L; // 1 in every lane
+    private static final long LOW = 0x7F7F7F7F7F7F7F7FL; // all but the top bit of every lane
+    static final int MAX_COUNTED_GROUP = 248; // widest tiles whose row counts fit in one lane
+    
+    // Reads and writes eight lanes of a byte array at once, with the first byte in the lowest lane:
+    private static final VarHandle LANES =
+        MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+    
+    private static final long[] SPREAD = new long[256]; // bit n of the index in lane n
+    
+    static
+    {
+        for (int b = 0; b < 256; b++)
+        {
+            for (int n = 0; n < 8; n++)
+                SPREAD[b] |= (long) (b >>> n & 1) << (8 * n);
+        }
+    }
+    
+    // Sums of the live cells in each column of the window around a row, reused by each thread:
+    private static final ThreadLocal<int[]> SUMS = ThreadLocal.withInitial(() -> new int[0]);
+    
+    // Sources of rows and columns beyond the edge that never come from the grid:
+    private static final int DEAD = -1; // every cell is dead
+    private static final int LIVE = -2; // every cell is live
+    
+    private final int width; // number of columns
+    private final int height; // number of rows
+    private final int stride; // bytes per row, a multiple of 8
+    private byte[] cells; // current generation
+    private byte[] next; // buffer for the next generation, laid out the same way
+    
+    // Where rows and columns come from out to a radius beyond the edge (see mapEdges):
+    private EdgeRule mappedRule; // edge rule and radius that the maps were made for
+    private int mappedRadius = 0;
+    private int[] rowSources; // row of the grid for rows -radius to height + radius - 1
+    private boolean[] flippedRows; // which of those rows are mirrored left to right
+    private int[] columnSources; // column of the grid for columns -radius to width + radius - 1
+    private int[] flippedSources; // the same, for rows that are mirrored
+    
+    ////////////////////////////////////////////////////
+    // Methods
+    ////////////////////////////////////////////////////
+    
+    /**
+     * Creates an empty grid of the given dimensions.
+     */
+    public ByteGrid(int width, int height)
+    {
+        this.width = width;
+        this.height = height;
+        stride = PAD + ((width + 7) & ~7) + 8;
+        cells = new byte[(height + 2) * stride];
+        next = new byte[(height + 2) * stride];
+    }
+    
+    /**
+     * Sets every cell to 0.
+     */
+    public void clear()
+    {
+        Arrays.fill(cells, (byte) 0);
+    }
+    
+    /**
+     * Makes the generation computed by stepTiles the current one.
+     */
+    public void swap()
+    {
+        byte[] temp = cells;
+        cells = next;
+        next = temp;
+    }
+    
+    /**
+     * Fills in the ghost cells around the grid from the current generation, according to the
+     * given edge rule.
+     */
+    public void refreshBorder(EdgeRule edgeRule)
+    {
+        for (int j = 0; j < width; j++)
+        {
+            cells[PAD + j] = ghostCell(edgeRule, -1, j);
+            cells[(height + 1) * stride + PAD + j] = ghostCell(edgeRule, height, j);
+        }
+        for (int i = -1; i <= height; i++)
+        {
+            cells[(i + 1) * stride + PAD - 1] = ghostCell(edgeRule, i, -1);
+            cells[(i + 1) * stride + PAD + width] = ghostCell(edgeRule, i, width);
+        }
+    }
+    
+    /**
+     * Returns the state that the edge rule gives to the ghost cell in row i, column j, just
+     * beyond the edge of the grid.
+     */
+    private byte ghostCell(EdgeRule edgeRule, int i, int j)
+    {
+        switch (edgeRule)
+        {
+            case TOROIDAL:
+                break;
+            case KLEIN_BOTTLE:
+                // Crossing the top or bottom edge comes back in on the other side, flipped.
+                if (i < 0 || i >= height)
+                    j = width - 1 - j;
+                break;
+            case MIRROR:
+                i = Math.max(0, Math.min(i, height - 1));
+                j = Math.max(0, Math.min(j, width - 1));
+                break;
+            case ON_EDGES:
+                return 1;
+            case OFF_EDGES:
+            case UNBOUNDED: // only when the rule cannot run on an unbounded plane
+                return 0;
+            default:
+                throw new IllegalStateException("No edge rule selected (somehow).");
+        }
+        return cells[(Math.floorMod(i, height) + 1) * stride + PAD + Math.floorMod(j, width)];
+    }
+    
+    /**
+     * Works out where each row and column out to the given radius beyond the edge of the grid
+     * comes from under the given edge rule, for stepLarger. This only does any work when the edge
+     * rule or radius has changed.
+     */
+    public void mapEdges(EdgeRule edgeRule, int radius)
+    {
+        if (edgeRule == mappedRule && radius == mappedRadius)
+            return;
+        
+        rowSources = new int[height + 2 * radius];
+        flippedRows = new boolean[height + 2 * radius];
+        for (int i = -radius; i < height + radius; i++)
+        {
+            rowSources[i + radius] = source(edgeRule, i, height);
+            // Each time round a Klein bottle flips the row left to right.
+            flippedRows[i + radius] = (edgeRule == EdgeRule.KLEIN_BOTTLE &&
+                (Math.floorDiv(i, height) & 1) != 0);
+        }
+        columnSources = new int[width + 2 * radius];
+        flippedSources = new int[width + 2 * radius];
+        for (int j = -radius; j < width + radius; j++)
+        {
+            columnSources[j + radius] = source(edgeRule, j, width);
+            flippedSources[j + radius] = source(edgeRule, width - 1 - j, width);
+        }
+        mappedRule = edgeRule;
+        mappedRadius = radius;
+    }
+    
+    /**
+     * Returns the row or column (from 0 to size - 1) that the edge rule copies into row or
+     * column n, which may lie any distance beyond the edge, or DEAD or LIVE.
+     */
+    private static int source(EdgeRule edgeRule, int n, int size)
+    {
+        if (n >= 0 && n < size)
+            return n;
+        switch (edgeRule)
+        {
+            case TOROIDAL:
+            case KLEIN_BOTTLE:
+                return Math.floorMod(n, size);
+            case MIRROR:
+                // Reflected back and forth, so that -1 copies 0, -2 copies 1, and so on.
+                n = Math.floorMod(n, 2 * size);
+                return (n < size)? n: 2 * size - 1 - n;
+            case ON_EDGES:
+                return LIVE;
+            case OFF_EDGES:
+            case UNBOUNDED: // only when the rule cannot run on an unbounded plane
+                return DEAD;
+            default:
+                throw new IllegalStateException("No edge rule selected (somehow).");
+        }
+    }
+    
+    /**
+     * Computes columns left (inclusive, a multiple of 8) to right (exclusive) of rows top
+     * (inclusive) to bottom (exclusive) of the next generation, which together make up a run of
+     * side-by-side tiles of a TileMap, each group columns wide (a multiple of 8). Returns a mask
+     * with bit n set if any cell in the nth tile of the run changed. There can be at most 64
+     * tiles in the run. Nothing outside of the given cells is written, so separate runs can be
+     * computed on separate threads. The border must have been refreshed since the grid last
+     * changed.
+     *
+     * If counts isn't null, the births and deaths of the nth tile of the run in the new generation
+     * are counted along the way into counts[base + 4n] and counts[base + 4n + 1], where a death is
+     * a live cell that stops being live, and its counts of live cells and dying cells (in state 2
+     * or later), in counts[base + 4n + 2] and counts[base + 4n + 3], are brought up to date by
+     * adding how much they changed. The tiles can then be no more than MAX_COUNTED_GROUP columns
+     * wide, since each of a row's counts is added up across the lanes into a single byte, which
+     * holds at most 255.
+     *
+     * If hashes isn't null, the Zobrist hash of the nth tile of the run in the new generation goes
+     * into hashes[first + n], keyed eight lanes at a time as by Simulation.getHash.
+     */
+    public long stepTiles(int top, int bottom, int left, int right, int group, int birth,
+        int survive, int states, int[] counts, int base, long[] hashes, int first)
+    {
+        if (counts != null && group > MAX_COUNTED_GROUP)
+            throw new IllegalArgumentException("Counted tiles can be no more than " +
+                MAX_COUNTED_GROUP + " columns wide.");
+        int tiles = (right - left + group - 1) / group;
+        if (counts != null)
+            clearChanges(counts, base, tiles);
+        if (hashes != null)
+            Arrays.fill(hashes, first, first + tiles, 0);
+        long changed = 0;
+        int lanes = (width + 7) / 8; // longs of lanes in each row, as keyed for hashing
+        for (int i = top; i < bottom; i++)
+        {
+            changed |= stepRow((i + 1) * stride + PAD, left, right, group, birth, survive, states,
+                counts, base, hashes, first, (long) i * lanes);
+        }
+        return changed;
+    }
+    
+    /**
+     * Computes columns left to right of the row starting at the given index of the cell arrays
+     * for the next generation, from the row itself and the rows just above and below it. The
+     * result has one bit for each group of columns, set if any cell in the group changed. If
+     * counts isn't null, the cells of each group are counted into it, and if hashes isn't null,
+     * the keys of the group's lanes are XORed into it, as for stepTiles. The row's column 0 has
+     * the given Zobrist position.
+     */
+    private long stepRow(int start, int left, int right, int group, int birth, int survive,
+        int states, int[] counts, int base, long[] hashes, int first, long position)
+    {
+        byte[] cells = this.cells, next = this.next;
+        long last = (states - 1) * ONES; // the last dying state in every lane
+        long fade = (states > 2)? 2: 0; // state a live cell goes into when it doesn't survive
+        long changed = 0, any = 0;
+        int tile = 0; // group holding the current columns
+        int end = left + group; // first column past the current group
+        long births = 0, deaths = 0, expired = 0; // lane by lane, if counted
+        long hash = 0; // of the current group, if hashed
+        
+        // Each lane of a column sum holds the number of live cells in its column of the 3 rows.
+        int k = start + left;
+        long west = columnSum(cells, k - 8);
+        long here = columnSum(cells, k);
+        for (int j = left; j < right; j += 8, k += 8)
+        {
+            long east = columnSum(cells, k + 8);
+            long mid = (long) LANES.get(cells, k);
+            long live = equal(mid, ONES);
+            
+            // Line up the sums of the columns to the left and right of each lane, and add them.
+            long count = (here << 8 | west >>> 56) + here + (here >>> 8 | east << 56) - live;
+            
+            // Whether each lane's count is in the birth and survival sets, as a 1 in the lane:
+            long born = 0, stays = 0;
+            for (int n = birth; n != 0; n &= n - 1)
+                born |= equal(count, Integer.numberOfTrailingZeros(n) * ONES);
+            for (int n = survive; n != 0; n &= n - 1)
+                stays |= equal(count, Integer.numberOfTrailingZeros(n) * ONES);
+            
+            /*
+             * Dead cells are born, live cells survive or start dying in state 2, and dying cells
+             * age by one, apart from those in the last state, which die.
+             */
+            long dead = equal(mid, 0);
+            long expiring = equal(mid, last);
+            long aging = ONES & ~dead & ~live & ~expiring;
+            long result = (dead & born) | (live & stays) | (live & ~stays) * fade |
+                ((mid & aging * 0xFF) + aging);
+            
+            // Only the lanes up to the end of the run (or the grid) are written.
+            long mask = (j + 8 > right)? (1L << (8 * (right - j))) - 1: -1L;
+            if (counts != null)
+            {
+                /*
+                 * Each of these has a 1 in the lanes it counts, and they are added up lane by
+                 * lane. There are always more than 2 states, so every death starts dying, and
+                 * only the expiring cells stop.
+                 */
+                births += dead & born & mask;
+                deaths += live & ~stays & mask;
+                expired += expiring & mask;
+            }
+            if (mask != -1L)
+            {
+                // Keep the cells past the end of the run (or the grid) as they were.
+                result = (result & mask) | ((long) LANES.get(next, k) & ~mask);
+                any |= (result ^ mid) & mask;
+            }
+            else
+                any |= result ^ mid;
+            LANES.set(next, k, result);
+            if (hashes != null)
+                hash ^= Zobrist.key(position + (j >>> 3), result & mask);
+            
+            if (j + 8 >= end || j + 8 >= right)
+            {
+                if (any != 0)
+                    changed |= 1L << tile;
+                any = 0;
+                tile++;
+                end += group;
+                if (hashes != null)
+                {
+                    hashes[first++] ^= hash;
+                    hash = 0;
+                }
+                if (counts != null)
+                {
+                    // Multiplying by ONES adds every lane into the top one.
+                    int rowBirths = (int) (births * ONES >>> 56);
+                    int rowDeaths = (int) (deaths * ONES >>> 56);
+                    counts[base] += rowBirths;
+                    counts[base + 1] += rowDeaths;
+                    counts[base + 2] += rowBirths - rowDeaths;
+                    counts[base + 3] += rowDeaths - (int) (expired * ONES >>> 56);
+                    births = deaths = expired = 0;
+                    base += 4;
+                }
+            }
+            west = here;
+            here = east;
+        }
+        return changed;
+    }
+    
+    /**
+     * Returns the sum of the lanes of the rows just above and below the row holding the given
+     * index of the current generation, and of the row itself, that are live (in state 1).
+     */
+    private long columnSum(byte[] cells, int k)
+    {
+        return equal((long) LANES.get(cells, k - stride), ONES) +
+            equal((long) LANES.get(cells, k), ONES) +
+            equal((long) LANES.get(cells, k + stride), ONES);
+    }
+    
+    /**
+     * Returns a 1 in each lane of a that equals the same lane of b, and a 0 in every other lane.
+     */
+    private static long equal(long a, long b)
+    {
+        // The top bit of a lane of x & LOW + LOW is set unless the rest of the lane is 0.
+        long x = a ^ b;
+        return ~((x & LOW) + LOW | x | LOW) >>> 7;
+    }
+    
+    /**
+     * Computes a run of tiles of the next generation under a Larger than Life rule, as for
+     * stepTiles (including the counts), except that left need not be a multiple of 8. The edges
+     * must have been mapped by mapEdges for the current edge rule and the rule's radius, but the
+     * border is not used.
+     */
+    public long stepLarger(int top, int bottom, int left, int right, int group, Rule rule,
+        int[] counts, int base)
+    {
+        int radius = rule.getRadius();
+        int states = rule.getStates();
+        int[] table = rule.getTable();
+        int size = table.length / 2; // offset of the live cells' half of the table
+        byte[] cells = this.cells, next = this.next;
+        
+        // The column sums start out with every row of the first window but the last.
+        int span = right - left + 2 * radius; // columns in the window of a row of the run
+        int[] sums = SUMS.get();
+        if (sums.length < span)
+        {
+            sums = new int[span];
+            SUMS.set(sums);
+        }
+        Arrays.fill(sums, 0, span, 0);
+        for (int i = top - radius; i < top + radius; i++)
+            addRow(sums, i, left - radius, span, 1);
+        if (counts != null)
+            clearChanges(counts, base, (right - left + group - 1) / group);
+        
+        long changed = 0;
+        for (int i = top; i < bottom; i++)
+        {
+            if (i > top)
+                slideRows(sums, i - radius - 1, i + radius, left - radius, span);
+            else
+                addRow(sums, i + radius, left - radius, span, 1);
+            
+            int k = (i + 1) * stride + PAD;
+            int count = 0; // live cells in the window, before the column entering it is added
+            for (int c = 0; c < 2 * radius; c++)
+                count += sums[c];
+            int tile = 0; // group holding the current column
+            int end = left + group; // first column past the current group
+            int any = 0; // nonzero if a cell of the current group changed
+            int births = 0, deaths = 0, dying = 0; // of the current group, if counted
+            for (int j = left; j < right; j++)
+            {
+                count += sums[j - left + 2 * radius];
+                int state = cells[k + j] & 0xFF;
+                int result;
+                if (state < 2)
+                    result = table[size * state + count];
+                else
+                    result = (state + 1 < states)? state + 1: 0; // dying cells age regardless
+                next[k + j] = (byte) result;
+                count -= sums[j - left];
+                any |= result ^ state; // rather than a branch, as changes are hard to predict
+                if (counts != null)
+                {
+                    births += (state == 0 && result == 1)? 1: 0;
+                    deaths += (state == 1 && result != 1)? 1: 0;
+                    dying += ((result > 1)? 1: 0) - ((state > 1)? 1: 0);
+                }
+                
+                if (j + 1 == end || j + 1 == right)
+                {
+                    if (any != 0)
+                        changed |= 1L << tile;
+                    any = 0;
+                    tile++;
+                    end += group;
+                    if (counts != null)
+                    {
+                        int at = base + 4 * (tile - 1);
+                        counts[at] += births;
+                        counts[at + 1] += deaths;
+                        counts[at + 2] += births - deaths;
+                        counts[at + 3] += dying;
+                        births = deaths = dying = 0;
+                    }
+                }
+            }
+        }
+        return changed;
+    }
+    
+    /**
+     * Zeroes the births and deaths of the given number of tiles' counts, starting at base, and
+     * leaves their live and dying cells to be brought up to date.
+     */
+    private static void clearChanges(int[] counts, int base, int tiles)
+    {
+        for (int n = 0; n < tiles; n++)
+        {
+            counts[base + 4 * n] = 0;
+            counts[base + 4 * n + 1] = 0;
+        }
+    }
+    
+    /**
+     * Slides the window of rows of the column sums down by one, from starting at row leaving to
+     * ending at row entering, for stepLarger. When neither row is beyond the edge, both are read
+     * in the same pass.
+     */
+    private void slideRows(int[] sums, int leaving, int entering, int from, int span)
+    {
+        if (leaving < 0 || entering >= height)
+        {
+            addRow(sums, leaving, from, span, -1);
+            addRow(sums, entering, from, span, 1);
+            return;
+        }
+        
+        byte[] cells = this.cells;
+        int kOut = (leaving + 1) * stride + PAD, kIn = (entering + 1) * stride + PAD;
+        int start = Math.max(0, Math.min(span, -from)); // first column read directly
+        int stop = Math.max(start, Math.min(span, width - from)); // first column past them
+        for (int c = 0; c < start; c++)
+        {
+            int j = columnSources[from + c + mappedRadius];
+            sums[c] += ghostLive(j, kIn) - ghostLive(j, kOut);
+        }
+        for (int c = start, j = from + start; c < stop; c++, j++)
+            sums[c] += ((cells[kIn + j] == 1)? 1: 0) - ((cells[kOut + j] == 1)? 1: 0);
+        for (int c = stop; c < span; c++)
+        {
+            int j = columnSources[from + c + mappedRadius];
+            sums[c] += ghostLive(j, kIn) - ghostLive(j, kOut);
+        }
+    }
+    
+    /**
+     * Adds sign times the live cells of row i (which may lie beyond the edge) in columns from to
+     * from + span - 1 to sums[0] to sums[span - 1], for stepLarger. The columns inside the grid
+     * are read directly, unless the row is mirrored.
+     */
+    private void addRow(int[] sums, int i, int from, int span, int sign)
+    {
+        int source = rowSources[i + mappedRadius];
+        if (source == DEAD)
+            return;
+        if (source == LIVE)
+        {
+            for (int c = 0; c < span; c++)
+                sums[c] += sign;
+            return;
+        }
+        
+        byte[] cells = this.cells;
+        int k = (source + 1) * stride + PAD;
+        int[] columns = columnSources;
+        int start = Math.max(0, Math.min(span, -from)); // first column read directly
+        int stop = Math.max(start, Math.min(span, width - from)); // first column past them
+        if (flippedRows[i + mappedRadius])
+        {
+            columns = flippedSources;
+            start = stop = span;
+        }
+        for (int c = 0; c < start; c++)
+            sums[c] += sign * ghostLive(columns[from + c + mappedRadius], k);
+        for (int c = start, j = from + start; c < stop; c++, j++)
+            sums[c] += (cells[k + j] == 1)? sign: 0;
+        for (int c = stop; c < span; c++)
+            sums[c] += sign * ghostLive(columns[from + c + mappedRadius], k);
+    }
+    
+    /**
+     * Returns 1 if the cell of the row starting at index k that a column map gives as the
+     * source is live, and 0 otherwise.
+     */
+    private int ghostLive(int source, int k)
+    {
+        if (source < 0)
+            return (source == LIVE)? 1: 0;
+        return (cells[k + source] == 1)? 1: 0;
+    }
+    
+    ////////////////////////////////////////////////////
+    // Accessors
+    ////////////////////////////////////////////////////
+    
+    public int getWidth()
+    {
+        return width;
+    }
+    
+    public int getHeight()
+    {
+        return height;
+    }
+    
+    /**
+     * Returns the state of the cell in row i, column j.
+     */
+    public int get(int i, int j)
+    {
+        return cells[(i + 1) * stride + PAD + j] & 0xFF;
+    }
+    
+    /**
+     * Returns the states of the cells in row i, columns j to j + 7 (j being a multiple of 8), one
+     * to a lane with column j in the lowest. Lanes past the width of the grid are 0.
+     */
+    public long getLanes(int i, int j)
+    {
+        long lanes = (long) LANES.get(cells, (i + 1) * stride + PAD + j);
+        return (j + 8 > width)? lanes & (1L << (8 * (width - j))) - 1: lanes;
+    }
+    
+    /**
+     * Copies the states of the cells in row i, columns left to right - 1, into states starting
+     * at offset.
+     */
+    public void getRow(int i, int left, int right, int[] states, int offset)
+    {
+        int k = (i + 1) * stride + PAD;
+        for (int j = left; j < right; j++)
+            states[offset++] = cells[k + j] & 0xFF;
+    }
+    
+    /**
+     * Counts the live cells of row i in blocks of the given number of columns. The block starting
+     * at column left is added to counts[offset], the next to counts[offset + 1], and so on. The
+     * last block ends at column right.
+     */
+    public void countRow(int i, int left, int right, int block, int[] counts, int offset)
+    {
+        int k = (i + 1) * stride + PAD;
+        for (int j = left; j < right; j++)
+            counts[offset + (j - left) / block] += (cells[k + j] == 1)? 1: 0;
+    }
+    
+    /**
+     * Adds the live cells of row i, columns left (a multiple of 8) to right - 1, to counts[offset],
+     * and the dying cells (in state 2 or later) to counts[offset + 1].
+     */
+    public void countStates(int i, int left, int right, int[] counts, int offset)
+    {
+        int k = (i + 1) * stride + PAD;
+        long live = 0, dying = 0; // lane by lane, flushed before their sums can pass 255
+        for (int j = left; j < right; j += 8)
+        {
+            long lanes = (long) LANES.get(cells, k + j);
+            long mask = (j + 8 > right)? (1L << (8 * (right - j))) - 1: -1L;
+            long isLive = equal(lanes, ONES) & mask;
+            live += isLive;
+            dying += (ONES & ~equal(lanes, 0) & ~isLive) & mask;
+            if (((j - left) >>> 3 & 15) == 15 || j + 8 >= right) // every 16 longs
+            {
+                counts[offset] += (int) (live * ONES >>> 56);
+                counts[offset + 1] += (int) (dying * ONES >>> 56);
+                live = dying = 0;
+            }
+        }
+    }
+    
+    /**
+     * Sets the cell in row i, column j to the given state, which must be less than 256.
+     */
+    public void set(int i, int j, int state)
+    {
+        cells[(i + 1) * stride + PAD + j] = (byte) state;
+    }
+    
+    /**
+     * Sets the cells in row i, columns 64*k to 64*k + 63, to the bits of the given long (0 or 1
+     * each), with column 64*k in bit 0. Bits past the width of the grid are ignored.
+     */
+    public void setWord(int i, int k, long word)
+    {
+        int index = (i + 1) * stride + PAD;
+        int j = 64 * k;
+        for (; j + 8 <= Math.min(width, 64 * k + 64); j += 8, word >>>= 8)
+            LANES.set(cells, index + j, SPREAD[(int) word & 0xFF]);
+        for (; j < Math.min(width, 64 * k + 64); j++, word >>>= 1)
+            cells[index + j] = (byte) (word & 1);
+    }
+}
@@ -12,6 +12,9 @@
 import javax.swing.*;
 import java.awt.*;
 import java.awt.event.*;
+import javax.swing.event.*;
+import java.io.File;
+import java.io.IOException;
 import java.lang.Math;
 
 /**
@@ -31,22 +34,49 @@ public class CellularAutomata extends JFrame
      * buildPanels
      * gridClear
      * randomize
+     * chooseCustomRule
+     * chooseCustomSize
+     * saveSnapshot
+     * openSnapshot
+     * importPattern
+     * exportPattern
+     * patternChooser
+     * selectMenuItems
+     * startHistory
+     * stopHistory
+     * showRow
+     * updateTimeline
+     * seekTimeline
+     * pause
      * update
-     * addAdjacent
+     * stepBack
+     * applyEdits
+     * repaintChanged
+     * repaintAll
      * Inner Classes---------------------------
      * DrawingPanel
      * ExitListener
      * ClearListener
      * RandomizeListener
+     * SnapshotListener
+     * PatternListener
      * VisibleGridListener
+     * MetricsListener
+     * HashLifeListener
+     * StableListener
+     * HistoryListener
+     * TimelineListener
      * UpdateRuleListener
      * EdgeRuleListener
      * SizeRuleListener
+     * ZoomListener
      * PauseUnpauseButtonListener
      * StepButtonListener
+     * StepBackButtonListener
      * SpeedBoxListener
      * MouseEvents
      * TimerListener
+     * MetricsTimerListener
      * Creating the GUI------------------------
      * main
      */
@@ -57,42 +87,62 @@ public class CellularAutomata extends JFrame
     
     // GUI-related definitions:
     private JPanel gridPanel, controlPanel; // panels for drawing and for controls
+    private JPanel southPanel, timelinePanel; // holds the rows below the grid, and the timeline
+    private JSlider timelineSlider; // scrubs through the recorded generations
+    private JTextField timelineIndicator; // generation shown, out of those recorded
     private DrawingPanel drawingPanel; // panel that actually draws everything
-    private JButton pauseUnpauseButton, stepButton; // control buttons
+    private GridRenderer renderer = new GridRenderer(); // draws the cells into an image
+    private JButton pauseUnpauseButton, stepButton, stepBackButton; // control buttons
     private JComboBox speedBox; // adjusts step speed
     private JTextField cellCoordinates, playIndicator; // display information
+    private JTextField metricsIndicator; // performance figures, when shown
     private final int WINDOW_WIDTH = 1050;
     private final int WINDOW_HEIGHT = 700;
     private JMenuBar menuBar;
     private JMenu fileMenu; // change size, clear, randomly seed, exit, etc.
     private JMenu optionMenu; // game options (edge rules), etc.
     private JMenu sizeMenu; // dimensions of grid
+    private JMenu viewMenu; // zoom controls
     private JMenuItem clearItem, exitItem, randomizeItem;
+    private JMenuItem saveSnapshotItem, openSnapshotItem;
+    private JMenuItem importPatternItem, exportPatternItem;
+    private JMenuItem zoomInItem, zoomOutItem, fitItem;
     private JRadioButtonMenuItem conwayItem, haliteItem, conwayBodiesItem, seedsItem,
-        briansBrainItem, oddItem, evenItem;
-    private JRadioButtonMenuItem toroidalItem, onEdgesItem, offEdgesItem;
-    private JRadioButtonMenuItem grid25x15item, grid50x30item, grid100x60item, grid200x120item;
+        briansBrainItem, oddItem, evenItem, customRuleItem;
+    private JRadioButtonMenuItem ruleItem; // rule item selected before the latest one
+    private JRadioButtonMenuItem toroidalItem, onEdgesItem, offEdgesItem, kleinBottleItem,
+        mirrorItem, unboundedItem;
+    private JRadioButtonMenuItem grid25x15item, grid50x30item, grid100x60item, grid200x120item,
+        customSizeItem;
+    private JRadioButtonMenuItem sizeItem; // size item selected before the latest one
     private JCheckBox visibleGridItem; // whether to draw the grid lines
-    protected Timer timer; // the update timer
+    private JCheckBox hashLifeItem; // whether to run two-state rules with Hashlife
+    private JCheckBox metricsItem; // whether to show the performance figures
+    private JCheckBox stableItem; // whether to pause once the simulation starts repeating
+    private JCheckBox historyItem; // whether to record every generation for the timeline
+    protected Timer frameTimer; // redraws the latest generation while the simulation runs
+    protected Timer metricsTimer; // refreshes the performance figures while they are shown
     
     // Other definitions:
-    protected int gridWidth = 50; // default width of game grid
-    protected int gridHeight = 30; // default height of game grid
-    protected int[][] grid = new int[120][200]; // the cells of the game
-    protected boolean filling; // whether clicking will fill or erase cells
-    private enum UpdateRule {CONWAY, HALITE, CONWAY_BODIES, SEEDS, BRIANS_BRAIN, ODD, EVEN}; // game rules
-    private enum EdgeRule {TOROIDAL, ON_EDGES, OFF_EDGES}; // different edge rules
-    protected UpdateRule updateRule = UpdateRule.CONWAY; // currently selected update rule
-    protected EdgeRule edgeRule = EdgeRule.TOROIDAL; // currently selected edge rule
+    protected Simulation simulation = new Simulation(50, 30); // grid, rules, and update logic
+    protected EditQueue edits = new EditQueue(); // cells painted with the mouse, not yet applied
     private final String[] speedLabels = {"0.5 steps/sec", "1.0 steps/sec", "1.5 steps/sec",
         "2.0 steps/sec", "2.5 steps/sec", "3.0 steps/sec", "5.0 steps/sec", "10.0 steps/sec",
-        "15.0 steps/sec", "20.0 steps/sec"};
-    private final double[] speedList = {0.5, 1.0, 1.5, 2.0, 2.0, 3.0, 5.0, 10.0, 15.0, 20.0};
-    protected int delay = (int) (1000 / speedList[6]); // milliseconds between timer steps
-    protected boolean playing = false; // whether the timer is active
-    protected int dx; // cell width
-    protected int dy; // cell height
+        "15.0 steps/sec", "20.0 steps/sec", "100 steps/sec", "1000 steps/sec", "Unlimited"};
+    private final double[] speedList = {0.5, 1.0, 1.5, 2.0, 2.5, 3.0, 5.0, 10.0, 15.0, 20.0,
+        100.0, 1000.0, SimulationRunner.UNLIMITED};
+    protected SimulationRunner runner = new SimulationRunner(simulation, speedList[6]);
+    private final int FRAME_DELAY = 16; // milliseconds between redraws (about 60 per second)
+    private final int METRICS_DELAY = 500; // milliseconds between refreshes of the figures
+    protected Metrics metrics = new Metrics(); // how fast the simulation is running and drawing
+    protected boolean playing = false; // whether the simulation is running
+    protected Viewport view; // which part of the grid is shown, and how large
+    private final int MAX_GRID_SIZE = 5000; // largest custom grid size in either direction
     protected boolean visibleGrid = true; // whether the grid is shown
+    private JFileChooser snapshotChooser; // remembers the folder of the last snapshot
+    private JFileChooser patternChooser; // remembers the folder of the last pattern
+    private File historyFile; // temporary file the history is kept in, while recording
+    private boolean updatingTimeline = false; // whether the slider is being moved by the program
     
     ////////////////////////////////////////////////////
     // Methods
@@ -109,9 +159,14 @@ public class CellularAutomata extends JFrame
         buildMenuBar();
         buildPanels();
         add(gridPanel, BorderLayout.CENTER);
-        add(controlPanel, BorderLayout.SOUTH);
+        add(southPanel, BorderLayout.SOUTH);
         gridClear();
-        timer = new Timer(delay, new TimerListener());
+        frameTimer = new Timer(FRAME_DELAY, new TimerListener());
+        metricsTimer = new Timer(METRICS_DELAY, new MetricsTimerListener());
+        simulation.setMetrics(metrics);
+        simulation.setRewind(new Rewind(Rewind.DEFAULT_BUDGET));
+        simulation.setEditQueue(edits);
+        metrics.register();
         setVisible(true);
     }
     
@@ -125,6 +180,10 @@ public class CellularAutomata extends JFrame
         // File menu:
         clearItem = new JMenuItem("Clear");
         randomizeItem = new JMenuItem("Randomly Seed");
+        openSnapshotItem = new JMenuItem("Open Snapshot...");
+        saveSnapshotItem = new JMenuItem("Save Snapshot...");
+        importPatternItem = new JMenuItem("Import Pattern...");
+        exportPatternItem = new JMenuItem("Export Pattern...");
         exitItem = new JMenuItem("Exit");
         
         fileMenu = new JMenu("File");
@@ -132,12 +191,28 @@ public class CellularAutomata extends JFrame
         clearItem.addActionListener(new ClearListener());
         fileMenu.add(randomizeItem);
         randomizeItem.addActionListener(new RandomizeListener());
+        fileMenu.addSeparator();
+        fileMenu.add(openSnapshotItem);
+        openSnapshotItem.addActionListener(new SnapshotListener());
+        fileMenu.add(saveSnapshotItem);
+        saveSnapshotItem.addActionListener(new SnapshotListener());
+        fileMenu.add(importPatternItem);
+        importPatternItem.addActionListener(new PatternListener());
+        fileMenu.add(exportPatternItem);
+        exportPatternItem.addActionListener(new PatternListener());
+        fileMenu.addSeparator();
         fileMenu.add(exitItem);
         exitItem.addActionListener(new ExitListener());
         
         // Option menu (check boxes and radio buttons):
         visibleGridItem = new JCheckBox("Display Grid", true);
         visibleGridItem.addItemListener(new VisibleGridListener());
+        hashLifeItem = new JCheckBox("Hashlife Engine (Unbounded)", false);
+        hashLifeItem.addItemListener(new HashLifeListener());
+        stableItem = new JCheckBox("Pause When Stable", false);
+        stableItem.addItemListener(new StableListener());
+        historyItem = new JCheckBox("Record History", false);
+        historyItem.addItemListener(new HistoryListener());
         conwayItem = new JRadioButtonMenuItem("Conway's Game of Life", true);
         conwayItem.addActionListener(new UpdateRuleListener());
         haliteItem = new JRadioButtonMenuItem("Halite Crystal Growth");
@@ -152,6 +227,9 @@ public class CellularAutomata extends JFrame
         oddItem.addActionListener(new UpdateRuleListener());
         evenItem = new JRadioButtonMenuItem("Even Rule");
         evenItem.addActionListener(new UpdateRuleListener());
+        customRuleItem = new JRadioButtonMenuItem("Custom Rule...");
+        customRuleItem.addActionListener(new UpdateRuleListener());
+        ruleItem = conwayItem;
         
         toroidalItem = new JRadioButtonMenuItem("Toroidal Edges", true);
         toroidalItem.addActionListener(new EdgeRuleListener());
@@ -159,6 +237,12 @@ public class CellularAutomata extends JFrame
         onEdgesItem.addActionListener(new EdgeRuleListener());
         offEdgesItem = new JRadioButtonMenuItem("Edges as Empty");
         offEdgesItem.addActionListener(new EdgeRuleListener());
+        kleinBottleItem = new JRadioButtonMenuItem("Klein Bottle Edges");
+        kleinBottleItem.addActionListener(new EdgeRuleListener());
+        mirrorItem = new JRadioButtonMenuItem("Mirrored Edges");
+        mirrorItem.addActionListener(new EdgeRuleListener());
+        unboundedItem = new JRadioButtonMenuItem("Unbounded Plane");
+        unboundedItem.addActionListener(new EdgeRuleListener());
         
         grid25x15item = new JRadioButtonMenuItem("25 x 15");
         grid25x15item.addActionListener(new SizeRuleListener());
@@ -168,6 +252,9 @@ public class CellularAutomata extends JFrame
         grid100x60item.addActionListener(new SizeRuleListener());
         grid200x120item = new JRadioButtonMenuItem("200 x 120");
         grid200x120item.addActionListener(new SizeRuleListener());
+        customSizeItem = new JRadioButtonMenuItem("Custom Size...");
+        customSizeItem.addActionListener(new SizeRuleListener());
+        sizeItem = grid50x30item;
         
         ButtonGroup ruleGroup = new ButtonGroup();
         ruleGroup.add(conwayItem);
@@ -177,20 +264,28 @@ public class CellularAutomata extends JFrame
         ruleGroup.add(briansBrainItem);
         ruleGroup.add(oddItem);
         ruleGroup.add(evenItem);
+        ruleGroup.add(customRuleItem);
         
         ButtonGroup edgeGroup = new ButtonGroup();
         edgeGroup.add(toroidalItem);
         edgeGroup.add(onEdgesItem);
         edgeGroup.add(offEdgesItem);
+        edgeGroup.add(kleinBottleItem);
+        edgeGroup.add(mirrorItem);
+        edgeGroup.add(unboundedItem);
         
         ButtonGroup sizeGroup = new ButtonGroup();
         sizeGroup.add(grid25x15item);
         sizeGroup.add(grid50x30item);
         sizeGroup.add(grid100x60item);
         sizeGroup.add(grid200x120item);
+        sizeGroup.add(customSizeItem);
         
         optionMenu = new JMenu("Options");
         optionMenu.add(visibleGridItem);
+        optionMenu.add(hashLifeItem);
+        optionMenu.add(stableItem);
+        optionMenu.add(historyItem);
         optionMenu.addSeparator();
         optionMenu.add(conwayItem);
         optionMenu.add(conwayBodiesItem);
@@ -199,19 +294,41 @@ public class CellularAutomata extends JFrame
         optionMenu.add(briansBrainItem);
         optionMenu.add(oddItem);
         optionMenu.add(evenItem);
+        optionMenu.add(customRuleItem);
         optionMenu.addSeparator();
         optionMenu.add(toroidalItem);
         optionMenu.add(onEdgesItem);
         optionMenu.add(offEdgesItem);
+        optionMenu.add(kleinBottleItem);
+        optionMenu.add(mirrorItem);
+        optionMenu.add(unboundedItem);
         optionMenu.addSeparator();
         optionMenu.add(grid25x15item);
         optionMenu.add(grid50x30item);
         optionMenu.add(grid100x60item);
         optionMenu.add(grid200x120item);
+        optionMenu.add(customSizeItem);
+        
+        // View menu:
+        zoomInItem = new JMenuItem("Zoom In");
+        zoomOutItem = new JMenuItem("Zoom Out");
+        fitItem = new JMenuItem("Fit Grid to Window");
+        metricsItem = new JCheckBox("Show Performance Metrics", false);
+        metricsItem.addItemListener(new MetricsListener());
+        viewMenu = new JMenu("View");
+        viewMenu.add(zoomInItem);
+        zoomInItem.addActionListener(new ZoomListener());
+        viewMenu.add(zoomOutItem);
+        zoomOutItem.addActionListener(new ZoomListener());
+        viewMenu.add(fitItem);
+        fitItem.addActionListener(new ZoomListener());
+        viewMenu.addSeparator();
+        viewMenu.add(metricsItem);
         
         // Activating the menu bar:
         menuBar.add(fileMenu);
         menuBar.add(optionMenu);
+        menuBar.add(viewMenu);
         setJMenuBar(menuBar);
     }
     
@@ -223,8 +340,12 @@ public class CellularAutomata extends JFrame
         // Grid panel stuff:
         gridPanel = new JPanel();
         drawingPanel = new DrawingPanel();
-        drawingPanel.addMouseListener(new MouseEvents());
-        drawingPanel.addMouseMotionListener(new MouseEvents());
+        view = new Viewport(drawingPanel.getWidth(), drawingPanel.getHeight(),
+            simulation.getWidth(), simulation.getHeight());
+        MouseEvents mouseEvents = new MouseEvents();
+        drawingPanel.addMouseListener(mouseEvents);
+        drawingPanel.addMouseMotionListener(mouseEvents);
+        drawingPanel.addMouseWheelListener(mouseEvents);
         gridPanel.add(drawingPanel);
         
         // Control panel stuff:
@@ -236,17 +357,38 @@ public class CellularAutomata extends JFrame
         pauseUnpauseButton.addActionListener(new PauseUnpauseButtonListener());
         stepButton = new JButton("Iterate");
         stepButton.addActionListener(new StepButtonListener());
+        stepBackButton = new JButton("Step Back");
+        stepBackButton.addActionListener(new StepBackButtonListener());
         cellCoordinates = new JTextField(7);
         cellCoordinates.setEditable(false);
         cellCoordinates.setText("Cell 0, 0");
         playIndicator = new JTextField(4);
         playIndicator.setEditable(false);
         playIndicator.setText("Paused");
+        metricsIndicator = new JTextField(53);
+        metricsIndicator.setEditable(false);
+        metricsIndicator.setFont(metricsIndicator.getFont().deriveFont(10f));
+        metricsIndicator.setVisible(false);
         controlPanel.add(cellCoordinates);
         controlPanel.add(playIndicator);
         controlPanel.add(pauseUnpauseButton);
+        controlPanel.add(stepBackButton);
         controlPanel.add(stepButton);
         controlPanel.add(speedBox);
+        
+        // Timeline stuff (only shown while recording history):
+        timelinePanel = new JPanel(new BorderLayout());
+        timelineSlider = new JSlider(0, 0, 0);
+        timelineSlider.addChangeListener(new TimelineListener());
+        timelineIndicator = new JTextField(24);
+        timelineIndicator.setEditable(false);
+        timelinePanel.add(timelineSlider, BorderLayout.CENTER);
+        timelinePanel.add(timelineIndicator, BorderLayout.EAST);
+        timelinePanel.setVisible(false);
+        southPanel = new JPanel(new BorderLayout());
+        southPanel.add(timelinePanel, BorderLayout.NORTH);
+        southPanel.add(controlPanel, BorderLayout.CENTER);
+        southPanel.add(metricsIndicator, BorderLayout.SOUTH);
     }
     
     /**
@@ -254,13 +396,16 @@ public class CellularAutomata extends JFrame
      */
     protected void gridClear()
     {
-        for (int i = 0; i < gridHeight; i++)
+        runner.lock();
+        try
         {
-            for (int j = 0; j < gridWidth; j++)
-                grid[i][j] = 0;
+            simulation.clear();
+            repaintAll();
+        }
+        finally
+        {
+            runner.unlock();
         }
-        
-        drawingPanel.repaint();
     }
     
     /**
@@ -299,268 +444,523 @@ public class CellularAutomata extends JFrame
             }
         } while (looping);
         
-        // Randomizing the cells:
-        for (int i = 0; i < gridHeight; i++)
+        runner.lock();
+        try
         {
-            for (int j = 0; j < gridWidth; j++)
-            {
-                double number = Math.random();
-                if (number <= density)
-                    grid[i][j] = 1;
-                else
-                    grid[i][j] = 0;
-            }
+            simulation.randomize(density);
         }
-        
-        drawingPanel.repaint();
+        finally
+        {
+            runner.unlock();
+        }
+        repaintAll();
     }
     
     /**
-     * Goes through each cell to conduct the proper updates.
+     * Asks the user for a rule in B/S notation, or a Larger than Life rule, and switches to it.
+     * Returns false if the user cancels.
      */
-    protected void update()
+    protected boolean chooseCustomRule()
     {
-        // Parallel updating requires us to used a temporary grid to figure out the updates.
-        int[][] tempGrid = new int[gridHeight][gridWidth];
+        Rule rule = null;
         
-        // This temporary grid holds the number of neighbors each cell possesses.
-        for (int i = 0; i < gridHeight; i++)
-        {
-            for (int j = 0; j < gridWidth; j++)
-                tempGrid[i][j] = 0;
-        }
-        for (int i = 0; i < gridHeight; i++)
+        // Input validation:
+        do
         {
-            for (int j = 0; j < gridWidth; j++)
+            Object input = JOptionPane.showInputDialog(null, "Enter a rule in B/S notation, " +
+                "such as B36/S23, or B2/S/3 for a rule with dying cells, or a Larger than " +
+                "Life rule such as R5,C0,M1,S34..58,B34..45,NM.", "Custom Rule",
+                JOptionPane.QUESTION_MESSAGE, null, null, simulation.getRule().toString());
+            if (input == null)
+                return false;
+            try
             {
-                if (grid[i][j] == 1)
-                    addAdjacent(tempGrid, i, j);
+                rule = Rule.parse(input.toString());
             }
+            catch (IllegalArgumentException e)
+            {
+                JOptionPane.showMessageDialog(null, e.getMessage() + " Please retry.", "Error",
+                    JOptionPane.ERROR_MESSAGE);
+            }
+        } while (rule == null);
+        
+        runner.lock();
+        try
+        {
+            simulation.setRule(rule);
+        }
+        finally
+        {
+            runner.unlock();
         }
+        repaintAll();
+        return true;
+    }
+    
+    /**
+     * Asks the user for the dimensions of the grid and resizes it. The grid can be up to
+     * MAX_GRID_SIZE cells in either direction, however large the drawing area is, since the view
+     * scrolls over a grid too large to show whole. Returns false if the user cancels.
+     */
+    protected boolean chooseCustomSize()
+    {
+        int width = 0, height = 0;
         
-        /*
-         * In the case of the edge on model, we assume that every cell just outside the grid is
-         * eternally on. We need to go through and add 3 neighbors to all edge cells, and 5 to
-         * corner cells. We use 2 steps: add 3 to top/bottom, add 3 to left/right, then subtract 1
-         * from corners.
-         */
-        if (edgeRule == EdgeRule.ON_EDGES)
+        // Input validation:
+        do
         {
-            for (int i = 0; i < gridWidth; i++)
+            Object input = JOptionPane.showInputDialog(null, "Enter the grid size as width x " +
+                "height (at most " + MAX_GRID_SIZE + " x " + MAX_GRID_SIZE + ").", "Custom Size",
+                JOptionPane.QUESTION_MESSAGE, null, null, simulation.getWidth() + " x " +
+                simulation.getHeight());
+            if (input == null)
+                return false;
+            try
             {
-                tempGrid[0][i] += 3;
-                tempGrid[gridHeight-1][i] += 3;
+                String[] dims = input.toString().toLowerCase().split("x");
+                width = Integer.parseInt(dims[0].trim());
+                height = Integer.parseInt(dims[dims.length - 1].trim());
+                if (dims.length != 2 || width < 1 || height < 1 || width > MAX_GRID_SIZE ||
+                    height > MAX_GRID_SIZE)
+                    throw new NumberFormatException();
             }
-            for (int i = 0; i < gridHeight; i++)
+            catch (NumberFormatException e)
             {
-                tempGrid[i][0] += 3;
-                tempGrid[i][gridWidth-1] += 3;
+                JOptionPane.showMessageDialog(null, "That wasn't a valid size. Please retry.",
+                    "Error", JOptionPane.ERROR_MESSAGE);
+                width = 0;
             }
-            tempGrid[0][0]--;
-            tempGrid[gridHeight-1][0]--;
-            tempGrid[0][gridWidth-1]--;
-            tempGrid[gridHeight-1][gridWidth-1]--;
+        } while (width == 0);
+        
+        runner.lock();
+        try
+        {
+            simulation.resize(width, height);
+        }
+        finally
+        {
+            runner.unlock();
+        }
+        return true;
+    }
+    
+    /**
+     * Asks the user for a file and saves a snapshot of the grid to it (see Snapshot). The
+     * simulation keeps running, but waits while the grid is copied.
+     */
+    protected void saveSnapshot()
+    {
+        if (snapshotChooser == null)
+            snapshotChooser = new JFileChooser();
+        if (snapshotChooser.showSaveDialog(null) != JFileChooser.APPROVE_OPTION)
+            return;
+        
+        runner.lock();
+        try
+        {
+            Snapshot.save(simulation, snapshotChooser.getSelectedFile().toPath());
+        }
+        catch (IOException e)
+        {
+            JOptionPane.showMessageDialog(null, "The snapshot could not be saved: " +
+                e.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
+        }
+        finally
+        {
+            runner.unlock();
         }
+    }
+    
+    /**
+     * Asks the user for a snapshot file and replaces the grid, rules and generation number with
+     * the ones saved in it. The simulation is paused first.
+     */
+    protected void openSnapshot()
+    {
+        if (snapshotChooser == null)
+            snapshotChooser = new JFileChooser();
+        if (snapshotChooser.showOpenDialog(null) != JFileChooser.APPROVE_OPTION)
+            return;
         
-        // Finally, we update the main grid.
+        Snapshot snapshot;
+        try
+        {
+            snapshot = Snapshot.open(snapshotChooser.getSelectedFile().toPath());
+        }
+        catch (IOException e)
+        {
+            JOptionPane.showMessageDialog(null, "The snapshot could not be opened: " +
+                e.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
+            return;
+        }
         
-        for (int i = 0; i < gridHeight; i++)
+        pause();
+        runner.lock();
+        try
         {
-            for (int j = 0; j < gridWidth; j++)
-            {
-                switch (updateRule)
-                {
-                    case CONWAY:
-                        /*
-                         * Conway's rules:
-                         * An on cell turns off if it has less than 2 or more than 3 neighbors.
-                         * An off cell turns on if it has exactly 3 neighbors.
-                         */
-                        
-                        if (grid[i][j] == 1)
-                        {
-                            if (tempGrid[i][j] < 2 || tempGrid[i][j] > 3)
-                                grid[i][j] = 0;
-                        }
-                        else
-                        {
-                            if (tempGrid[i][j] == 3)
-                                grid[i][j] = 1;
-                        }
-                        break;
-                    
-                    case HALITE:
-                        /*
-                         * Halite model rules:
-                         * An off cell turns on if it has exactly one neighbor. Cells never
-                         * turn off.
-                         */
-                        
-                        if (grid [i][j] == 0)
-                        {
-                            if (tempGrid[i][j] == 1)
-                                grid [i][j] = 1;
-                        }
-                        break;
-                    
-                    case CONWAY_BODIES:
-                        /*
-                         * Conway's rules with dead bodies:
-                         * Same as Conway, except that when cells die, instead of disappearing,
-                         * they turn into a dead cell. Dead cells to not count towards neighbor
-                         * count, but they do prevent anything from growing on them. They
-                         * disappear after one step.
-                         */
-                        
-                        if (grid[i][j] == 1)
-                        {
-                            if (tempGrid[i][j] < 2 || tempGrid[i][j] > 3)
-                                grid[i][j] = 2;
-                        }
-                        else if (grid[i][j] == 0)
-                        {
-                            if (tempGrid[i][j] == 3)
-                                grid[i][j] = 1;
-                        }
-                        else
-                            grid[i][j] = 0;
-                        break;
-                    
-                    case SEEDS:
-                        /*
-                         * Seeds rules:
-                         * An off cell turns on if it has exactly 2 neighbors. All on cells turn
-                         * off after one step.
-                         */
-                        
-                        if (grid[i][j] == 0)
-                        {
-                            if (tempGrid[i][j] == 2)
-                                grid[i][j] = 1;
-                        }
-                        else
-                            grid[i][j] = 0;
-                        break;
-                    
-                    case BRIANS_BRAIN:
-                        /*
-                         * Brian's Brain rules:
-                         * Same as Seeds, except that when a cell dies, it leaves behind a body
-                         * for one step.
-                         */
-                        
-                        if (grid[i][j] == 0)
-                        {
-                            if (tempGrid[i][j] == 2)
-                                grid[i][j] = 1;
-                        }
-                        else if (grid[i][j] == 1)
-                            grid[i][j] = 2;
-                        else
-                            grid[i][j] = 0;
-                        break;
-                    
-                    case ODD:
-                        /*
-                         * Odd rules:
-                         * An off cell turns on if it has an odd number of neighbors. All on
-                         * cells turn off after one step.
-                         */
-                        if (grid[i][j] == 0)
-                        {
-                            if (tempGrid[i][j] % 2 == 1)
-                                grid[i][j] = 1;
-                            else
-                                grid[i][j] = 0;
-                        }
-                        else
-                            grid[i][j] = 0;
-                        break;
-                    
-                    case EVEN:
-                        /*
-                         * Even rules:
-                         * An off cell turns on if it has an even, nonzero number of
-                         * neighbors. All on cells turn off after one step.
-                         */
-                        if (grid[i][j] == 0)
-                        {
-                            if ((tempGrid[i][j] % 2 == 0) && (tempGrid[i][j] > 0))
-                                grid[i][j] = 1;
-                            else
-                                grid[i][j] = 0;
-                        }
-                        else
-                            grid[i][j] = 0;
-                        break;
-                    
-                    default:
-                        JOptionPane.showMessageDialog(null, "No update rule selected (somehow).",
-                            "Error", JOptionPane.ERROR_MESSAGE);
-                }
-            }
+            snapshot.loadInto(simulation);
+            selectMenuItems();
+            repaintAll();
         }
+        finally
+        {
+            runner.unlock();
+        }
+    }
+    
+    /**
+     * Asks the user for an RLE or plaintext pattern file and reads it into the middle of the
+     * grid, switching to the pattern's rule if it names one (see PatternFile). The simulation is
+     * paused first.
+     */
+    protected void importPattern()
+    {
+        if (patternChooser().showOpenDialog(null) != JFileChooser.APPROVE_OPTION)
+            return;
         
-        drawingPanel.repaint();
+        pause();
+        runner.lock();
+        try
+        {
+            PatternFile.read(patternChooser().getSelectedFile().toPath(), simulation);
+        }
+        catch (IOException e)
+        {
+            JOptionPane.showMessageDialog(null, "The pattern could not be read: " +
+                e.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
+        }
+        finally
+        {
+            // Even a pattern that failed partway may have changed the grid and rules.
+            selectMenuItems();
+            repaintAll();
+            runner.unlock();
+        }
     }
     
     /**
-     * Updates the temporary grid from the update algorithm by adding 1 to every cell adjacent to
-     * the specified cell, as long as it's filled.
+     * Asks the user for a file and writes the grid to it as a pattern: plaintext if the name ends
+     * in .cells, and RLE otherwise. Names without an extension are given .rle.
      */
-    private void addAdjacent(int[][] tempGrid, int i, int j)
+    protected void exportPattern()
     {
-        for (int a = -1; a < 2; a++)
+        if (patternChooser().showSaveDialog(null) != JFileChooser.APPROVE_OPTION)
+            return;
+        File file = patternChooser().getSelectedFile();
+        if (!file.getName().contains("."))
+            file = new File(file.getPath() + ".rle");
+        
+        runner.lock();
+        try
         {
-            for (int b = -1; b < 2; b++)
-            {
-                // We figure out the coordinates of i,j's neighbors.
-                int y = i + a;
-                int x = j + b;
-                
-                switch (edgeRule)
-                {
-                    case TOROIDAL:
-                        /*
-                         * Out-of-bounds neighbor coordinates wrap around to the other side.
-                         */
-                        if (y < 0)
-                            y = gridHeight - 1;
-                        if (y > gridHeight - 1)
-                            y = 0;
-                        if (x < 0)
-                            x = gridWidth - 1;
-                        if (x > gridWidth - 1)
-                            x = 0;
-                        if (a != 0 || b != 0)
-                            tempGrid[y][x]++;
-                        break;
-                    
-                    case ON_EDGES:
-                    case OFF_EDGES:
-                        /*
-                         * In either system, we simply ignore out-of-bounds cells. Edge effects
-                         * are evaluated in the update code, itself.
-                         */
-                        if (y >= 0 && y < gridHeight && x >= 0 && x < gridWidth)
-                        {
-                            if (a != 0 || b != 0)
-                                tempGrid[y][x]++;
-                        }
-                        break;
-                    
-                    default:
-                        JOptionPane.showMessageDialog(null, "No edge rule selected (somehow).",
-                            "Error", JOptionPane.ERROR_MESSAGE);
-                }
-            }
+            PatternFile.write(simulation, file.toPath());
+        }
+        catch (IOException e)
+        {
+            JOptionPane.showMessageDialog(null, "The pattern could not be written: " +
+                e.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
+        }
+        finally
+        {
+            runner.unlock();
+        }
+    }
+    
+    /**
+     * Returns the file chooser for patterns, creating it the first time.
+     */
+    private JFileChooser patternChooser()
+    {
+        if (patternChooser == null)
+        {
+            patternChooser = new JFileChooser();
+            patternChooser.setFileFilter(new javax.swing.filechooser.FileNameExtensionFilter(
+                "Patterns (.rle, .cells)", "rle", "cells"));
+        }
+        return patternChooser;
+    }
+    
+    /**
+     * Selects the rule, edge and size items in the menu that match the simulation, such as after
+     * a snapshot or pattern was opened. Selecting them this way doesn't trigger their listeners.
+     */
+    private void selectMenuItems()
+    {
+        JRadioButtonMenuItem[] ruleItems = {conwayItem, haliteItem, conwayBodiesItem, seedsItem,
+            briansBrainItem, oddItem, evenItem}; // in the order of UpdateRule
+        ruleItem = customRuleItem;
+        for (UpdateRule updateRule : UpdateRule.values())
+        {
+            if (updateRule.getRule().equals(simulation.getRule()))
+                ruleItem = ruleItems[updateRule.ordinal()];
+        }
+        ruleItem.setSelected(true);
+        
+        JRadioButtonMenuItem[] edgeItems = {toroidalItem, onEdgesItem, offEdgesItem,
+            kleinBottleItem, mirrorItem, unboundedItem}; // in the order of EdgeRule
+        edgeItems[simulation.getEdgeRule().ordinal()].setSelected(true);
+        
+        JRadioButtonMenuItem[] sizeItems = {grid25x15item, grid50x30item, grid100x60item,
+            grid200x120item};
+        int[][] sizes = {{25, 15}, {50, 30}, {100, 60}, {200, 120}};
+        sizeItem = customSizeItem;
+        for (int k = 0; k < sizes.length; k++)
+        {
+            if (simulation.getWidth() == sizes[k][0] && simulation.getHeight() == sizes[k][1])
+                sizeItem = sizeItems[k];
+        }
+        sizeItem.setSelected(true);
+    }
+    
+    /**
+     * Starts recording every generation into a temporary file, and shows the timeline. Returns
+     * whether recording could be started.
+     */
+    private boolean startHistory()
+    {
+        runner.lock();
+        historyFile = null;
+        try
+        {
+            historyFile = File.createTempFile("history", ".bin");
+            historyFile.deleteOnExit();
+            History history = new History(historyFile.toPath(), History.DEFAULT_INTERVAL);
+            history.record(simulation);
+            simulation.setHistory(history);
+            updateTimeline();
+        }
+        catch (IOException e)
+        {
+            if (historyFile != null)
+                historyFile.delete();
+            JOptionPane.showMessageDialog(null, "The history could not be recorded: " +
+                e.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
+            return false;
+        }
+        finally
+        {
+            runner.unlock();
+        }
+        
+        showRow(timelinePanel, true);
+        return true;
+    }
+    
+    /**
+     * Stops recording, throws the history away, and hides the timeline.
+     */
+    private void stopHistory()
+    {
+        runner.lock();
+        try
+        {
+            History history = simulation.getHistory();
+            simulation.setHistory(null);
+            if (history != null)
+                history.close();
+        }
+        catch (IOException e)
+        {
+            // Nothing recorded is needed anymore, so a failure to write it doesn't matter.
+        }
+        finally
+        {
+            runner.unlock();
+        }
+        historyFile.delete();
+        showRow(timelinePanel, false);
+    }
+    
+    /**
+     * Shows or hides one of the optional rows below the grid. The window grows or shrinks by the
+     * row's height, so that the grid keeps its size.
+     */
+    private void showRow(JComponent row, boolean visible)
+    {
+        if (row.isVisible() == visible)
+            return;
+        int height = row.getPreferredSize().height;
+        row.setVisible(visible);
+        setSize(getWidth(), getHeight() + (visible? height: -height));
+        validate();
+    }
+    
+    /**
+     * Moves the timeline to the simulation's generation, out of those recorded. The caller must
+     * hold the runner's lock.
+     */
+    private void updateTimeline()
+    {
+        History history = simulation.getHistory();
+        if (history == null)
+            return;
+        
+        long first = history.getFirst();
+        long last = history.getLast();
+        long generation = simulation.getGeneration();
+        updatingTimeline = true; // so that the listener doesn't seek
+        if (first < 0)
+        {
+            timelineSlider.setEnabled(false);
+            timelineIndicator.setText("Not recording (unbounded)");
+        }
+        else
+        {
+            timelineSlider.setEnabled(true);
+            timelineSlider.setMaximum((int) Math.min(Integer.MAX_VALUE, last - first));
+            timelineSlider.setValue((int) Math.min(Integer.MAX_VALUE,
+                Math.max(0, generation - first)));
+            timelineIndicator.setText("Generation " + generation + " of " + first + "-" + last);
+        }
+        updatingTimeline = false;
+    }
+    
+    /**
+     * Restores the recorded generation chosen on the timeline, pausing the simulation first.
+     * Running on from there replaces the generations recorded after it.
+     */
+    private void seekTimeline()
+    {
+        History history = simulation.getHistory();
+        if (history == null)
+            return;
+        
+        pause();
+        runner.lock();
+        try
+        {
+            history.seek(simulation, history.getFirst() + timelineSlider.getValue());
+            repaintAll();
+        }
+        catch (IOException | IllegalArgumentException | IllegalStateException e)
+        {
+            JOptionPane.showMessageDialog(null, "The generation could not be restored: " +
+                e.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
+        }
+        finally
+        {
+            updateTimeline();
+            runner.unlock();
         }
     }
     
+    /**
+     * Stops the simulation thread, and draws the generation it stopped on.
+     */
+    protected void pause()
+    {
+        runner.stop();
+        frameTimer.stop();
+        metrics.stopFrames();
+        playing = false;
+        playIndicator.setText("Paused");
+        runner.lock();
+        try
+        {
+            repaintChanged();
+        }
+        finally
+        {
+            runner.unlock();
+        }
+    }
+    
+    /**
+     * Advances the simulation by one step and redraws the grid.
+     */
+    protected void update()
+    {
+        runner.lock();
+        try
+        {
+            simulation.update();
+            repaintChanged();
+        }
+        finally
+        {
+            runner.unlock();
+        }
+    }
+    
+    /**
+     * Undoes the last step and redraws the grid, or beeps if there is no step to undo (such as
+     * after the grid was cleared).
+     */
+    protected void stepBack()
+    {
+        runner.lock();
+        try
+        {
+            if (!simulation.getRewind().stepBack(simulation))
+                Toolkit.getDefaultToolkit().beep();
+            repaintChanged();
+        }
+        finally
+        {
+            runner.unlock();
+        }
+    }
+    
+    /**
+     * Applies the cells painted so far and redraws them, unless the simulation thread is in the
+     * middle of a generation. In that case the simulation applies them itself before the next one,
+     * and the next frame draws them, so painting never waits on a generation.
+     */
+    protected void applyEdits()
+    {
+        if (!runner.tryLock())
+            return;
+        try
+        {
+            edits.applyTo(simulation);
+            repaintChanged();
+        }
+        finally
+        {
+            runner.unlock();
+        }
+    }
+    
+    /**
+     * Redraws only the tiles of the grid that have changed since the last redraw: they are copied
+     * into the renderer's image right away, and the parts of the panel that show them are
+     * repainted. The timeline is moved along as well, if shown. The caller must hold the runner's
+     * lock.
+     */
+    protected void repaintChanged()
+    {
+        updateTimeline();
+        TileMap tiles = simulation.getTiles();
+        int tileWidth = tiles.getTileWidth();
+        int tileHeight = tiles.getTileHeight();
+        for (int n = 0; n < tiles.getDirtyCount(); n++)
+        {
+            int t = tiles.getDirtyTile(n);
+            int left = (t % tiles.getColumns()) * tileWidth;
+            int top = (t / tiles.getColumns()) * tileHeight;
+            int x = view.screenX(left);
+            int y = view.screenY(top);
+            
+            // Cells are drawn one pixel right of and below their grid lines, so pad by a pixel.
+            drawingPanel.repaint(x, y, view.screenX(left + tileWidth) - x + 2,
+                view.screenY(top + tileHeight) - y + 2);
+        }
+        renderer.renderDirty(simulation);
+    }
+    
+    /**
+     * Redraws the entire grid, such as after it was cleared or reseeded.
+     */
+    protected void repaintAll()
+    {
+        renderer.invalidate();
+        drawingPanel.repaint();
+    }
+    
     ////////////////////////////////////////////////////
     // Inner Classes
     ////////////////////////////////////////////////////
-      
+    
     /**
      * This is the panel which actually draws the grid and everything on it.
      */
@@ -579,38 +979,24 @@ public class CellularAutomata extends JFrame
         
         public void paintComponent(Graphics g)
         {
+            long start = System.nanoTime();
             super.paintComponent(g);
             
-            dx = (int) WIDTH / gridWidth;
-            dy = (int) HEIGHT / gridHeight;
+            // A resized grid is fitted to the panel; otherwise the zoom and position are kept.
+            view.setGridSize(simulation.getWidth(), simulation.getHeight());
             
-            // Drawing the cells on the grid:
-            for (int i = 0; i < gridHeight; i++)
+            // Drawing the cells (they are only all copied again if the view changed) and grid:
+            runner.lock();
+            try
             {
-                for (int j = 0; j < gridWidth; j++)
-                {
-                    if (grid[i][j] == 1)
-                    {
-                        g.setColor(Color.BLACK);
-                        g.fillRect(dx*j+1, dy*i+1, dx, dy);
-                    }
-                    else if (grid[i][j] == 2) // dead body from the body rules
-                    {
-                        g.setColor(Color.GRAY);
-                        g.fillRect(dx*j+1, dy*i+1, dx, dy);
-                    }
-                }
+                renderer.render(simulation, view);
             }
-            
-            // Drawing the grid:
-            if (visibleGrid)
+            finally
             {
-                g.setColor(Color.BLACK);
-                for (int i = 0; i < gridWidth; i++)
-                    g.drawLine(dx*i, 0, dx*i, HEIGHT);
-                for (int i = 0; i < gridHeight; i++)
-                    g.drawLine(0, dy*i, WIDTH, dy*i);
+                runner.unlock();
             }
+            renderer.paint(g, view, visibleGrid);
+            metrics.recordPaint(System.nanoTime() - start);
         }
         
         // Custom methods:
@@ -659,6 +1045,34 @@ public class CellularAutomata extends JFrame
         }
     }
     
+    /**
+     * Opens or saves a snapshot of the grid.
+     */
+    private class SnapshotListener implements ActionListener
+    {
+        public void actionPerformed(ActionEvent e)
+        {
+            if (e.getSource() == openSnapshotItem)
+                openSnapshot();
+            else
+                saveSnapshot();
+        }
+    }
+    
+    /**
+     * Imports or exports a pattern.
+     */
+    private class PatternListener implements ActionListener
+    {
+        public void actionPerformed(ActionEvent e)
+        {
+            if (e.getSource() == importPatternItem)
+                importPattern();
+            else
+                exportPattern();
+        }
+    }
+    
     /**
      * Determines whether to draw the grid lines.
      */
@@ -670,6 +1084,94 @@ public class CellularAutomata extends JFrame
                 visibleGrid = true;
             else
                 visibleGrid = false;
+            drawingPanel.repaint();
+        }
+    }
+    
+    /**
+     * Shows or hides the performance figures, which are only refreshed while they are shown.
+     */
+    private class MetricsListener implements ItemListener
+    {
+        public void itemStateChanged(ItemEvent e)
+        {
+            if (metricsItem.isSelected())
+            {
+                metricsIndicator.setText(metrics.getSummary());
+                metricsTimer.start();
+            }
+            else
+                metricsTimer.stop();
+            showRow(metricsIndicator, metricsItem.isSelected());
+        }
+    }
+    
+    /**
+     * Switches two-state rules between the standard engine and Hashlife.
+     */
+    private class HashLifeListener implements ItemListener
+    {
+        public void itemStateChanged(ItemEvent e)
+        {
+            runner.lock();
+            try
+            {
+                simulation.setHashLife(hashLifeItem.isSelected());
+                repaintAll();
+            }
+            finally
+            {
+                runner.unlock();
+            }
+        }
+    }
+    
+    /**
+     * Turns cycle detection on or off, along with pausing once a cycle is found.
+     */
+    private class StableListener implements ItemListener
+    {
+        public void itemStateChanged(ItemEvent e)
+        {
+            runner.lock();
+            try
+            {
+                simulation.setCycleDetection(stableItem.isSelected());
+                runner.setStopWhenStable(stableItem.isSelected());
+            }
+            finally
+            {
+                runner.unlock();
+            }
+        }
+    }
+    
+    /**
+     * Starts or stops recording the history, along with showing the timeline.
+     */
+    private class HistoryListener implements ItemListener
+    {
+        public void itemStateChanged(ItemEvent e)
+        {
+            if (historyItem.isSelected())
+            {
+                if (!startHistory())
+                    historyItem.setSelected(false);
+            }
+            else if (timelinePanel.isVisible()) // not if recording never started
+                stopHistory();
+        }
+    }
+    
+    /**
+     * Seeks to the recorded generation chosen on the timeline.
+     */
+    private class TimelineListener implements ChangeListener
+    {
+        public void stateChanged(ChangeEvent e)
+        {
+            if (!updatingTimeline)
+                seekTimeline();
         }
     }
     
@@ -680,22 +1182,46 @@ public class CellularAutomata extends JFrame
     {
         public void actionPerformed(ActionEvent e)
         {
-            if (conwayItem.isSelected())
-                updateRule = UpdateRule.CONWAY;
-            else if (haliteItem.isSelected())
-                updateRule = UpdateRule.HALITE;
-            else if (conwayBodiesItem.isSelected())
-                updateRule = UpdateRule.CONWAY_BODIES;
-            else if (seedsItem.isSelected())
-                updateRule = UpdateRule.SEEDS;
-            else if (briansBrainItem.isSelected())
-                updateRule = UpdateRule.BRIANS_BRAIN;
-            else if (oddItem.isSelected())
-                updateRule = UpdateRule.ODD;
-            else if (evenItem.isSelected())
-                updateRule = UpdateRule.EVEN;
-            else // Unexpected selections default to Conway.
-                updateRule = UpdateRule.CONWAY;
+            // The dialog is shown before locking, so that the simulation keeps running behind it.
+            if (customRuleItem.isSelected())
+            {
+                // Cancelling leaves the previous rule selected.
+                if (!chooseCustomRule())
+                {
+                    ruleItem.setSelected(true);
+                    return;
+                }
+            }
+            
+            runner.lock();
+            try
+            {
+                if (conwayItem.isSelected())
+                    simulation.setUpdateRule(UpdateRule.CONWAY);
+                else if (haliteItem.isSelected())
+                    simulation.setUpdateRule(UpdateRule.HALITE);
+                else if (conwayBodiesItem.isSelected())
+                    simulation.setUpdateRule(UpdateRule.CONWAY_BODIES);
+                else if (seedsItem.isSelected())
+                    simulation.setUpdateRule(UpdateRule.SEEDS);
+                else if (briansBrainItem.isSelected())
+                    simulation.setUpdateRule(UpdateRule.BRIANS_BRAIN);
+                else if (oddItem.isSelected())
+                    simulation.setUpdateRule(UpdateRule.ODD);
+                else if (evenItem.isSelected())
+                    simulation.setUpdateRule(UpdateRule.EVEN);
+                else if (customRuleItem.isSelected())
+                {
+                    // Already switched to by chooseCustomRule, above.
+                }
+                else // Unexpected selections default to Conway.
+                    simulation.setUpdateRule(UpdateRule.CONWAY);
+                ruleItem = (JRadioButtonMenuItem) e.getSource();
+            }
+            finally
+            {
+                runner.unlock();
+            }
         }
     }
     
@@ -706,14 +1232,28 @@ public class CellularAutomata extends JFrame
     {
         public void actionPerformed(ActionEvent e)
         {
-            if (toroidalItem.isSelected())
-                edgeRule = EdgeRule.TOROIDAL;
-            else if (onEdgesItem.isSelected())
-                edgeRule = EdgeRule.ON_EDGES;
-            else if (offEdgesItem.isSelected())
-                edgeRule = EdgeRule.OFF_EDGES;
-            else // Unexpected selections default to toroidal.
-                edgeRule = EdgeRule.TOROIDAL;
+            runner.lock();
+            try
+            {
+                if (toroidalItem.isSelected())
+                    simulation.setEdgeRule(EdgeRule.TOROIDAL);
+                else if (onEdgesItem.isSelected())
+                    simulation.setEdgeRule(EdgeRule.ON_EDGES);
+                else if (offEdgesItem.isSelected())
+                    simulation.setEdgeRule(EdgeRule.OFF_EDGES);
+                else if (kleinBottleItem.isSelected())
+                    simulation.setEdgeRule(EdgeRule.KLEIN_BOTTLE);
+                else if (mirrorItem.isSelected())
+                    simulation.setEdgeRule(EdgeRule.MIRROR);
+                else if (unboundedItem.isSelected())
+                    simulation.setEdgeRule(EdgeRule.UNBOUNDED);
+                else // Unexpected selections default to toroidal.
+                    simulation.setEdgeRule(EdgeRule.TOROIDAL);
+            }
+            finally
+            {
+                runner.unlock();
+            }
         }
     }
     
@@ -724,51 +1264,86 @@ public class CellularAutomata extends JFrame
     {
         public void actionPerformed(ActionEvent e)
         {
-            if (grid25x15item.isSelected())
-            {
-                gridWidth = 25;
-                gridHeight = 15;
-            }
-            else if (grid50x30item.isSelected())
+            // The dialog is shown before locking, so that the simulation keeps running behind it.
+            if (customSizeItem.isSelected())
             {
-                gridWidth = 50;
-                gridHeight = 30;
-            }
-            else if (grid100x60item.isSelected())
-            {
-                gridWidth = 100;
-                gridHeight = 60;
+                // Cancelling leaves the previous size selected.
+                if (!chooseCustomSize())
+                {
+                    sizeItem.setSelected(true);
+                    return;
+                }
             }
-            else if (grid200x120item.isSelected())
+            
+            runner.lock();
+            try
             {
-                gridWidth = 200;
-                gridHeight = 120;
+                if (grid25x15item.isSelected())
+                {
+                    simulation.resize(25, 15);
+                }
+                else if (grid50x30item.isSelected())
+                {
+                    simulation.resize(50, 30);
+                }
+                else if (grid100x60item.isSelected())
+                {
+                    simulation.resize(100, 60);
+                }
+                else if (grid200x120item.isSelected())
+                {
+                    simulation.resize(200, 120);
+                }
+                else if (customSizeItem.isSelected())
+                {
+                    // Already resized by chooseCustomSize, above.
+                }
+                else // Unexpected selections default to 50 x 30.
+                {
+                    simulation.resize(50, 30);
+                }
+                sizeItem = (JRadioButtonMenuItem) e.getSource();
+                gridClear();
             }
-            else // Unexpected selections default to 50 x 30.
+            finally
             {
-                gridWidth = 50;
-                gridHeight = 30;
+                runner.unlock();
             }
-            gridClear();
         }
     }
     
     /**
-     * Toggles the timer.
+     * Zooms in or out around the middle of the panel, or fits the whole grid onto it.
+     */
+    private class ZoomListener implements ActionListener
+    {
+        public void actionPerformed(ActionEvent e)
+        {
+            int x = drawingPanel.getWidth() / 2;
+            int y = drawingPanel.getHeight() / 2;
+            if (e.getSource() == zoomInItem)
+                view.zoom(true, x, y);
+            else if (e.getSource() == zoomOutItem)
+                view.zoom(false, x, y);
+            else
+                view.fit();
+            drawingPanel.repaint();
+        }
+    }
+    
+    /**
+     * Starts or stops the simulation thread.
      */
     private class PauseUnpauseButtonListener implements ActionListener
     {
         public void actionPerformed(ActionEvent e)
         {
             if (playing)
-            {
-                timer.stop();
-                playing = false;
-                playIndicator.setText("Paused");
-            }
+                pause();
             else
             {
-                timer.start();
+                runner.start();
+                frameTimer.start();
                 playing = true;
                 playIndicator.setText("Playing");
             }
@@ -776,18 +1351,29 @@ public class CellularAutomata extends JFrame
     }
     
     /**
-     * Updates the grid by one step without actually starting the timer.
+     * Updates the grid by one step without actually starting the simulation thread.
      */
     private class StepButtonListener implements ActionListener
     {
         public void actionPerformed(ActionEvent e)
         {
-            timer.stop();
-            playIndicator.setText("Paused");
+            pause();
             update();
         }
     }
     
+    /**
+     * Undoes the last step, pausing the simulation thread first.
+     */
+    private class StepBackButtonListener implements ActionListener
+    {
+        public void actionPerformed(ActionEvent e)
+        {
+            pause();
+            stepBack();
+        }
+    }
+    
     /**
      * Updates the play speed.
      */
@@ -795,8 +1381,7 @@ public class CellularAutomata extends JFrame
     {
         public void actionPerformed(ActionEvent e)
         {
-            delay = (int) (1000 / speedList[speedBox.getSelectedIndex()]);
-            timer.setDelay(delay);
+            runner.setRate(speedList[speedBox.getSelectedIndex()]);
         }
     }
     
@@ -804,11 +1389,13 @@ public class CellularAutomata extends JFrame
      * This class contains the events for both moving and clicking the mouse. Note that instances
      * of this listener are registered for the drawing panel, itself.
      */
-    private class MouseEvents implements MouseListener, MouseMotionListener
+    private class MouseEvents implements MouseListener, MouseMotionListener, MouseWheelListener
     {
         // Definitions:
         private int cellX; // j coordinate of cell that the mouse is over
         private int cellY; // i coordinate of cell that the mouse is over
+        private boolean panning = false; // whether the view is being dragged around
+        private int panX, panY; // where the mouse was when the view was last moved
         
         // Standard mouse event methods:
         
@@ -817,9 +1404,20 @@ public class CellularAutomata extends JFrame
          */
         public void mouseDragged(MouseEvent e)
         {
+            if (panning)
+            {
+                view.pan(e.getX() - panX, e.getY() - panY);
+                panX = e.getX();
+                panY = e.getY();
+                drawingPanel.repaint();
+                return;
+            }
+            
+            // Paint a line from the last cell, so that no cells are skipped however fast the drag.
+            int lastX = cellX, lastY = cellY;
             reposition(e);
-            grid[cellY][cellX] = (filling)? 1: 0;
-            reposition(e);
+            edits.addLine(lastY, lastX, cellY, cellX, EditQueue.SAME);
+            applyEdits();
         }
         
         /**
@@ -829,7 +1427,7 @@ public class CellularAutomata extends JFrame
         {
             reposition(e);
         }
-
+        
         public void mouseClicked(MouseEvent e) {}
         
         public void mouseEntered(MouseEvent e) {}
@@ -838,53 +1436,113 @@ public class CellularAutomata extends JFrame
         
         public void mousePressed(MouseEvent e)
         {
+            // Dragging with any button but the left one moves the view instead of painting.
+            if (!SwingUtilities.isLeftMouseButton(e))
+            {
+                panning = true;
+                panX = e.getX();
+                panY = e.getY();
+                return;
+            }
             /*
              * If the user clicks and drags on an empty cell, we assume they're trying to paint
              * cells. If they click and drag on a filled cell, we assume they're trying to erase
              * cells. Once we pick one, any other empty/filled cells get filled/erased,
-             * respectively. We only update the filling variable as soon as they click.
+             * respectively. The choice is made when the click is applied, and the rest of the
+             * drag follows it.
              */
             reposition(e);
-            filling = (grid[cellY][cellX] == 1)? false: true;
-            grid[cellY][cellX] = (filling)? 1: 0;
-            reposition(e);
+            edits.addLine(cellY, cellX, cellY, cellX, EditQueue.TOGGLE);
+            applyEdits();
+        }
+        
+        public void mouseReleased(MouseEvent e)
+        {
+            panning = false;
         }
         
-        public void mouseReleased(MouseEvent e) {}
+        /**
+         * Zooms in or out around the mouse.
+         */
+        public void mouseWheelMoved(MouseWheelEvent e)
+        {
+            view.zoom(e.getWheelRotation() < 0, e.getX(), e.getY());
+            drawingPanel.repaint();
+        }
         
         // Custom methods:
         
         public void reposition(MouseEvent e)
         {
-            cellX = (int) (1.0 * e.getX()) / dx; // cell j coordinate (starts at 0)
-            cellY = (int) (1.0 * e.getY()) / dy; // cell i coordinate (starts at 0)
+            cellX = view.columnAt(e.getX()); // cell j coordinate (starts at 0)
+            cellY = view.rowAt(e.getY()); // cell i coordinate (starts at 0)
             
             /*
              * Near the edges of the screen the cell coordinates may mistakenly become too high or
              * low. We need to manually restrict them.
              */
-            if (cellX > gridWidth - 1)
-                cellX = gridWidth - 1;
+            if (cellX > simulation.getWidth() - 1)
+                cellX = simulation.getWidth() - 1;
             if (cellX < 0)
                 cellX = 0;
-            if (cellY > gridHeight - 1)
-                cellY = gridHeight - 1;
+            if (cellY > simulation.getHeight() - 1)
+                cellY = simulation.getHeight() - 1;
             if (cellY < 0)
                 cellY = 0;
             
             cellCoordinates.setText("Cell " + cellX + ", " + cellY);
-            drawingPanel.repaint();
         }
     }
     
     /**
-     * Every time the timer "fires", the grid updates.
+     * Every time the frame timer "fires", the latest generation is drawn. Any generations the
+     * simulation thread got through since the last frame are simply skipped over.
      */
     private class TimerListener implements ActionListener
     {
         public void actionPerformed(ActionEvent e)
         {
-            update();
+            metrics.recordFrame();
+            runner.lock();
+            try
+            {
+                repaintChanged();
+            }
+            finally
+            {
+                runner.unlock();
+            }
+            
+            // The simulation thread stops by itself when asked to once stable, or if it fails.
+            if (playing && !runner.isRunning())
+            {
+                pause();
+                Throwable failure = runner.getFailure();
+                if (failure != null)
+                {
+                    playIndicator.setText("Failed");
+                    JOptionPane.showMessageDialog(null, "The simulation stopped: " + failure,
+                        "Error", JOptionPane.ERROR_MESSAGE);
+                }
+                else
+                {
+                    playIndicator.setText("Stable");
+                    JOptionPane.showMessageDialog(null, "The grid is " +
+                        simulation.getCycleDetector() + ".", "Stable",
+                        JOptionPane.INFORMATION_MESSAGE);
+                }
+            }
+        }
+    }
+    
+    /**
+     * Refreshes the performance figures in the control panel.
+     */
+    private class MetricsTimerListener implements ActionListener
+    {
+        public void actionPerformed(ActionEvent e)
+        {
+            metricsIndicator.setText(metrics.getSummary());
         }
     }
     
@@ -893,10 +1551,17 @@ public class CellularAutomata extends JFrame
     ////////////////////////////////////////////////////
     
     /**
-     * Creates an instance of the GUI window.
+     * Creates an instance of the GUI window, or runs the simulation from the command line (with no
+     * window at all) if the first argument is "--headless", or a parameter sweep if it is
+     * "--sweep".
      */
     public static void main(String[] args)
     {
-        new CellularAutomata();
+        if (args.length > 0 && args[0].equals("--headless"))
+            Headless.main(java.util.Arrays.copyOfRange(args, 1, args.length));
+        else if (args.length > 0 && args[0].equals("--sweep"))
+            Sweep.main(java.util.Arrays.copyOfRange(args, 1, args.length));
+        else
+            new CellularAutomata();
     }
 }
@@ -0,0 +1,532 @@
+import java.util.Arrays;
+
+/**
+ * An unbounded plane of two-state cells, stored as 64 x 64 chunks that exist only where there are
+ * live cells. Each chunk is packed one long per row (bit j of a row is column j of the chunk), and
+ * the chunks are kept in a hash map keyed by their chunk coordinates packed into a long, so memory
+ * grows with the population rather than with the area the pattern spans.
+ *
+ * A chunk is created when live cells on its neighbor's border could give birth inside it, and is
+ * freed as soon as it becomes empty. As with a TileMap, only the chunks that changed in the last
+ * generation and the chunks around them are recomputed, so still lifes cost nothing.
+ *
+ * Each chunk also remembers its Zobrist hash (see Zobrist) until it changes, so the hash of the
+ * whole plane only needs the changed chunks hashed again.
+ *
+ * Since the plane has no edges, edge rules do not apply. Rules in which an empty neighborhood
+ * gives birth (B0) are not supported.
+ */
+public class ChunkGrid
+{
+    /*
+     * Contents:
+     * Definitions-----------------------------
+     * Methods---------------------------------
+     * ChunkGrid
+     * setRule
+     * clear
+     * step
+     * grow
+     * activate
+     * stepChunk
+     * column
+     * create
+     * free
+     * markChanged
+     * key
+     * Accessors-------------------------------
+     * Inner Classes---------------------------
+     * Chunk
+     * ChunkMap
+     */
+    
+    ////////////////////////////////////////////////////
+    // Definitions
+    ////////////////////////////////////////////////////
+    
+    public static final int SIZE = 64; // width and height of a chunk, in cells
+    
+    // Rough size of one chunk in memory (two buffers of 64 longs plus overhead):
+    public static final int CHUNK_BYTES = 2 * (16 + 8 * SIZE) + 64;
+    
+    private int birth; // bit n is set if a dead cell with n live neighbors comes to life
+    private int survive; // bit n is set if a live cell with n live neighbors stays alive
+    private final ChunkMap map = new ChunkMap(); // every chunk, by key
+    private Chunk[] chunks = new Chunk[64]; // every chunk, in no particular order
+    private int chunkCount = 0;
+    private long[] changed = new long[64]; // keys of chunks that changed in the last generation
+    private int changedCount = 0;
+    private Chunk[] active = new Chunk[64]; // chunks being recomputed in the current generation
+    private int activeCount = 0;
+    
+    ////////////////////////////////////////////////////
+    // Methods
+    ////////////////////////////////////////////////////
+    
+    /**
+     * Creates an empty plane running Conway's Game of Life.
+     */
+    public ChunkGrid()
+    {
+        birth = 1 << 3;
+        survive = (1 << 2) | (1 << 3);
+    }
+    
+    /**
+     * Sets the rule as a pair of bit masks: a dead cell with n live neighbors comes to life if bit
+     * n of birth is set, and a live cell with n live neighbors stays alive if bit n of survive is
+     * set.
+     */
+    public void setRule(int birth, int survive)
+    {
+        if ((birth & 1) != 0)
+            throw new IllegalArgumentException("An unbounded plane cannot run rules with B0.");
+        
+        this.birth = birth;
+        this.survive = survive;
+        
+        // Every chunk has to be looked at again under the new rule.
+        for (int n = 0; n < chunkCount; n++)
+            markChanged(chunks[n]);
+    }
+    
+    /**
+     * Kills every cell, freeing all of the chunks.
+     */
+    public void clear()
+    {
+        map.clear();
+        for (int n = 0; n < chunkCount; n++)
+            chunks[n] = null;
+        chunkCount = 0;
+        changedCount = 0;
+    }
+    
+    /**
+     * Advances the plane by one generation.
+     */
+    public void step()
+    {
+        grow();
+        
+        // Recompute every chunk that changed and every chunk around one.
+        for (int n = 0; n < changedCount; n++)
+        {
+            Chunk chunk = map.get(changed[n]);
+            if (chunk != null)
+                chunk.changed = false;
+            int cx = (int) changed[n];
+            int cy = (int) (changed[n] >> 32);
+            for (int a = -1; a < 2; a++)
+            {
+                for (int b = -1; b < 2; b++)
+                    activate(map.get(key(cx + b, cy + a)));
+            }
+        }
+        changedCount = 0;
+        
+        boolean conway = (birth == 0b1000 && survive == 0b1100);
+        for (int n = 0; n < activeCount; n++)
+        {
+            if (stepChunk(active[n], conway))
+                markChanged(active[n]);
+        }
+        
+        /*
+         * Make the new generation current only once every chunk has been computed, since each
+         * one reads its neighbors' current cells. Chunks that died out are freed; any that changed
+         * are still in the changed list, so their neighbors get another look next time.
+         */
+        for (int n = 0; n < activeCount; n++)
+        {
+            Chunk chunk = active[n];
+            long[] temp = chunk.cells;
+            chunk.cells = chunk.next;
+            chunk.next = temp;
+            chunk.active = false;
+            
+            long any = 0;
+            for (int r = 0; r < SIZE; r++)
+                any |= chunk.cells[r];
+            if (any == 0)
+                free(chunk);
+            active[n] = null;
+        }
+        activeCount = 0;
+    }
+    
+    /**
+     * Creates any missing chunks next to changed chunks whose live cells reach the shared border,
+     * since those cells could give birth on the other side.
+     */
+    private void grow()
+    {
+        int count = changedCount; // chunks created here are empty, so they need not be checked
+        for (int n = 0; n < count; n++)
+        {
+            Chunk chunk = map.get(changed[n]);
+            if (chunk == null)
+                continue;
+            
+            long[] cells = chunk.cells;
+            long all = 0; // every column with a live cell
+            for (int r = 0; r < SIZE; r++)
+                all |= cells[r];
+            boolean top = (cells[0] != 0), bottom = (cells[SIZE-1] != 0);
+            boolean left = ((all & 1L) != 0), right = ((all >>> 63) != 0);
+            
+            int cx = chunk.x, cy = chunk.y;
+            if (top)
+                create(cx, cy - 1);
+            if (bottom)
+                create(cx, cy + 1);
+            if (left)
+                create(cx - 1, cy);
+            if (right)
+                create(cx + 1, cy);
+            if ((cells[0] & 1L) != 0)
+                create(cx - 1, cy - 1);
+            if ((cells[0] >>> 63) != 0)
+                create(cx + 1, cy - 1);
+            if ((cells[SIZE-1] & 1L) != 0)
+                create(cx - 1, cy + 1);
+            if ((cells[SIZE-1] >>> 63) != 0)
+                create(cx + 1, cy + 1);
+        }
+    }
+    
+    /**
+     * Adds a chunk (if there is one) to the list of chunks to recompute, unless it is already
+     * there.
+     */
+    private void activate(Chunk chunk)
+    {
+        if (chunk == null || chunk.active)
+            return;
+        chunk.active = true;
+        if (activeCount == active.length)
+            active = Arrays.copyOf(active, 2 * active.length);
+        active[activeCount++] = chunk;
+    }
+    
+    /**
+     * Computes the next generation of a chunk into its spare buffer, using the same bitwise adder
+     * as PackedGrid. Missing neighbors are empty. Returns whether any cell changed.
+     */
+    private boolean stepChunk(Chunk chunk, boolean conway)
+    {
+        int cx = chunk.x, cy = chunk.y;
+        Chunk north = map.get(key(cx, cy - 1)), south = map.get(key(cx, cy + 1));
+        Chunk west = map.get(key(cx - 1, cy)), east = map.get(key(cx + 1, cy));
+        
+        /*
+         * The ghost cells around the chunk: a whole row above and below, and a column of 64 bits
+         * on either side (bit r is row r), plus the four corners.
+         */
+        long above = (north == null)? 0: north.cells[SIZE-1];
+        long below = (south == null)? 0: south.cells[0];
+        long westColumn = (west == null)? 0: column(west.cells, 63);
+        long eastColumn = (east == null)? 0: column(east.cells, 0);
+        Chunk corner = map.get(key(cx - 1, cy - 1));
+        long northWest = (corner == null)? 0: corner.cells[SIZE-1] >>> 63;
+        corner = map.get(key(cx + 1, cy - 1));
+        long northEast = (corner == null)? 0: corner.cells[SIZE-1] & 1L;
+        corner = map.get(key(cx - 1, cy + 1));
+        long southWest = (corner == null)? 0: corner.cells[0] >>> 63;
+        corner = map.get(key(cx + 1, cy + 1));
+        long southEast = (corner == null)? 0: corner.cells[0] & 1L;
+        
+        long[] cells = chunk.cells, out = chunk.next;
+        long diff = 0;
+        for (int r = 0; r < SIZE; r++)
+        {
+            long u = (r > 0)? cells[r-1]: above;
+            long m = cells[r];
+            long d = (r < SIZE - 1)? cells[r+1]: below;
+            long upWest = (r > 0)? (westColumn >>> (r - 1)) & 1L: northWest;
+            long upEast = (r > 0)? (eastColumn >>> (r - 1)) & 1L: northEast;
+            long downWest = (r < SIZE - 1)? (westColumn >>> (r + 1)) & 1L: southWest;
+            long downEast = (r < SIZE - 1)? (eastColumn >>> (r + 1)) & 1L: southEast;
+            
+            long uw = (u << 1) | upWest, ue = (u >>> 1) | (upEast << 63);
+            long mw = (m << 1) | ((westColumn >>> r) & 1L);
+            long me = (m >>> 1) | (((eastColumn >>> r) & 1L) << 63);
+            long dw = (d << 1) | downWest, de = (d >>> 1) | (downEast << 63);
+            
+            long s1 = uw ^ u ^ ue, c1 = (uw & u) | (ue & (uw ^ u));
+            long s2 = mw ^ me ^ dw, c2 = (mw & me) | (dw & (mw ^ me));
+            long s3 = d ^ de, c3 = d & de;
+            long b0 = s1 ^ s2 ^ s3, c4 = (s1 & s2) | (s3 & (s1 ^ s2));
+            long t = c1 ^ c2 ^ c3, c5 = (c1 & c2) | (c3 & (c1 ^ c2));
+            long b1 = t ^ c4, c6 = t & c4;
+            long b2 = c5 ^ c6;
+            long b3 = c5 & c6;
+            
+            long result;
+            if (conway)
+                result = b1 & ~b2 & ~b3 & (b0 | m);
+            else
+                result = PackedGrid.applyRule(m, b0, b1, b2, b3, birth, survive);
+            diff |= result ^ m;
+            out[r] = result;
+        }
+        return diff != 0;
+    }
+    
+    /**
+     * Gathers bit j of every row of a chunk into a single long, with row r in bit r.
+     */
+    private static long column(long[] cells, int j)
+    {
+        long column = 0;
+        for (int r = 0; r < SIZE; r++)
+            column |= ((cells[r] >>> j) & 1L) << r;
+        return column;
+    }
+    
+    /**
+     * Returns the chunk at the given chunk coordinates, creating an empty one if there is none.
+     */
+    private Chunk create(int cx, int cy)
+    {
+        long key = key(cx, cy);
+        Chunk chunk = map.get(key);
+        if (chunk != null)
+            return chunk;
+        
+        chunk = new Chunk(cx, cy);
+        map.put(key, chunk);
+        if (chunkCount == chunks.length)
+            chunks = Arrays.copyOf(chunks, 2 * chunks.length);
+        chunk.index = chunkCount;
+        chunks[chunkCount++] = chunk;
+        markChanged(chunk); // so that it gets computed at least once
+        return chunk;
+    }
+    
+    /**
+     * Removes an empty chunk from the plane.
+     */
+    private void free(Chunk chunk)
+    {
+        map.remove(key(chunk.x, chunk.y));
+        Chunk last = chunks[--chunkCount];
+        chunks[chunk.index] = last;
+        last.index = chunk.index;
+        chunks[chunkCount] = null;
+    }
+    
+    /**
+     * Adds a chunk to the list of chunks that changed, unless it is already there.
+     */
+    private void markChanged(Chunk chunk)
+    {
+        chunk.hashed = false;
+        if (chunk.changed)
+            return;
+        chunk.changed = true;
+        if (changedCount == changed.length)
+            changed = Arrays.copyOf(changed, 2 * changed.length);
+        changed[changedCount++] = key(chunk.x, chunk.y);
+    }
+    
+    /**
+     * Packs chunk coordinates into a single long key.
+     */
+    private static long key(int cx, int cy)
+    {
+        return ((long) cy << 32) | (cx & 0xFFFFFFFFL);
+    }
+    
+    ////////////////////////////////////////////////////
+    // Accessors
+    ////////////////////////////////////////////////////
+    
+    /**
+     * Returns the state (0 or 1) of the cell in row i, column j.
+     */
+    public int get(long i, long j)
+    {
+        Chunk chunk = map.get(key((int) (j >> 6), (int) (i >> 6)));
+        if (chunk == null)
+            return 0;
+        return (int) (chunk.cells[(int) (i & 63)] >>> (j & 63)) & 1;
+    }
+    
+    /**
+     * Sets the cell in row i, column j to alive (state 1) or dead (any other state).
+     */
+    public void set(long i, long j, int state)
+    {
+        int cx = (int) (j >> 6), cy = (int) (i >> 6);
+        Chunk chunk = (state == 1)? create(cx, cy): map.get(key(cx, cy));
+        if (chunk == null)
+            return;
+        
+        if (state == 1)
+            chunk.cells[(int) (i & 63)] |= 1L << (j & 63);
+        else
+            chunk.cells[(int) (i & 63)] &= ~(1L << (j & 63));
+        markChanged(chunk);
+    }
+    
+    /**
+     * Returns the number of chunks currently allocated.
+     */
+    public int getChunkCount()
+    {
+        return chunkCount;
+    }
+    
+    /**
+     * Counts the number of live cells.
+     */
+    public long getPopulation()
+    {
+        long population = 0;
+        for (int n = 0; n < chunkCount; n++)
+        {
+            for (int r = 0; r < SIZE; r++)
+                population += Long.bitCount(chunks[n].cells[r]);
+        }
+        return population;
+    }
+    
+    /**
+     * Returns the Zobrist hash of the whole plane. Only the chunks that changed since they were
+     * last hashed are hashed again; empty chunks, which are freed, would add nothing anyway.
+     */
+    public long getHash()
+    {
+        long hash = 0;
+        for (int n = 0; n < chunkCount; n++)
+        {
+            Chunk chunk = chunks[n];
+            if (!chunk.hashed)
+            {
+                long position = Zobrist.mix(key(chunk.x, chunk.y));
+                chunk.hash = 0;
+                for (int r = 0; r < SIZE; r++)
+                    chunk.hash ^= Zobrist.key(position + r, chunk.cells[r]);
+                chunk.hashed = true;
+            }
+            hash ^= chunk.hash;
+        }
+        return hash;
+    }
+    
+    ////////////////////////////////////////////////////
+    // Inner Classes
+    ////////////////////////////////////////////////////
+    
+    /**
+     * A 64 x 64 block of cells, with a spare buffer for computing its next generation. Chunk
+     * (x, y) holds rows 64*y to 64*y + 63 and columns 64*x to 64*x + 63.
+     */
+    private static class Chunk
+    {
+        final int x, y; // chunk coordinates
+        long[] cells = new long[SIZE]; // current generation, one row per long
+        long[] next = new long[SIZE]; // buffer for the next generation
+        int index; // position in the list of all chunks
+        boolean changed; // whether the chunk is in the changed list
+        boolean active; // whether the chunk is in the active list
+        long hash; // Zobrist hash of the cells, if hashed since they last changed
+        boolean hashed; // whether hash is up to date
+        
+        Chunk(int x, int y)
+        {
+            this.x = x;
+            this.y = y;
+        }
+    }
+    
+    /**
+     * An open-addressing hash map from long keys to chunks, so that looking up a chunk never
+     * boxes its key. Deleted entries are filled by shifting later entries back, so no tombstones
+     * are needed.
+     */
+    private static class ChunkMap
+    {
+        private long[] keys = new long[64];
+        private Chunk[] values = new Chunk[64]; // null marks an empty slot
+        private int size = 0;
+        
+        Chunk get(long key)
+        {
+            int mask = keys.length - 1;
+            for (int k = slot(key, mask); values[k] != null; k = (k + 1) & mask)
+            {
+                if (keys[k] == key)
+                    return values[k];
+            }
+            return null;
+        }
+        
+        void put(long key, Chunk chunk)
+        {
+            if (2 * (size + 1) > keys.length)
+                rehash(2 * keys.length);
+            int mask = keys.length - 1;
+            int k = slot(key, mask);
+            while (values[k] != null && keys[k] != key)
+                k = (k + 1) & mask;
+            if (values[k] == null)
+                size++;
+            keys[k] = key;
+            values[k] = chunk;
+        }
+        
+        void remove(long key)
+        {
+            int mask = keys.length - 1;
+            int k = slot(key, mask);
+            while (values[k] != null && keys[k] != key)
+                k = (k + 1) & mask;
+            if (values[k] == null)
+                return;
+            
+            // Move back any later entry of the same run that would be cut off from its slot.
+            int gap = k;
+            for (k = (k + 1) & mask; values[k] != null; k = (k + 1) & mask)
+            {
+                int home = slot(keys[k], mask);
+                if (((k - home) & mask) >= ((k - gap) & mask))
+                {
+                    keys[gap] = keys[k];
+                    values[gap] = values[k];
+                    gap = k;
+                }
+            }
+            values[gap] = null;
+            size--;
+        }
+        
+        void clear()
+        {
+            keys = new long[64];
+            values = new Chunk[64];
+            size = 0;
+        }
+        
+        private void rehash(int capacity)
+        {
+            long[] oldKeys = keys;
+            Chunk[] oldValues = values;
+            keys = new long[capacity];
+            values = new Chunk[capacity];
+            size = 0;
+            for (int k = 0; k < oldKeys.length; k++)
+            {
+                if (oldValues[k] != null)
+                    put(oldKeys[k], oldValues[k]);
+            }
+        }
+        
+        private static int slot(long key, int mask)
+        {
+            long h = key * 0x9E3779B97F4A7C15L;
+            return (int) (h ^ (h >>> 32)) & mask;
+        }
+    }
+}
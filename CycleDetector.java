@@ -0,0 +1,106 @@
+/**
+ * Spots when a simulation starts repeating itself, from the hashes of its successive generations.
+ * The hashes are kept in a direct-mapped table, like the transposition tables of chess programs:
+ * each hash goes in the slot picked by its low bits, replacing whatever was there. A generation
+ * whose hash is already in the table repeats an earlier generation, and since the rules are
+ * deterministic, the simulation will cycle through the same generations from then on.
+ *
+ * Checking a generation costs a single table lookup. A cycle is usually found within one period
+ * of its start, though two generations of the cycle that share a slot can take turns pushing
+ * each other out. Periods much longer than the table (SLOTS generations) will rarely be found.
+ */
+public class CycleDetector
+{
+    /*
+     * Contents:
+     * Definitions-----------------------------
+     * Methods---------------------------------
+     * check
+     * reset
+     * toString
+     * Accessors-------------------------------
+     */
+    
+    ////////////////////////////////////////////////////
+    // Definitions
+    ////////////////////////////////////////////////////
+    
+    public static final int SLOTS = 1 << 13; // number of hashes remembered at most
+    
+    private final long[] hashes = new long[SLOTS]; // hash stored in each slot
+    private final long[] checks = new long[SLOTS]; // check in which each slot was filled
+    private long count = 0; // generations checked since the detector was created
+    private long since = 0; // check at the last reset; slots filled before it are ignored
+    private int period = 0; // length of the cycle found, or 0 if none has been yet
+    private long start = 0; // generation at which the cycle began
+    
+    ////////////////////////////////////////////////////
+    // Methods
+    ////////////////////////////////////////////////////
+    
+    /**
+     * Checks the hash of the given generation against those seen since the last reset. Returns
+     * true if it has been seen before, in which case the period and start of the cycle are set.
+     * Once a cycle has been found, it stays found until the next reset.
+     */
+    public boolean check(long hash, long generation)
+    {
+        if (period > 0)
+            return true;
+        
+        count++;
+        int slot = (int) hash & (SLOTS - 1);
+        if (checks[slot] > since && hashes[slot] == hash)
+        {
+            period = (int) Math.min(Integer.MAX_VALUE, count - checks[slot]);
+            start = generation - period;
+            return true;
+        }
+        hashes[slot] = hash;
+        checks[slot] = count;
+        return false;
+    }
+    
+    /**
+     * Forgets every generation seen so far, such as after cells were edited or the rules were
+     * changed, since the generations before then no longer lead to the ones after.
+     */
+    public void reset()
+    {
+        since = count;
+        period = 0;
+        start = 0;
+    }
+    
+    /**
+     * Describes the cycle that was found, if any.
+     */
+    public String toString()
+    {
+        if (period == 0)
+            return "not yet stable";
+        return "stable with period " + period + " after generation " + start;
+    }
+    
+    ////////////////////////////////////////////////////
+    // Accessors
+    ////////////////////////////////////////////////////
+    
+    /**
+     * Returns the period of the cycle that was found, or 0 if none has been found yet. A still
+     * life (or an empty grid) has period 1.
+     */
+    public int getPeriod()
+    {
+        return period;
+    }
+    
+    /**
+     * Returns the generation at which the cycle began. The cycle may in fact have begun a little
+     * earlier, if its first few generations were pushed out of the table.
+     */
+    public long getStart()
+    {
+        return start;
+    }
+}
@@ -0,0 +1,12 @@
+/**
+ * The different rules for treating the cells just beyond the edges of the grid.
+ */
+public enum EdgeRule
+{
+    TOROIDAL, // edges wrap around to the opposite side
+    ON_EDGES, // cells beyond the edges are always alive
+    OFF_EDGES, // cells beyond the edges are always dead
+    KLEIN_BOTTLE, // like TOROIDAL, except that the top and bottom edges meet flipped left to right
+    MIRROR, // each edge reflects the grid, so cells beyond it copy the cells just inside it
+    UNBOUNDED // no edges: the grid is a window onto an endless plane
+}
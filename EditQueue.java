@@ -0,0 +1,140 @@
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * A queue of cells painted by hand, waiting to be applied to a simulation. Painting is queued as
+ * straight strokes from one cell to another, so a fast drag that skips over cells between mouse
+ * events still leaves an unbroken line. Any thread may add strokes at any time without blocking,
+ * since the queue is lock-free, while the thread that owns the simulation (such as one holding a
+ * SimulationRunner's lock) applies them, which the simulation does itself at the start of every
+ * generation once the queue is set (see Simulation.setEditQueue). Painting therefore never has to
+ * wait for a generation to finish, and never lands in the middle of one.
+ *
+ * Each stroke is drawn with Bresenham's line algorithm, one cell per row or column along its
+ * longer side. Cells that fall outside of the grid (for instance if it shrank after the stroke was
+ * queued) are skipped.
+ */
+public class EditQueue
+{
+    /*
+     * Contents:
+     * Definitions-----------------------------
+     * Methods---------------------------------
+     * addLine
+     * applyTo
+     * drawLine
+     * Accessors-------------------------------
+     * Inner Classes---------------------------
+     * Stroke
+     */
+    
+    ////////////////////////////////////////////////////
+    // Definitions
+    ////////////////////////////////////////////////////
+    
+    // Special states for a stroke:
+    public static final int TOGGLE = -1; // 0 if the first cell is live, or 1 otherwise
+    public static final int SAME = -2; // whatever the last TOGGLE stroke turned out to be
+    
+    private final ConcurrentLinkedQueue<Stroke> strokes = new ConcurrentLinkedQueue<>();
+    private int toggled = 1; // state chosen by the last TOGGLE stroke applied
+    
+    ////////////////////////////////////////////////////
+    // Methods
+    ////////////////////////////////////////////////////
+    
+    /**
+     * Queues a stroke that sets every cell on the line from row i0, column j0 to row i1, column j1
+     * (both included) to the given state, TOGGLE or SAME. May be called from any thread.
+     */
+    public void addLine(int i0, int j0, int i1, int j1, int state)
+    {
+        strokes.add(new Stroke(i0, j0, i1, j1, state));
+    }
+    
+    /**
+     * Applies every stroke queued so far to the simulation, in the order they were added. Only
+     * the thread that owns the simulation may call this.
+     */
+    public void applyTo(Simulation simulation)
+    {
+        for (Stroke stroke = strokes.poll(); stroke != null; stroke = strokes.poll())
+        {
+            int state = stroke.state;
+            if (state == TOGGLE)
+            {
+                // Painting on a live cell erases, and painting anywhere else fills.
+                boolean live = stroke.i0 >= 0 && stroke.i0 < simulation.getHeight() &&
+                    stroke.j0 >= 0 && stroke.j0 < simulation.getWidth() &&
+                    simulation.getCell(stroke.i0, stroke.j0) == 1;
+                toggled = (live)? 0: 1;
+            }
+            if (state < 0)
+                state = toggled;
+            drawLine(simulation, stroke, state);
+        }
+    }
+    
+    /**
+     * Sets the cells of a stroke that lie in the grid to the given state.
+     */
+    private static void drawLine(Simulation simulation, Stroke stroke, int state)
+    {
+        int height = simulation.getHeight(), width = simulation.getWidth();
+        int di = Math.abs(stroke.i1 - stroke.i0), dj = Math.abs(stroke.j1 - stroke.j0);
+        int si = (stroke.i0 < stroke.i1)? 1: -1, sj = (stroke.j0 < stroke.j1)? 1: -1;
+        int error = dj - di; // how far the line has drifted from the cells drawn, scaled
+        int i = stroke.i0, j = stroke.j0;
+        while (true)
+        {
+            if (i >= 0 && i < height && j >= 0 && j < width)
+                simulation.setCell(i, j, state);
+            if (i == stroke.i1 && j == stroke.j1)
+                return;
+            int twice = 2 * error;
+            if (twice > -di)
+            {
+                error -= di;
+                j += sj;
+            }
+            if (twice < dj)
+            {
+                error += dj;
+                i += si;
+            }
+        }
+    }
+    
+    ////////////////////////////////////////////////////
+    // Accessors
+    ////////////////////////////////////////////////////
+    
+    /**
+     * Returns whether there are no strokes waiting to be applied.
+     */
+    public boolean isEmpty()
+    {
+        return strokes.isEmpty();
+    }
+    
+    ////////////////////////////////////////////////////
+    // Inner Classes
+    ////////////////////////////////////////////////////
+    
+    /**
+     * A line of cells to be set to one state.
+     */
+    private static class Stroke
+    {
+        private final int i0, j0, i1, j1; // the two ends of the line
+        private final int state; // the state to set, or TOGGLE or SAME
+        
+        private Stroke(int i0, int j0, int i1, int j1, int state)
+        {
+            this.i0 = i0;
+            this.j0 = j0;
+            this.i1 = i1;
+            this.j1 = j1;
+            this.state = state;
+        }
+    }
+}
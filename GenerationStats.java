@@ -0,0 +1,114 @@
+/**
+ * The counts of one generation, as given to a StatsListener: its population, births and deaths,
+ * the number of dying cells (for Generations rules with more than two states), and the bounding
+ * box of its live cells. The births and deaths are gathered by the kernel as it computes the
+ * generation, a tile at a time, and the totals are kept up to date from them, so publishing them
+ * costs nothing like another pass over the grid (see Simulation.setStatsListener).
+ *
+ * On an unbounded plane or with the Hashlife engine, only the population is counted, and the
+ * births, deaths and bounding box are given as -1. The bounding box is also -1 when there are no
+ * live cells.
+ */
+public class GenerationStats
+{
+    /*
+     * Contents:
+     * Definitions-----------------------------
+     * Methods---------------------------------
+     * set
+     * Accessors-------------------------------
+     */
+    
+    ////////////////////////////////////////////////////
+    // Definitions
+    ////////////////////////////////////////////////////
+    
+    private long generation; // generation the counts are of
+    private long population; // live cells
+    private long births; // dead cells that came to life
+    private long deaths; // live cells that stopped being live
+    private long dying; // cells in state 2 or later
+    private int top, left, bottom, right; // first and last rows and columns with live cells
+    
+    ////////////////////////////////////////////////////
+    // Methods
+    ////////////////////////////////////////////////////
+    
+    /**
+     * Replaces the counts, for the simulation to reuse the same object every generation.
+     */
+    void set(long generation, long population, long births, long deaths, long dying, int top,
+        int left, int bottom, int right)
+    {
+        this.generation = generation;
+        this.population = population;
+        this.births = births;
+        this.deaths = deaths;
+        this.dying = dying;
+        this.top = top;
+        this.left = left;
+        this.bottom = bottom;
+        this.right = right;
+    }
+    
+    ////////////////////////////////////////////////////
+    // Accessors
+    ////////////////////////////////////////////////////
+    
+    public long getGeneration()
+    {
+        return generation;
+    }
+    
+    public long getPopulation()
+    {
+        return population;
+    }
+    
+    public long getBirths()
+    {
+        return births;
+    }
+    
+    public long getDeaths()
+    {
+        return deaths;
+    }
+    
+    public long getDying()
+    {
+        return dying;
+    }
+    
+    /**
+     * Returns the first row with a live cell in it.
+     */
+    public int getTop()
+    {
+        return top;
+    }
+    
+    /**
+     * Returns the first column with a live cell in it.
+     */
+    public int getLeft()
+    {
+        return left;
+    }
+    
+    /**
+     * Returns the last row with a live cell in it.
+     */
+    public int getBottom()
+    {
+        return bottom;
+    }
+    
+    /**
+     * Returns the last column with a live cell in it.
+     */
+    public int getRight()
+    {
+        return right;
+    }
+}
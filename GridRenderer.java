@@ -0,0 +1,275 @@
+import java.awt.Color;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.Arrays;
+
+/**
+ * Draws the part of a Simulation's grid that is in view as an image. The colors are written
+ * straight into the image's pixel array, and the image is then drawn onto the screen in a single
+ * call, scaled up without smoothing so that every cell becomes a solid block. This is far cheaper
+ * than filling a rectangle for every cell.
+ *
+ * When the view is zoomed out past one cell per pixel, each pixel of the image stands for a block
+ * of cells instead, and is shaded by the fraction of them that are alive. Two-state grids count a
+ * row of a block with a single bit count, and blocks at least as large as the simulation's tiles
+ * are added up from the tile populations, so the work depends on the size of the panel rather
+ * than the size of the grid.
+ *
+ * After a generation, only the tiles that the simulation reports as dirty need to be copied into
+ * the image again. The grid lines only change when the zoom does, so they are drawn once into a
+ * transparent overlay and reused.
+ */
+public class GridRenderer
+{
+    /*
+     * Contents:
+     * Definitions-----------------------------
+     * Methods---------------------------------
+     * invalidate
+     * render
+     * renderDirty
+     * renderRegion
+     * shade
+     * paint
+     * paintGridLines
+     */
+    
+    ////////////////////////////////////////////////////
+    // Definitions
+    ////////////////////////////////////////////////////
+    
+    // Colors of dead cells, live cells, and dying cells of the Generations rules:
+    private static final int[] PALETTE = {Color.WHITE.getRGB(), Color.BLACK.getRGB(),
+        Color.GRAY.getRGB()};
+    private static final int MIN_GRID_CELL = 3; // smallest cells, in pixels, drawn with grid lines
+    
+    private BufferedImage image; // one pixel per cell or block of cells in view
+    private int[] pixels; // the image's own pixel array, row by row
+    private int stride; // width of the image, which may be more than is in use
+    private int[] counts; // live cells in each block of a row of blocks
+    private boolean valid = false; // whether the image matches the view described below
+    private Simulation simulation; // simulation the image was drawn from
+    private int gridWidth, gridHeight; // size of the grid the image was drawn from
+    private int top, bottom, left, right; // rows and columns of cells in view
+    private int block; // cells across each pixel of the image (a power of two)
+    private BufferedImage gridLines; // cached overlay of the grid lines
+    private int linesSize; // cell size the overlay was drawn for
+    
+    ////////////////////////////////////////////////////
+    // Methods
+    ////////////////////////////////////////////////////
+    
+    /**
+     * Marks the whole image as out of date, such as after the grid was cleared or reseeded. It
+     * is redrawn in full the next time render is called.
+     */
+    public void invalidate()
+    {
+        valid = false;
+    }
+    
+    /**
+     * Makes sure the image shows what is in view. If the view has moved or zoomed, the grid has
+     * been resized, or the image was invalidated, everything in view is copied (and the dirty
+     * tiles are forgotten); otherwise nothing is done, and any dirty tiles are left for
+     * renderDirty.
+     */
+    public void render(Simulation simulation, Viewport view)
+    {
+        int width = simulation.getWidth();
+        int height = simulation.getHeight();
+        int b = view.getShrink();
+        int newLeft = Math.max(0, view.columnAt(0));
+        int newTop = Math.max(0, view.rowAt(0));
+        newLeft -= newLeft % b;
+        newTop -= newTop % b;
+        int newRight = Math.min(width, (view.columnAt(view.getPanelWidth() - 1) / b + 1) * b);
+        int newBottom = Math.min(height, (view.rowAt(view.getPanelHeight() - 1) / b + 1) * b);
+        newRight = Math.max(newLeft, newRight);
+        newBottom = Math.max(newTop, newBottom);
+        if (valid && simulation == this.simulation && width == gridWidth &&
+            height == gridHeight && b == block && newLeft == left && newTop == top &&
+            newRight == right && newBottom == bottom)
+            return;
+        
+        this.simulation = simulation;
+        gridWidth = width;
+        gridHeight = height;
+        block = b;
+        left = newLeft;
+        top = newTop;
+        right = newRight;
+        bottom = newBottom;
+        
+        int columns = Math.max(1, (right - left + b - 1) / b);
+        int rows = Math.max(1, (bottom - top + b - 1) / b);
+        if (image == null || image.getWidth() < columns || image.getHeight() < rows)
+        {
+            image = new BufferedImage(columns, rows, BufferedImage.TYPE_INT_RGB);
+            pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+            stride = columns;
+            counts = new int[columns];
+        }
+        
+        renderRegion(top, bottom, left, right);
+        simulation.getTiles().clearDirty();
+        valid = true;
+    }
+    
+    /**
+     * Copies the dirty tiles of the simulation that are in view into the image, and then forgets
+     * them. The caller is responsible for repainting the parts of the screen they cover.
+     */
+    public void renderDirty(Simulation simulation)
+    {
+        TileMap tiles = simulation.getTiles();
+        if (valid && simulation == this.simulation)
+        {
+            for (int n = 0; n < tiles.getDirtyCount(); n++)
+            {
+                int t = tiles.getDirtyTile(n);
+                int tileTop = (t / tiles.getColumns()) * tiles.getTileHeight();
+                int tileLeft = (t % tiles.getColumns()) * tiles.getTileWidth();
+                int tileBottom = tileTop + tiles.getTileHeight();
+                int tileRight = tileLeft + tiles.getTileWidth();
+                
+                // Round out to whole blocks, and cut down to what is in view.
+                int regionTop = Math.max(top, tileTop - tileTop % block);
+                int regionLeft = Math.max(left, tileLeft - tileLeft % block);
+                int regionBottom = Math.min(bottom, (tileBottom + block - 1) / block * block);
+                int regionRight = Math.min(right, (tileRight + block - 1) / block * block);
+                if (regionTop < regionBottom && regionLeft < regionRight)
+                    renderRegion(regionTop, regionBottom, regionLeft, regionRight);
+            }
+        }
+        tiles.clearDirty();
+    }
+    
+    /**
+     * Copies the cells in rows top to bottom - 1 and columns left to right - 1 into the image.
+     * All four must be multiples of the block size, except that bottom and right may be the
+     * height and width of the grid.
+     */
+    private void renderRegion(int regionTop, int regionBottom, int regionLeft, int regionRight)
+    {
+        int columns = (regionRight - regionLeft + block - 1) / block;
+        int start = ((regionTop - top) / block) * stride + (regionLeft - left) / block;
+        if (block == 1)
+        {
+            for (int i = regionTop; i < regionBottom; i++, start += stride)
+            {
+                // Read the states straight into the image, then turn them into colors in place.
+                simulation.getRow(i, regionLeft, regionRight, pixels, start);
+                for (int k = start; k < start + columns; k++)
+                    pixels[k] = PALETTE[Math.min(pixels[k], 2)];
+            }
+            return;
+        }
+        
+        TileMap tiles = simulation.getTiles();
+        int tileWidth = tiles.getTileWidth();
+        int tileHeight = tiles.getTileHeight();
+        boolean wholeTiles = (block >= tileWidth && block >= tileHeight);
+        for (int i = regionTop; i < regionBottom; i += block, start += stride)
+        {
+            int rowEnd = Math.min(i + block, gridHeight);
+            Arrays.fill(counts, 0, columns, 0);
+            if (wholeTiles)
+            {
+                // Every block is made up of whole tiles, whose populations are kept.
+                for (int c = 0; c < columns; c++)
+                {
+                    int j = regionLeft + c*block;
+                    int columnEnd = Math.min(j + block, gridWidth);
+                    for (int r = i / tileHeight; r*tileHeight < rowEnd; r++)
+                    {
+                        for (int q = j / tileWidth; q*tileWidth < columnEnd; q++)
+                            counts[c] += simulation.getTilePopulation(r*tiles.getColumns() + q);
+                    }
+                }
+            }
+            else
+            {
+                for (int r = i; r < rowEnd; r++)
+                    simulation.countRow(r, regionLeft, regionRight, block, counts, 0);
+            }
+            for (int c = 0; c < columns; c++)
+            {
+                int j = regionLeft + c*block;
+                int area = (rowEnd - i) * (Math.min(j + block, gridWidth) - j);
+                pixels[start + c] = shade(counts[c], area);
+            }
+        }
+    }
+    
+    /**
+     * Returns the color of a block of cells of the given area with the given number of live
+     * cells. Any live cells at all make the block visibly gray, so that sparse patterns don't
+     * vanish when zoomed out.
+     */
+    private static int shade(int count, int area)
+    {
+        if (count == 0)
+            return PALETTE[0];
+        int level = 207 - (int) (207L * count / area);
+        return (level << 16) | (level << 8) | level;
+    }
+    
+    /**
+     * Draws the image where the view puts it, followed by the grid lines if wanted (and if the
+     * cells are large enough for them to make sense). Grid lines are drawn along the top and left
+     * edges of each cell, so the cells themselves are drawn one pixel right of and below where
+     * the view puts them, to sit inside the lines.
+     */
+    public void paint(Graphics g, Viewport view, boolean visibleGrid)
+    {
+        if (!valid)
+            return;
+        Graphics2D g2 = (Graphics2D) g;
+        g2.setRenderingHint(RenderingHints.KEY_INTERPOLATION,
+            RenderingHints.VALUE_INTERPOLATION_NEAREST_NEIGHBOR);
+        int size = view.getCellSize();
+        int columns = (right - left + block - 1) / block;
+        int rows = (bottom - top + block - 1) / block;
+        int x = view.screenX(left) + 1;
+        int y = view.screenY(top) + 1;
+        g2.drawImage(image, x, y, x + size*columns, y + size*rows, 0, 0, columns, rows, null);
+        
+        if (visibleGrid && block == 1 && size >= MIN_GRID_CELL)
+            paintGridLines(g, view);
+    }
+    
+    /**
+     * Draws the grid lines over the grid, from an overlay that is only redrawn when the cell size
+     * changes. The overlay has lines every cellSize pixels, so it just needs to be lined up with
+     * the first column and row in view and cut off at the edges of the grid.
+     */
+    private void paintGridLines(Graphics g, Viewport view)
+    {
+        int size = view.getCellSize();
+        int width = view.getPanelWidth() + size;
+        int height = view.getPanelHeight() + size;
+        if (gridLines == null || linesSize != size || gridLines.getWidth() != width ||
+            gridLines.getHeight() != height)
+        {
+            gridLines = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+            linesSize = size;
+            Graphics lines = gridLines.getGraphics();
+            lines.setColor(Color.BLACK);
+            for (int x = 0; x < width; x += size)
+                lines.drawLine(x, 0, x, height - 1);
+            for (int y = 0; y < height; y += size)
+                lines.drawLine(0, y, width - 1, y);
+            lines.dispose();
+        }
+        
+        Graphics clipped = g.create();
+        clipped.clipRect(view.screenX(0), view.screenY(0), view.screenX(gridWidth) -
+            view.screenX(0), view.screenY(gridHeight) - view.screenY(0));
+        clipped.drawImage(gridLines, view.screenX(left), view.screenY(top), null);
+        clipped.dispose();
+    }
+}
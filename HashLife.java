@@ -0,0 +1,544 @@
+import java.util.function.IntBinaryOperator;
+
+/**
+ * Gosper's Hashlife algorithm for two-state rules (such as Conway's Game of Life) on an unbounded
+ * plane. The plane is stored as a quadtree in which identical subtrees are shared: every node is
+ * looked up in a hash table before it is created, so each distinct square pattern exists only
+ * once. Each node also remembers its own future (the center half of the node, a number of
+ * generations later), so repeated structure in space and time is only ever computed once. This
+ * lets highly regular patterns be advanced by 2^k generations in a single call.
+ *
+ * The hash table is limited to a budget of nodes. When it fills up, the table and all remembered
+ * futures are flushed and rebuilt on demand, which keeps memory bounded at the cost of some
+ * recomputation.
+ *
+ * Since the plane has no edges, edge rules do not apply. Rules in which an empty neighborhood
+ * gives birth (B0) are not supported.
+ */
+public class HashLife
+{
+    /*
+     * Contents:
+     * Definitions-----------------------------
+     * Methods---------------------------------
+     * HashLife
+     * setRule
+     * clear
+     * load
+     * build
+     * step
+     * advance
+     * successor
+     * baseCase
+     * expand
+     * center
+     * crop
+     * get
+     * set
+     * setNode
+     * join
+     * empty
+     * flush
+     * Accessors-------------------------------
+     * Inner Classes---------------------------
+     * Node
+     */
+    
+    ////////////////////////////////////////////////////
+    // Definitions
+    ////////////////////////////////////////////////////
+    
+    // Rough size of one node in memory, used to convert a memory budget into a node budget:
+    public static final int NODE_BYTES = 64;
+    
+    private static final int MAX_LEVEL = 60; // largest quadtree (2^60 cells across) we allow
+    private static final Node OFF = new Node(0); // the single dead cell
+    private static final Node ON = new Node(1); // the single live cell
+    
+    private Node[] table = new Node[1 << 16]; // hash-consing table of all canonical nodes
+    private int size = 0; // number of nodes in the table
+    private int budget; // largest number of nodes allowed in the table
+    private long flushes = 0; // number of times the table has been flushed
+    private final Node[] empties = new Node[MAX_LEVEL + 1]; // empty node of each level
+    private int birth; // bit n is set if a dead cell with n live neighbors comes to life
+    private int survive; // bit n is set if a live cell with n live neighbors stays alive
+    private Node root; // the quadtree holding the entire plane
+    private long originX = 0; // column of the top left corner of the root
+    private long originY = 0; // row of the top left corner of the root
+    
+    ////////////////////////////////////////////////////
+    // Methods
+    ////////////////////////////////////////////////////
+    
+    /**
+     * Creates an empty plane whose hash table may hold up to the given number of nodes.
+     */
+    public HashLife(int budget)
+    {
+        setBudget(budget);
+        birth = 1 << 3;
+        survive = (1 << 2) | (1 << 3);
+        clear();
+    }
+    
+    /**
+     * Sets the rule as a pair of bit masks: a dead cell with n live neighbors comes to life if
+     * bit n of birth is set, and a live cell with n live neighbors stays alive if bit n of survive
+     * is set.
+     */
+    public void setRule(int birth, int survive)
+    {
+        if ((birth & 1) != 0)
+            throw new IllegalArgumentException("Hashlife cannot run rules with B0.");
+        
+        if (birth != this.birth || survive != this.survive)
+        {
+            this.birth = birth;
+            this.survive = survive;
+            flush(); // remembered futures belong to the old rule
+        }
+    }
+    
+    /**
+     * Kills every cell.
+     */
+    public void clear()
+    {
+        root = empty(3);
+        originX = 0;
+        originY = 0;
+    }
+    
+    /**
+     * Replaces the plane with a height x width rectangle of cells whose top left corner is at
+     * row 0, column 0. The state of each cell is given by cells.applyAsInt(i, j).
+     */
+    public void load(int height, int width, IntBinaryOperator cells)
+    {
+        int level = 3;
+        while ((1L << level) < Math.max(height, width))
+            level++;
+        
+        root = build(level, 0, 0, height, width, cells);
+        originX = 0;
+        originY = 0;
+        crop();
+    }
+    
+    /**
+     * Builds the node of the given level whose top left corner is at row y, column x of the
+     * rectangle being loaded.
+     */
+    private Node build(int level, int y, int x, int height, int width, IntBinaryOperator cells)
+    {
+        if (y >= height || x >= width)
+            return empty(level);
+        if (level == 0)
+            return (cells.applyAsInt(y, x) == 1)? ON: OFF;
+        
+        int half = 1 << (level - 1);
+        return join(build(level - 1, y, x, height, width, cells),
+            build(level - 1, y, x + half, height, width, cells),
+            build(level - 1, y + half, x, height, width, cells),
+            build(level - 1, y + half, x + half, height, width, cells));
+    }
+    
+    /**
+     * Advances the plane by n generations, in jumps of powers of two.
+     */
+    public void step(long n)
+    {
+        for (int k = 62; k >= 0; k--)
+        {
+            if ((n >>> k & 1) != 0)
+                advance(k);
+        }
+    }
+    
+    /**
+     * Advances the plane by exactly 2^k generations.
+     */
+    public void advance(int k)
+    {
+        /*
+         * A node of level L can be advanced by at most 2^(L-2) generations, and its future only
+         * covers its center half. Patterns grow by at most one cell per generation, so two extra
+         * levels of empty space around the root guarantee that nothing escapes.
+         */
+        if (Math.max(root.level, k + 2) + 2 > MAX_LEVEL)
+            throw new IllegalStateException("The pattern has grown too large for Hashlife.");
+        while (root.level < k + 2)
+            expand();
+        expand();
+        expand();
+        
+        Node future = successor(root, k);
+        originX += 1L << (root.level - 2);
+        originY += 1L << (root.level - 2);
+        root = future;
+        crop();
+    }
+    
+    /**
+     * Returns the center half of the node m advanced by 2^min(k, L-2) generations, where L is the
+     * level of m (which must be at least 2).
+     */
+    private Node successor(Node m, int k)
+    {
+        int step = Math.min(k, m.level - 2);
+        if (m.result != null && m.resultStep == step)
+            return m.result;
+        
+        Node result;
+        if (m.population == 0)
+            result = m.nw;
+        else if (m.level == 2)
+            result = baseCase(m);
+        else
+        {
+            /*
+             * Split m into nine overlapping sub-squares of half its size, and advance each of them
+             * to get nine squares of a quarter of its size.
+             */
+            Node r1 = successor(m.nw, k);
+            Node r2 = successor(join(m.nw.ne, m.ne.nw, m.nw.se, m.ne.sw), k);
+            Node r3 = successor(m.ne, k);
+            Node r4 = successor(join(m.nw.sw, m.nw.se, m.sw.nw, m.sw.ne), k);
+            Node r5 = successor(join(m.nw.se, m.ne.sw, m.sw.ne, m.se.nw), k);
+            Node r6 = successor(join(m.ne.sw, m.ne.se, m.se.nw, m.se.ne), k);
+            Node r7 = successor(m.sw, k);
+            Node r8 = successor(join(m.sw.ne, m.se.nw, m.sw.se, m.se.sw), k);
+            Node r9 = successor(m.se, k);
+            
+            if (step == m.level - 2)
+            {
+                // Full speed: advance the four overlapping combinations a second time.
+                result = join(successor(join(r1, r2, r4, r5), k),
+                    successor(join(r2, r3, r5, r6), k),
+                    successor(join(r4, r5, r7, r8), k),
+                    successor(join(r5, r6, r8, r9), k));
+            }
+            else
+            {
+                // Smaller step: the nine squares are already far enough along in time.
+                result = join(join(r1.se, r2.sw, r4.ne, r5.nw), join(r2.se, r3.sw, r5.ne, r6.nw),
+                    join(r4.se, r5.sw, r7.ne, r8.nw), join(r5.se, r6.sw, r8.ne, r9.nw));
+            }
+        }
+        
+        m.result = result;
+        m.resultStep = step;
+        return result;
+    }
+    
+    /**
+     * Advances the center 2x2 of a 4x4 node by one generation, by brute force.
+     */
+    private Node baseCase(Node m)
+    {
+        // Bit 4*y + x holds the cell in row y, column x of the 4x4 square.
+        int bits = 0;
+        for (int y = 0; y < 4; y++)
+        {
+            for (int x = 0; x < 4; x++)
+            {
+                Node quadrant = (y < 2)? ((x < 2)? m.nw: m.ne): ((x < 2)? m.sw: m.se);
+                Node leaf = (y % 2 == 0)? ((x % 2 == 0)? quadrant.nw: quadrant.ne):
+                    ((x % 2 == 0)? quadrant.sw: quadrant.se);
+                if (leaf == ON)
+                    bits |= 1 << (4*y + x);
+            }
+        }
+        
+        Node[] center = new Node[4];
+        for (int c = 0; c < 4; c++)
+        {
+            int y = 1 + c / 2;
+            int x = 1 + c % 2;
+            int count = 0;
+            for (int a = -1; a < 2; a++)
+            {
+                for (int b = -1; b < 2; b++)
+                {
+                    if ((a != 0 || b != 0) && (bits >>> (4*(y + a) + (x + b)) & 1) != 0)
+                        count++;
+                }
+            }
+            boolean alive = (bits >>> (4*y + x) & 1) != 0;
+            int mask = alive? survive: birth;
+            center[c] = ((mask >>> count & 1) != 0)? ON: OFF;
+        }
+        return join(center[0], center[1], center[2], center[3]);
+    }
+    
+    /**
+     * Doubles the size of the root, keeping its contents in the center.
+     */
+    private void expand()
+    {
+        Node e = empty(root.level - 1);
+        root = join(join(e, e, e, root.nw), join(e, e, root.ne, e), join(e, root.sw, e, e),
+            join(root.se, e, e, e));
+        originX -= 1L << (root.level - 2);
+        originY -= 1L << (root.level - 2);
+    }
+    
+    /**
+     * Returns the center half of a node.
+     */
+    private Node center(Node m)
+    {
+        return join(m.nw.se, m.ne.sw, m.sw.ne, m.se.nw);
+    }
+    
+    /**
+     * Halves the root for as long as everything alive lies in its center half.
+     */
+    private void crop()
+    {
+        while (root.level > 3)
+        {
+            Node m = root;
+            long outer = m.nw.nw.population + m.nw.ne.population + m.nw.sw.population +
+                m.ne.nw.population + m.ne.ne.population + m.ne.se.population +
+                m.sw.nw.population + m.sw.sw.population + m.sw.se.population +
+                m.se.ne.population + m.se.sw.population + m.se.se.population;
+            if (outer != 0)
+                break;
+            root = center(m);
+            originX += 1L << (m.level - 2);
+            originY += 1L << (m.level - 2);
+        }
+    }
+    
+    /**
+     * Returns the state (0 or 1) of the cell in row i, column j.
+     */
+    public int get(long i, long j)
+    {
+        long y = i - originY;
+        long x = j - originX;
+        long size = 1L << root.level;
+        if (y < 0 || y >= size || x < 0 || x >= size)
+            return 0;
+        
+        Node m = root;
+        while (m.level > 0)
+        {
+            if (m.population == 0)
+                return 0;
+            long half = 1L << (m.level - 1);
+            if (y < half)
+                m = (x < half)? m.nw: m.ne;
+            else
+                m = (x < half)? m.sw: m.se;
+            y %= half;
+            x %= half;
+        }
+        return (m == ON)? 1: 0;
+    }
+    
+    /**
+     * Sets the cell in row i, column j to alive (state 1) or dead (any other state).
+     */
+    public void set(long i, long j, int state)
+    {
+        while (i < originY || i >= originY + (1L << root.level) || j < originX ||
+            j >= originX + (1L << root.level))
+            expand();
+        
+        root = setNode(root, i - originY, j - originX, (state == 1)? ON: OFF);
+    }
+    
+    /**
+     * Returns a copy of node m with the cell at row y, column x (relative to m) replaced.
+     */
+    private Node setNode(Node m, long y, long x, Node leaf)
+    {
+        if (m.level == 0)
+            return leaf;
+        
+        long half = 1L << (m.level - 1);
+        if (y < half)
+        {
+            if (x < half)
+                return join(setNode(m.nw, y, x, leaf), m.ne, m.sw, m.se);
+            return join(m.nw, setNode(m.ne, y, x - half, leaf), m.sw, m.se);
+        }
+        if (x < half)
+            return join(m.nw, m.ne, setNode(m.sw, y - half, x, leaf), m.se);
+        return join(m.nw, m.ne, m.sw, setNode(m.se, y - half, x - half, leaf));
+    }
+    
+    /**
+     * Returns the canonical node with the given four quadrants, creating it if necessary.
+     */
+    private Node join(Node nw, Node ne, Node sw, Node se)
+    {
+        int hash = Node.hash(nw, ne, sw, se);
+        int index = hash & (table.length - 1);
+        for (Node m = table[index]; m != null; m = m.next)
+        {
+            if (m.nw == nw && m.ne == ne && m.sw == sw && m.se == se)
+                return m;
+        }
+        
+        if (size >= budget)
+        {
+            flush();
+            index = hash & (table.length - 1);
+        }
+        else if (size >= table.length - (table.length >>> 2) && table.length < (1 << 30))
+        {
+            // Grow the table once it is three quarters full.
+            Node[] old = table;
+            table = new Node[old.length * 2];
+            for (Node chain : old)
+            {
+                while (chain != null)
+                {
+                    Node following = chain.next;
+                    int slot = chain.hash & (table.length - 1);
+                    chain.next = table[slot];
+                    table[slot] = chain;
+                    chain = following;
+                }
+            }
+            index = hash & (table.length - 1);
+        }
+        
+        Node m = new Node(nw, ne, sw, se, hash);
+        m.next = table[index];
+        table[index] = m;
+        size++;
+        return m;
+    }
+    
+    /**
+     * Returns an empty node of the given level.
+     */
+    private Node empty(int level)
+    {
+        if (empties[level] == null)
+            empties[level] = (level == 0)? OFF: join(empty(level - 1), empty(level - 1),
+                empty(level - 1), empty(level - 1));
+        return empties[level];
+    }
+    
+    /**
+     * Empties the hash table and forgets every remembered future. Nodes still in use (such as
+     * the root) stay valid; they just stop being shared with newly built nodes until they are
+     * rebuilt.
+     */
+    private void flush()
+    {
+        for (int index = 0; index < table.length; index++)
+        {
+            for (Node m = table[index]; m != null; m = m.next)
+            {
+                m.result = null;
+                m.resultStep = -1;
+            }
+            table[index] = null;
+        }
+        size = 0;
+        flushes++;
+        for (int level = 0; level <= MAX_LEVEL; level++)
+            empties[level] = null;
+    }
+    
+    ////////////////////////////////////////////////////
+    // Accessors
+    ////////////////////////////////////////////////////
+    
+    /**
+     * Sets the largest number of nodes the hash table may hold before it is flushed.
+     */
+    public void setBudget(int budget)
+    {
+        if (budget < 1024)
+            throw new IllegalArgumentException("The node budget must be at least 1024.");
+        this.budget = budget;
+    }
+    
+    public int getBudget()
+    {
+        return budget;
+    }
+    
+    /**
+     * Returns the number of nodes currently in the hash table.
+     */
+    public int getNodeCount()
+    {
+        return size;
+    }
+    
+    /**
+     * Returns the number of times the hash table has been flushed for going over budget.
+     */
+    public long getFlushes()
+    {
+        return flushes;
+    }
+    
+    /**
+     * Counts the number of live cells on the entire plane.
+     */
+    public long getPopulation()
+    {
+        return root.population;
+    }
+    
+    ////////////////////////////////////////////////////
+    // Inner Classes
+    ////////////////////////////////////////////////////
+    
+    /**
+     * A square of 2^level x 2^level cells, made up of four quadrants of the next level down. Nodes
+     * are immutable apart from their remembered future.
+     */
+    private static class Node
+    {
+        final Node nw, ne, sw, se; // quadrants (null for a single cell)
+        final int level; // log base 2 of the side length
+        final long population; // number of live cells
+        final int hash; // hash of the four quadrants
+        Node result; // center half of this node, resultStep generations in the future
+        int resultStep = -1; // log base 2 of the number of generations result is ahead
+        Node next; // next node in the same hash table bucket
+        
+        /**
+         * Creates a single cell.
+         */
+        Node(int state)
+        {
+            nw = ne = sw = se = null;
+            level = 0;
+            population = state;
+            hash = state;
+        }
+        
+        Node(Node nw, Node ne, Node sw, Node se, int hash)
+        {
+            this.nw = nw;
+            this.ne = ne;
+            this.sw = sw;
+            this.se = se;
+            level = nw.level + 1;
+            population = nw.population + ne.population + sw.population + se.population;
+            this.hash = hash;
+        }
+        
+        static int hash(Node nw, Node ne, Node sw, Node se)
+        {
+            int h = nw.hash;
+            h = h * 0x9E3779B9 + ne.hash;
+            h = h * 0x9E3779B9 + sw.hash;
+            h = h * 0x9E3779B9 + se.hash;
+            h ^= h >>> 15;
+            h *= 0x85EBCA6B;
+            return h ^ (h >>> 13);
+        }
+    }
+}
@@ -0,0 +1,306 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Command-line front end for running the simulation without a display. The grid is randomly
+ * seeded (or loaded from a snapshot or a pattern), advanced the requested number of
+ * generations, and a short summary is printed. While it runs, the same performance figures as
+ * the GUI's are published over JMX (see Metrics).
+ *
+ * Usage:
+ *     java Headless [options]
+ *     java CellularAutomata --headless [options]
+ *
+ * Options:
+ *     --rule NAME       update rule (CONWAY, HALITE, CONWAY_BODIES, SEEDS, BRIANS_BRAIN, ODD, EVEN)
+ *                       or any rule in B/S notation, such as B36/S23 or B2/S/3
+ *     --edges NAME      edge rule (TOROIDAL, ON_EDGES, OFF_EDGES, KLEIN_BOTTLE, MIRROR,
+ *                       UNBOUNDED)
+ *     --size WxH        grid dimensions (default 200x120)
+ *     --density D       initial density of live cells, between 0 and 1 (default 0.5)
+ *     --seed SEED       seed of the random grid, so that a run can be repeated exactly (default:
+ *                       a different grid every time)
+ *     --steps N         number of generations to run (default 1000)
+ *     --report N        print the population every N generations (default 0, meaning never)
+ *     --stats FILE      write the population, births, deaths, dying cells and bounding box of
+ *                       every generation to FILE as CSV (see StatsWriter)
+ *     --threads N       number of worker threads for large grids (default: all processors)
+ *     --engine NAME     STANDARD, or HASHLIFE for two-state rules on an unbounded plane
+ *     --cache-mb M      memory budget for the Hashlife node cache, in megabytes (default 256)
+ *     --stop-when-stable  end the run early once the grid settles into a still life or an
+ *                       oscillator (not with Hashlife)
+ *     --load FILE       start from a snapshot (see Snapshot) instead of a random grid, with its
+ *                       size and rules in place of --rule, --edges and --size; or, if FILE ends
+ *                       in .rle or .cells, from a pattern (see PatternFile) in the middle of the
+ *                       grid, with the pattern's rule if it names one
+ *     --save FILE       save a snapshot of the grid, or a pattern if FILE ends in .rle or
+ *                       .cells, at the end of the run
+ */
+public class Headless
+{
+    /**
+     * Parses the command-line options and runs the simulation.
+     */
+    public static void main(String[] args)
+    {
+        int width = 200;
+        int height = 120;
+        double density = 0.5;
+        Long seed = null; // seed of the random grid, if any
+        long steps = 1000;
+        long report = 0;
+        int threads = 0; // 0 means the common pool
+        boolean hashLife = false;
+        long cacheMegabytes = 256;
+        boolean stopWhenStable = false;
+        Path load = null; // snapshot to start from, if any
+        Path save = null; // where to save a snapshot at the end, if anywhere
+        Path statsFile = null; // where to write the counts of every generation, if anywhere
+        Rule rule = UpdateRule.CONWAY.getRule();
+        EdgeRule edgeRule = EdgeRule.TOROIDAL;
+        
+        try
+        {
+            for (int k = 0; k < args.length; k++)
+            {
+                String option = args[k];
+                if (option.equals("--help") || option.equals("-h"))
+                {
+                    usage();
+                    return;
+                }
+                if (option.equals("--stop-when-stable"))
+                {
+                    stopWhenStable = true;
+                    continue;
+                }
+                if (k + 1 >= args.length)
+                    throw new IllegalArgumentException("Missing value for " + option + ".");
+                String value = args[++k];
+                
+                switch (option)
+                {
+                    case "--rule":
+                        rule = parseRule(value);
+                        break;
+                    case "--edges":
+                        edgeRule = EdgeRule.valueOf(value.toUpperCase());
+                        break;
+                    case "--size":
+                        String[] dims = value.toLowerCase().split("x");
+                        if (dims.length != 2)
+                            throw new IllegalArgumentException("Size must look like 200x120.");
+                        width = Integer.parseInt(dims[0]);
+                        height = Integer.parseInt(dims[1]);
+                        if (width < 1 || height < 1)
+                            throw new IllegalArgumentException("Size must be positive.");
+                        break;
+                    case "--density":
+                        density = Double.parseDouble(value);
+                        if (!(density >= 0 && density <= 1)) // also catches NaN
+                            throw new IllegalArgumentException("Density must be from 0 to 1.");
+                        break;
+                    case "--seed":
+                        seed = Long.parseLong(value);
+                        break;
+                    case "--steps":
+                        steps = Long.parseLong(value);
+                        if (steps < 0)
+                            throw new IllegalArgumentException("Step count can't be negative.");
+                        break;
+                    case "--report":
+                        report = Long.parseLong(value);
+                        break;
+                    case "--stats":
+                        statsFile = Paths.get(value);
+                        break;
+                    case "--threads":
+                        threads = Integer.parseInt(value);
+                        if (threads < 1)
+                            throw new IllegalArgumentException("Thread count must be positive.");
+                        break;
+                    case "--engine":
+                        if (value.equalsIgnoreCase("hashlife"))
+                            hashLife = true;
+                        else if (value.equalsIgnoreCase("standard"))
+                            hashLife = false;
+                        else
+                            throw new IllegalArgumentException("Unknown engine " + value + ".");
+                        break;
+                    case "--cache-mb":
+                        cacheMegabytes = Long.parseLong(value);
+                        // Even 1 MB holds well over the smallest node budget Hashlife allows.
+                        if (cacheMegabytes < 1 || cacheMegabytes > Integer.MAX_VALUE)
+                            throw new IllegalArgumentException("Cache size must be from 1 to " +
+                                Integer.MAX_VALUE + " MB.");
+                        break;
+                    case "--load":
+                        load = Paths.get(value);
+                        break;
+                    case "--save":
+                        save = Paths.get(value);
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Unknown option " + option + ".");
+                }
+            }
+            if (stopWhenStable && hashLife)
+                throw new IllegalArgumentException("Hashlife can't stop when stable.");
+        }
+        catch (IllegalArgumentException e) // also covers NumberFormatException
+        {
+            System.err.println(e.getMessage());
+            usage();
+            System.exit(1);
+        }
+        
+        Simulation simulation = new Simulation(width, height);
+        simulation.setRule(rule);
+        simulation.setEdgeRule(edgeRule);
+        if (threads == 1)
+            simulation.setPool(null);
+        else if (threads > 1)
+            simulation.setPool(new ForkJoinPool(threads));
+        simulation.setNodeBudget((int) Math.min(Integer.MAX_VALUE,
+            cacheMegabytes * 1024 * 1024 / HashLife.NODE_BYTES));
+        simulation.setHashLife(hashLife);
+        simulation.setCycleDetection(stopWhenStable);
+        if (load != null)
+        {
+            try
+            {
+                if (PatternFile.isPatternFile(load))
+                    PatternFile.read(load, simulation);
+                else
+                    Snapshot.open(load).loadInto(simulation);
+            }
+            catch (IOException e)
+            {
+                System.err.println("Could not load " + load + ": " + e.getMessage());
+                System.exit(1);
+            }
+        }
+        else if (seed != null)
+            simulation.randomize(density, seed);
+        else
+            simulation.randomize(density);
+        Metrics metrics = new Metrics();
+        simulation.setMetrics(metrics);
+        metrics.register();
+        CycleDetector cycles = simulation.getCycleDetector();
+        StatsWriter stats = null;
+        if (statsFile != null)
+        {
+            try
+            {
+                stats = new StatsWriter(Files.newBufferedWriter(statsFile));
+            }
+            catch (IOException e)
+            {
+                System.err.println("Could not write to " + statsFile + ": " + e.getMessage());
+                System.exit(1);
+            }
+            simulation.setStatsListener(stats);
+        }
+        
+        // Run in chunks so that progress can be printed along the way.
+        long start = System.nanoTime();
+        long first = simulation.getGeneration(); // a loaded snapshot may not start at 0
+        long last = first + steps;
+        long chunk = (report > 0)? report: steps;
+        while (simulation.getGeneration() < last && (cycles == null || cycles.getPeriod() == 0))
+        {
+            long n = Math.min(chunk, last - simulation.getGeneration());
+            if (cycles != null)
+            {
+                // Go one generation at a time, so as to stop as soon as the grid repeats.
+                for (long k = 0; k < n && cycles.getPeriod() == 0; k++)
+                    simulation.update();
+            }
+            else
+                simulation.step(n);
+            if (report > 0)
+                System.out.println("generation " + simulation.getGeneration() + ": population " +
+                    simulation.getPopulation());
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        if (stats != null)
+        {
+            try
+            {
+                stats.close();
+            }
+            catch (IOException e)
+            {
+                System.err.println("Could not write to " + statsFile + ": " + e.getMessage());
+                System.exit(1);
+            }
+        }
+        
+        // Hashlife always runs on an unbounded plane, which other rules treat as empty edges.
+        EdgeRule edges = simulation.getEdgeRule();
+        if (simulation.isUnbounded())
+            edges = EdgeRule.UNBOUNDED;
+        else if (edges == EdgeRule.UNBOUNDED)
+            edges = EdgeRule.OFF_EDGES;
+        System.out.println(simulation.getRule() + " / " + edges + " on " +
+            simulation.getWidth() + "x" + simulation.getHeight() +
+            ((load != null)? ", loaded from " + load: ", density " + density) +
+            ((load == null && seed != null)? ", seed " + seed: ""));
+        System.out.println("generations: " + simulation.getGeneration());
+        System.out.println("population:  " + simulation.getPopulation());
+        System.out.printf("elapsed:     %.3f s (%.1f generations/sec)%n", seconds,
+            (simulation.getGeneration() - first) / Math.max(seconds, 1e-9));
+        System.out.printf("allocated:   %d bytes in %d generations%n", metrics.getAllocatedBytes(),
+            metrics.getGenerations());
+        if (cycles != null)
+            System.out.println("cycle:       " + cycles);
+        
+        if (save != null)
+        {
+            try
+            {
+                start = System.nanoTime();
+                if (PatternFile.isPatternFile(save))
+                    PatternFile.write(simulation, save);
+                else
+                    Snapshot.save(simulation, save);
+                System.out.printf("saved:       %s in %.3f s%n", save,
+                    (System.nanoTime() - start) / 1e9);
+            }
+            catch (IOException e)
+            {
+                System.err.println("Could not save " + save + ": " + e.getMessage());
+                System.exit(1);
+            }
+        }
+    }
+    
+    /**
+     * Returns the built-in rule with the given name, or else the rule written in B/S notation.
+     */
+    static Rule parseRule(String value)
+    {
+        for (UpdateRule updateRule : UpdateRule.values())
+        {
+            if (updateRule.name().equalsIgnoreCase(value))
+                return updateRule.getRule();
+        }
+        return Rule.parse(value);
+    }
+    
+    /**
+     * Prints the command-line options.
+     */
+    private static void usage()
+    {
+        System.err.println("Usage: java Headless [--rule NAME] [--edges NAME] [--size WxH]");
+        System.err.println("           [--density D] [--seed SEED] [--steps N] [--report N]");
+        System.err.println("           [--stats FILE] [--threads N] [--engine NAME]");
+        System.err.println("           [--cache-mb M] [--stop-when-stable] [--load FILE]");
+        System.err.println("           [--save FILE]");
+    }
+}
@@ -0,0 +1,559 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * A recording of every generation of a run, kept in a file, that can be played back from any
+ * generation. Rather than a copy of every grid, it keeps a full keyframe every interval
+ * generations and, for the generations in between, only the cells that changed. Seeking loads the
+ * keyframe at or before the wanted generation and replays the changes after it, so a seek never
+ * replays more than interval - 1 generations.
+ *
+ * Each recorded generation is the list of changed tiles and cells described in ShadowGrid, with
+ * the numbers written as unsigned LEB128 varints. A keyframe is the same thing recorded against an
+ * empty grid. The encoded changes are gathered into a few large blocks which a background thread
+ * writes out, so the thread running the simulation never waits on the disk unless the writer
+ * falls behind by all of the blocks.
+ *
+ * Once set (see Simulation.setHistory), the history is given each new generation by the
+ * simulation. Recording starts over with a new keyframe whenever the run doesn't carry on from
+ * where the recording left off, such as when the grid is cleared or resized, except that running
+ * on from a generation that was seeked to replaces everything recorded after it. Only the cells
+ * are recorded, not the rules, and nothing is recorded on an unbounded plane. The history must
+ * not be used by more than one thread at a time, apart from its own writer.
+ */
+public class History extends ShadowGrid implements Closeable
+{
+    /*
+     * Contents:
+     * Definitions-----------------------------
+     * Methods---------------------------------
+     * History
+     * record
+     * restart
+     * truncate
+     * put
+     * handOff
+     * drain
+     * flush
+     * seek
+     * read
+     * close
+     * write
+     * Accessors-------------------------------
+     * Inner Classes---------------------------
+     * Block
+     * Input
+     */
+    
+    ////////////////////////////////////////////////////
+    // Definitions
+    ////////////////////////////////////////////////////
+    
+    public static final int DEFAULT_INTERVAL = 256; // generations between keyframes
+    private static final int BLOCK_SIZE = 1 << 20; // bytes gathered before they are written
+    private static final int BLOCKS = 4; // blocks in use, including the one being filled
+    
+    private final int interval; // generations between keyframes
+    private final FileChannel channel; // the file the history is kept in
+    private final Thread writer; // writes full blocks to the file
+    private final BlockingQueue<Block> full = new ArrayBlockingQueue<>(BLOCKS + 1);
+    private final BlockingQueue<Block> free = new ArrayBlockingQueue<>(BLOCKS);
+    private final Block closing = new Block(0); // handed to the writer to make it stop
+    private Block block = new Block(BLOCK_SIZE); // block being filled
+    private long blocksHanded = 0; // blocks handed to the writer
+    private long blocksWritten = 0; // blocks the writer has finished with (guarded by this)
+    private IOException failure; // first error the writer ran into, if any (guarded by this)
+    
+    // The recording so far:
+    private long first = -1; // generation of the first keyframe, or -1 if nothing is recorded
+    private long last = -1; // latest generation recorded
+    private long[] keyframes = new long[16]; // offset in the file of each keyframe
+    private int keyframeCount = 0;
+    private long resumeAt = -1; // generation last seeked to, until recording carries on from it
+    private long resumeOffset; // offset in the file just after that generation
+    private Input input; // reads the file back while seeking
+    
+    ////////////////////////////////////////////////////
+    // Methods
+    ////////////////////////////////////////////////////
+    
+    /**
+     * Creates an empty history kept in the given file (replacing anything there), with a
+     * keyframe every interval generations.
+     */
+    public History(Path path, int interval) throws IOException
+    {
+        if (interval < 1)
+            throw new IllegalArgumentException("The keyframe interval must be positive.");
+        this.interval = interval;
+        channel = FileChannel.open(path, StandardOpenOption.CREATE,
+            StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ,
+            StandardOpenOption.WRITE);
+        for (int k = 1; k < BLOCKS; k++)
+            free.add(new Block(BLOCK_SIZE));
+        writer = new Thread(this::write, "History writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+    
+    /**
+     * Records the simulation's current generation. The simulation calls this after each
+     * generation, but it can also be called to start recording from the current one.
+     */
+    public void record(Simulation simulation)
+    {
+        if (simulation.isUnbounded())
+        {
+            first = -1; // start over once the grid is bounded again
+            return;
+        }
+        
+        long generation = simulation.getGeneration();
+        boolean same = (first >= 0 && matches(simulation));
+        if (same && generation == resumeAt + 1)
+            truncate();
+        if (same && (generation == last || generation == resumeAt))
+            return; // nothing new, and any edits will be recorded with the next generation
+        if (!same || generation != last + 1)
+        {
+            restart(simulation);
+            return;
+        }
+        
+        // Keyframes only need the shadow copy brought up to date, not the changes.
+        boolean keyframe = ((generation - first) % interval == 0);
+        encodeChanges(simulation, !keyframe);
+        if (keyframe)
+        {
+            if (keyframeCount == keyframes.length)
+                keyframes = Arrays.copyOf(keyframes, 2 * keyframeCount);
+            keyframes[keyframeCount++] = position();
+            encodeShadow();
+        }
+        last = generation;
+    }
+    
+    /**
+     * Throws away the recording and starts a new one with a keyframe of the simulation's
+     * current generation.
+     */
+    private void restart(Simulation simulation)
+    {
+        drain();
+        try
+        {
+            channel.truncate(0);
+        }
+        catch (IOException e)
+        {
+            synchronized (this)
+            {
+                if (failure == null)
+                    failure = e;
+            }
+        }
+        block.offset = 0;
+        
+        reset(simulation);
+        first = last = simulation.getGeneration();
+        resumeAt = -1;
+        keyframes[0] = 0;
+        keyframeCount = 1;
+        encodeShadow();
+    }
+    
+    /**
+     * Throws away everything recorded after the generation last seeked to, so that recording can
+     * carry on from it.
+     */
+    private void truncate()
+    {
+        drain();
+        try
+        {
+            channel.truncate(resumeOffset);
+        }
+        catch (IOException e)
+        {
+            synchronized (this)
+            {
+                if (failure == null)
+                    failure = e;
+            }
+        }
+        block.offset = resumeOffset;
+        keyframeCount = (int) ((resumeAt - first) / interval) + 1;
+        last = resumeAt;
+        resumeAt = -1;
+    }
+    
+    /**
+     * Writes a non-negative number as an unsigned LEB128 varint.
+     */
+    protected void put(int value)
+    {
+        int length = block.length;
+        if (value < 0x80 && length < BLOCK_SIZE) // most gaps fit in one byte
+        {
+            block.bytes[length] = (byte) value;
+            block.length = length + 1;
+            return;
+        }
+        if (length > BLOCK_SIZE - 5)
+            handOff();
+        byte[] bytes = block.bytes;
+        length = block.length;
+        while ((value & ~0x7F) != 0)
+        {
+            bytes[length++] = (byte) (value | 0x80);
+            value >>>= 7;
+        }
+        bytes[length++] = (byte) value;
+        block.length = length;
+    }
+    
+    /**
+     * Hands the current block to the writer and starts a new one, waiting for the writer to
+     * free one up if it has fallen behind.
+     */
+    private void handOff()
+    {
+        long next = position();
+        boolean interrupted = false;
+        while (true)
+        {
+            try
+            {
+                full.put(block);
+                break;
+            }
+            catch (InterruptedException e)
+            {
+                interrupted = true; // the block must be written regardless
+            }
+        }
+        blocksHanded++;
+        while (true)
+        {
+            try
+            {
+                block = free.take();
+                break;
+            }
+            catch (InterruptedException e)
+            {
+                interrupted = true;
+            }
+        }
+        if (interrupted)
+            Thread.currentThread().interrupt();
+        block.offset = next;
+    }
+    
+    /**
+     * Hands any partly filled block to the writer, and waits until everything recorded so far is
+     * in the file.
+     */
+    private void drain()
+    {
+        if (block.length > 0)
+            handOff();
+        boolean interrupted = false;
+        synchronized (this)
+        {
+            while (blocksWritten < blocksHanded)
+            {
+                try
+                {
+                    wait();
+                }
+                catch (InterruptedException e)
+                {
+                    interrupted = true;
+                }
+            }
+        }
+        if (interrupted)
+            Thread.currentThread().interrupt();
+    }
+    
+    /**
+     * Waits until everything recorded so far is in the file, and throws the first error the
+     * writer ran into, if any.
+     */
+    public void flush() throws IOException
+    {
+        drain();
+        synchronized (this)
+        {
+            if (failure != null)
+                throw failure;
+        }
+    }
+    
+    /**
+     * Sets the simulation's grid and generation number to those of the given recorded
+     * generation, by loading the keyframe at or before it and replaying the changes after that.
+     * The simulation must be the one recorded, and the grid must not have been resized.
+     */
+    public void seek(Simulation simulation, long generation) throws IOException
+    {
+        if (first < 0 || generation < first || generation > last)
+            throw new IllegalArgumentException("Generation " + generation + " is not recorded.");
+        if (!matches(simulation))
+            throw new IllegalStateException("The grid no longer matches the recording.");
+        flush();
+        
+        // The changes are replayed into the shadow copy, which then replaces the grid.
+        int k = (int) ((generation - first) / interval);
+        input = new Input(keyframes[k]);
+        for (int i = 0; i < height; i++)
+        {
+            if (packedShadow != null)
+                Arrays.fill(packedShadow[i], 0);
+            else
+                Arrays.fill(intShadow[i], 0);
+        }
+        try
+        {
+            for (long g = first + (long) k * interval; g <= generation; g++)
+                apply(null);
+        }
+        catch (UncheckedIOException e)
+        {
+            throw e.getCause();
+        }
+        catch (IllegalStateException e)
+        {
+            throw new IOException("The history is damaged.", e);
+        }
+        simulation.clear();
+        for (int i = 0; i < height; i++)
+        {
+            if (packedShadow != null)
+            {
+                for (int w = 0; w < packedShadow[i].length; w++)
+                {
+                    if (packedShadow[i][w] != 0)
+                        simulation.setWord(i, w, packedShadow[i][w]);
+                }
+            }
+            else
+            {
+                for (int j = 0; j < width; j++)
+                {
+                    if (intShadow[i][j] != 0)
+                        simulation.setCell(i, j, intShadow[i][j]);
+                }
+            }
+        }
+        simulation.setGeneration(generation);
+        markSeen(simulation);
+        resumeAt = generation;
+        resumeOffset = input.position();
+        input = null;
+    }
+    
+    /**
+     * Reads the next number while seeking.
+     */
+    protected int read()
+    {
+        return input.read();
+    }
+    
+    /**
+     * Writes out everything recorded, stops the writer and closes the file.
+     */
+    public void close() throws IOException
+    {
+        try
+        {
+            flush();
+        }
+        finally
+        {
+            full.add(closing);
+            try
+            {
+                writer.join();
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+            }
+            channel.close();
+        }
+    }
+    
+    /**
+     * The writer thread: writes each full block at its offset in the file and returns it to the
+     * free queue, until it is handed the closing block.
+     */
+    private void write()
+    {
+        while (true)
+        {
+            Block next;
+            try
+            {
+                next = full.take();
+            }
+            catch (InterruptedException e)
+            {
+                continue; // only the closing block stops the writer
+            }
+            if (next == closing)
+                return;
+            
+            try
+            {
+                ByteBuffer buffer = ByteBuffer.wrap(next.bytes, 0, next.length);
+                long offset = next.offset;
+                while (buffer.hasRemaining())
+                    offset += channel.write(buffer, offset);
+            }
+            catch (IOException e)
+            {
+                synchronized (this)
+                {
+                    if (failure == null)
+                        failure = e;
+                }
+            }
+            next.length = 0;
+            free.add(next);
+            synchronized (this)
+            {
+                blocksWritten++;
+                notifyAll();
+            }
+        }
+    }
+    
+    ////////////////////////////////////////////////////
+    // Accessors
+    ////////////////////////////////////////////////////
+    
+    /**
+     * Returns the first generation recorded, or -1 if nothing is recorded.
+     */
+    public long getFirst()
+    {
+        return first;
+    }
+    
+    /**
+     * Returns the last generation recorded, or -1 if nothing is recorded.
+     */
+    public long getLast()
+    {
+        return (first < 0)? -1: last;
+    }
+    
+    public int getInterval()
+    {
+        return interval;
+    }
+    
+    /**
+     * Returns the number of bytes recorded so far.
+     */
+    public long position()
+    {
+        return block.offset + block.length;
+    }
+    
+    ////////////////////////////////////////////////////
+    // Inner Classes
+    ////////////////////////////////////////////////////
+    
+    /**
+     * A buffer of encoded generations, along with where in the file it goes.
+     */
+    private static class Block
+    {
+        private final byte[] bytes; // the encoded generations
+        private int length = 0; // bytes in use
+        private long offset = 0; // offset in the file of bytes[0]
+        
+        private Block(int size)
+        {
+            bytes = new byte[size];
+        }
+    }
+    
+    /**
+     * Reads varints from the file, starting at a given offset, a buffer at a time.
+     */
+    private class Input
+    {
+        private final ByteBuffer buffer = ByteBuffer.allocate(1 << 16);
+        private long offset; // offset in the file of the start of buffer
+        
+        private Input(long offset)
+        {
+            this.offset = offset;
+            buffer.limit(0);
+        }
+        
+        /**
+         * Reads an unsigned LEB128 varint.
+         */
+        private int read()
+        {
+            if (buffer.hasRemaining())
+            {
+                byte b = buffer.get(buffer.position());
+                if (b >= 0) // most numbers fit in one byte
+                {
+                    buffer.position(buffer.position() + 1);
+                    return b;
+                }
+            }
+            int value = 0;
+            for (int shift = 0; shift < 35; shift += 7)
+            {
+                if (!buffer.hasRemaining())
+                {
+                    offset += buffer.limit();
+                    buffer.clear();
+                    try
+                    {
+                        while (buffer.position() == 0)
+                        {
+                            if (channel.read(buffer, offset) < 0)
+                                throw new IOException("The history is cut short.");
+                        }
+                    }
+                    catch (IOException e)
+                    {
+                        throw new UncheckedIOException(e); // passed on by seek
+                    }
+                    buffer.flip();
+                }
+                byte b = buffer.get();
+                value |= (b & 0x7F) << shift;
+                if (b >= 0)
+                    return value;
+            }
+            throw new IllegalStateException("The history is damaged.");
+        }
+        
+        /**
+         * Returns the offset in the file of the next varint.
+         */
+        private long position()
+        {
+            return offset + buffer.position();
+        }
+    }
+}
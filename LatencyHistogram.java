@@ -0,0 +1,133 @@
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A histogram of durations in nanoseconds, laid out like an HdrHistogram: each power of two is
+ * split into SUB_BUCKETS equal buckets, so every value is known to within about 3% no matter how
+ * large it is, and recording one is just a few shifts and an increment. Durations past MAX_VALUE
+ * are counted as MAX_VALUE.
+ *
+ * One thread may record while others read or move the counts, as every bucket is updated
+ * atomically. A reader may or may not see the durations recorded while it reads.
+ */
+public class LatencyHistogram
+{
+    /*
+     * Contents:
+     * Definitions-----------------------------
+     * Methods---------------------------------
+     * LatencyHistogram
+     * record
+     * moveTo
+     * reset
+     * getPercentile
+     * index
+     * highestValue
+     * Accessors-------------------------------
+     */
+    
+    ////////////////////////////////////////////////////
+    // Definitions
+    ////////////////////////////////////////////////////
+    
+    private static final int SUB_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS; // buckets for each power of two
+    public static final long MAX_VALUE = (1L << 40) - 1; // largest duration kept (about 18 min)
+    
+    private final AtomicLongArray counts = new AtomicLongArray(index(MAX_VALUE) + 1);
+    
+    ////////////////////////////////////////////////////
+    // Methods
+    ////////////////////////////////////////////////////
+    
+    /**
+     * Counts one duration, in nanoseconds.
+     */
+    public void record(long value)
+    {
+        counts.incrementAndGet(index(Math.max(0, Math.min(value, MAX_VALUE))));
+    }
+    
+    /**
+     * Adds every count of this histogram to the other one, and empties this one. Anything
+     * recorded meanwhile ends up in one histogram or the other, never both or neither.
+     */
+    public void moveTo(LatencyHistogram other)
+    {
+        for (int k = 0; k < counts.length(); k++)
+        {
+            long count = counts.getAndSet(k, 0);
+            if (count != 0)
+                other.counts.addAndGet(k, count);
+        }
+    }
+    
+    /**
+     * Empties the histogram.
+     */
+    public void reset()
+    {
+        for (int k = 0; k < counts.length(); k++)
+            counts.set(k, 0);
+    }
+    
+    /**
+     * Returns the smallest duration that at least the given percentage (from 0 to 100) of the
+     * recorded durations are no longer than, rounded up to the top of its bucket. Returns 0 if
+     * nothing has been recorded.
+     */
+    public long getPercentile(double percentile)
+    {
+        long total = getCount();
+        if (total == 0)
+            return 0;
+        long wanted = Math.max(1, (long) Math.ceil(total * percentile / 100));
+        long seen = 0;
+        for (int k = 0; k < counts.length(); k++)
+        {
+            seen += counts.get(k);
+            if (seen >= wanted)
+                return highestValue(k);
+        }
+        return MAX_VALUE;
+    }
+    
+    /**
+     * Returns the bucket holding the given value. Values below SUB_BUCKETS each get a bucket of
+     * their own; above that, the bucket is picked by the highest bit and the SUB_BITS after it.
+     */
+    private static int index(long value)
+    {
+        if (value < SUB_BUCKETS)
+            return (int) value;
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int sub = (int) (value >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BITS + 1) * SUB_BUCKETS + sub;
+    }
+    
+    /**
+     * Returns the largest value that falls in the given bucket.
+     */
+    private static long highestValue(int index)
+    {
+        if (index < SUB_BUCKETS)
+            return index;
+        int exponent = index / SUB_BUCKETS + SUB_BITS - 1;
+        long low = (long) (SUB_BUCKETS + index % SUB_BUCKETS) << (exponent - SUB_BITS);
+        return low + (1L << (exponent - SUB_BITS)) - 1;
+    }
+    
+    ////////////////////////////////////////////////////
+    // Accessors
+    ////////////////////////////////////////////////////
+    
+    /**
+     * Returns the number of durations recorded.
+     */
+    public long getCount()
+    {
+        long total = 0;
+        for (int k = 0; k < counts.length(); k++)
+            total += counts.get(k);
+        return total;
+    }
+}
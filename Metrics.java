@@ -0,0 +1,355 @@
+import java.lang.management.ManagementFactory;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Live performance figures for a running simulation: how many generations and cell updates are
+ * done each second, how long each step, each paint and each gap between frames takes, the
+ * population, and how many bytes each step allocates. They are meant to show at a glance whether
+ * a slowdown is in the update, in the drawing, or in the scheduling of frames.
+ *
+ * Recording is cheap enough to leave on all the time: a step costs two clock readings, two
+ * readings of the thread's allocation counter and a few additions. The rates and percentiles are
+ * worked out at most once a second, whenever they are read, and cover the last whole second (or
+ * the last second in which there was anything to record, for the percentiles). Only bytes
+ * allocated by the thread that called update are counted, not those of the pool's workers.
+ *
+ * Steps are recorded by whichever thread holds the simulation, one at a time; paints and frames
+ * are recorded on the event dispatch thread. The figures can be read from any thread, and are
+ * also published over JMX by register.
+ */
+public class Metrics implements MetricsMBean
+{
+    /*
+     * Contents:
+     * Definitions-----------------------------
+     * Methods---------------------------------
+     * beginStep
+     * endStep
+     * recordPaint
+     * recordFrame
+     * stopFrames
+     * roll
+     * reset
+     * register
+     * allocatedBytes
+     * allocationCounter
+     * format
+     * formatTime
+     * Accessors-------------------------------
+     */
+    
+    ////////////////////////////////////////////////////
+    // Definitions
+    ////////////////////////////////////////////////////
+    
+    public static final String OBJECT_NAME = "CellularAutomataPlayground:type=Metrics";
+    private static final long WINDOW = 1_000_000_000L; // time the figures cover, in nanoseconds
+    
+    // Counts the bytes allocated by each thread, if the JVM can (null if it can't):
+    private static final com.sun.management.ThreadMXBean THREADS = allocationCounter();
+    
+    // Durations recorded in the current window, and those of the last window that had any:
+    private final LatencyHistogram stepTimes = new LatencyHistogram();
+    private final LatencyHistogram paintTimes = new LatencyHistogram();
+    private final LatencyHistogram frameTimes = new LatencyHistogram();
+    private final LatencyHistogram lastStepTimes = new LatencyHistogram();
+    private final LatencyHistogram lastPaintTimes = new LatencyHistogram();
+    private final LatencyHistogram lastFrameTimes = new LatencyHistogram();
+    
+    // Running totals, written only by the thread recording steps:
+    private volatile long steps = 0; // calls to update or step
+    private volatile long generations = 0; // generations those steps advanced
+    private volatile long cellUpdates = 0; // cells those generations covered
+    private volatile long allocated = 0; // bytes allocated by those steps
+    private volatile long population = 0; // live cells after the latest step
+    private long stepAllocation; // allocation counter of the stepping thread as the step began
+    
+    private long lastFrame = 0; // when the last frame began, or 0 if frames are stopped
+    
+    // The current window (guarded by this):
+    private long windowStart = System.nanoTime(); // when the window began
+    private long windowSteps, windowGenerations, windowCells, windowAllocated; // totals then
+    private double generationRate = 0; // generations per second in the last window
+    private double cellRate = 0; // cell updates per second in the last window
+    private long allocationRate = 0; // bytes allocated per step in the last window
+    
+    ////////////////////////////////////////////////////
+    // Methods
+    ////////////////////////////////////////////////////
+    
+    /**
+     * Marks the start of a step, and returns the time it started, to be passed on to endStep.
+     */
+    public long beginStep()
+    {
+        stepAllocation = allocatedBytes();
+        return System.nanoTime();
+    }
+    
+    /**
+     * Records a step that started at the given time (as returned by beginStep), advanced the
+     * given number of generations over the given number of cells each, and left the given
+     * population.
+     */
+    public void endStep(long start, long stepGenerations, long cells, long livePopulation)
+    {
+        stepTimes.record(System.nanoTime() - start);
+        allocated += Math.max(0, allocatedBytes() - stepAllocation);
+        generations += stepGenerations;
+        cellUpdates += stepGenerations * cells;
+        population = livePopulation;
+        steps++;
+    }
+    
+    /**
+     * Records the time taken to paint the grid, in nanoseconds.
+     */
+    public void recordPaint(long nanos)
+    {
+        paintTimes.record(nanos);
+    }
+    
+    /**
+     * Records the start of a frame, and the time since the previous one. The first frame after
+     * stopFrames only sets the starting point.
+     */
+    public void recordFrame()
+    {
+        long now = System.nanoTime();
+        if (lastFrame != 0)
+            frameTimes.record(now - lastFrame);
+        lastFrame = now;
+    }
+    
+    /**
+     * Notes that frames have stopped, such as when the simulation is paused, so that the pause
+     * isn't counted as one very long frame.
+     */
+    public void stopFrames()
+    {
+        lastFrame = 0;
+    }
+    
+    /**
+     * Starts a new window if the current one is over, working out the rates of the one that just
+     * ended, and keeping its durations for the percentiles if there were any.
+     */
+    private void roll()
+    {
+        long now = System.nanoTime();
+        long elapsed = now - windowStart;
+        if (elapsed < WINDOW)
+            return;
+        
+        long currentSteps = steps, currentGenerations = generations;
+        long currentCells = cellUpdates, currentAllocated = allocated;
+        generationRate = (currentGenerations - windowGenerations) * 1e9 / elapsed;
+        cellRate = (currentCells - windowCells) * 1e9 / elapsed;
+        if (currentSteps > windowSteps)
+            allocationRate = (currentAllocated - windowAllocated) / (currentSteps - windowSteps);
+        windowStart = now;
+        windowSteps = currentSteps;
+        windowGenerations = currentGenerations;
+        windowCells = currentCells;
+        windowAllocated = currentAllocated;
+        
+        LatencyHistogram[][] pairs = {{stepTimes, lastStepTimes}, {paintTimes, lastPaintTimes},
+            {frameTimes, lastFrameTimes}};
+        for (LatencyHistogram[] pair : pairs)
+        {
+            if (pair[0].getCount() > 0)
+            {
+                pair[1].reset();
+                pair[0].moveTo(pair[1]);
+            }
+        }
+    }
+    
+    /**
+     * Forgets everything recorded so far.
+     */
+    public synchronized void reset()
+    {
+        stepTimes.reset();
+        paintTimes.reset();
+        frameTimes.reset();
+        lastStepTimes.reset();
+        lastPaintTimes.reset();
+        lastFrameTimes.reset();
+        steps = generations = cellUpdates = allocated = population = 0;
+        windowSteps = windowGenerations = windowCells = windowAllocated = 0;
+        generationRate = cellRate = 0;
+        allocationRate = 0;
+        windowStart = System.nanoTime();
+    }
+    
+    /**
+     * Publishes the figures over JMX in the platform MBean server, under OBJECT_NAME, taking the
+     * place of anything already published there.
+     */
+    public void register()
+    {
+        try
+        {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (server.isRegistered(name))
+                server.unregisterMBean(name);
+            server.registerMBean(this, name);
+        }
+        catch (JMException e)
+        {
+            throw new IllegalStateException("Could not publish the metrics over JMX.", e);
+        }
+    }
+    
+    /**
+     * Returns the number of bytes the current thread has allocated so far, or 0 if the JVM can't
+     * tell.
+     */
+    private static long allocatedBytes()
+    {
+        if (THREADS == null)
+            return 0;
+        return THREADS.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+    
+    /**
+     * Returns the JVM's counter of allocated bytes per thread, turned on, or null if it has none.
+     */
+    private static com.sun.management.ThreadMXBean allocationCounter()
+    {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (!(bean instanceof com.sun.management.ThreadMXBean))
+            return null;
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+        if (!threads.isThreadAllocatedMemorySupported())
+            return null;
+        threads.setThreadAllocatedMemoryEnabled(true);
+        return threads;
+    }
+    
+    /**
+     * Writes a number to about three significant figures, with a k, M, G or T suffix (for
+     * thousands, millions, billions or trillions) as needed.
+     */
+    private static String format(double value)
+    {
+        String[] suffixes = {"", "k", "M", "G", "T"};
+        int k = 0;
+        while (Math.abs(value) >= 999.5 && k < suffixes.length - 1)
+        {
+            value /= 1000;
+            k++;
+        }
+        if (value >= 99.95 || value == Math.rint(value))
+            return String.format("%.0f%s", value, suffixes[k]);
+        return String.format((value >= 9.995)? "%.1f%s": "%.2f%s", value, suffixes[k]);
+    }
+    
+    /**
+     * Writes a duration in nanoseconds in whichever unit suits it best.
+     */
+    private static String formatTime(long nanos)
+    {
+        if (nanos < 1_000)
+            return nanos + "ns";
+        if (nanos < 1_000_000)
+            return format(nanos / 1e3) + "us";
+        if (nanos < 1_000_000_000)
+            return format(nanos / 1e6) + "ms";
+        return format(nanos / 1e9) + "s";
+    }
+    
+    ////////////////////////////////////////////////////
+    // Accessors
+    ////////////////////////////////////////////////////
+    
+    public long getGenerations()
+    {
+        return generations;
+    }
+    
+    public synchronized double getGenerationsPerSecond()
+    {
+        roll();
+        return generationRate;
+    }
+    
+    public synchronized double getCellUpdatesPerSecond()
+    {
+        roll();
+        return cellRate;
+    }
+    
+    public synchronized long getStepLatencyP50()
+    {
+        roll();
+        return lastStepTimes.getPercentile(50);
+    }
+    
+    public synchronized long getStepLatencyP99()
+    {
+        roll();
+        return lastStepTimes.getPercentile(99);
+    }
+    
+    public synchronized long getPaintLatencyP50()
+    {
+        roll();
+        return lastPaintTimes.getPercentile(50);
+    }
+    
+    public synchronized long getPaintLatencyP99()
+    {
+        roll();
+        return lastPaintTimes.getPercentile(99);
+    }
+    
+    public synchronized long getFrameIntervalP50()
+    {
+        roll();
+        return lastFrameTimes.getPercentile(50);
+    }
+    
+    public synchronized long getFrameIntervalP99()
+    {
+        roll();
+        return lastFrameTimes.getPercentile(99);
+    }
+    
+    public long getPopulation()
+    {
+        return population;
+    }
+    
+    public long getAllocatedBytes()
+    {
+        return allocated;
+    }
+    
+    public synchronized long getAllocatedBytesPerStep()
+    {
+        roll();
+        return allocationRate;
+    }
+    
+    /**
+     * Returns the figures on one line, for the control panel. Durations are given as the median
+     * and the 99th percentile, separated by a slash.
+     */
+    public synchronized String getSummary()
+    {
+        roll();
+        return format(generationRate) + " gen/s, " + format(cellRate) + " cells/s, step " +
+            formatTime(lastStepTimes.getPercentile(50)) + "/" +
+            formatTime(lastStepTimes.getPercentile(99)) + ", paint " +
+            formatTime(lastPaintTimes.getPercentile(50)) + "/" +
+            formatTime(lastPaintTimes.getPercentile(99)) + ", frame " +
+            formatTime(lastFrameTimes.getPercentile(50)) + "/" +
+            formatTime(lastFrameTimes.getPercentile(99)) + ", pop " + format(population) +
+            ", " + format(allocationRate) + "B/step";
+    }
+}
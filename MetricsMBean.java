@@ -0,0 +1,34 @@
+/**
+ * The attributes of Metrics that are published over JMX, under Metrics.OBJECT_NAME. Rates and
+ * percentiles cover the last whole second; durations are in nanoseconds.
+ */
+public interface MetricsMBean
+{
+    long getGenerations();
+    
+    double getGenerationsPerSecond();
+    
+    double getCellUpdatesPerSecond();
+    
+    long getStepLatencyP50();
+    
+    long getStepLatencyP99();
+    
+    long getPaintLatencyP50();
+    
+    long getPaintLatencyP99();
+    
+    long getFrameIntervalP50();
+    
+    long getFrameIntervalP99();
+    
+    long getPopulation();
+    
+    long getAllocatedBytes();
+    
+    long getAllocatedBytesPerStep();
+    
+    String getSummary();
+    
+    void reset();
+}
@@ -0,0 +1,453 @@
+import java.util.Arrays;
+
+/**
+ * A grid of two-state cells packed 64 to a long. Bit j of word k in a row holds the cell in column
+ * 64*k + j. A generation is computed a whole word at a time: the eight neighbor bitboards of a
+ * word are summed with bitwise adder logic into a 4-bit count per cell, and the birth and survival
+ * conditions are then applied to all 64 cells at once.
+ *
+ * The grid is surrounded by a border of ghost cells: an extra row above and below, and a ghost
+ * bit to the left and right of every row. The border is filled in once per generation according
+ * to the edge rule, so the kernel itself never has to check which edge rule is in use.
+ */
+public class PackedGrid
+{
+    /*
+     * Contents:
+     * Definitions-----------------------------
+     * Methods---------------------------------
+     * PackedGrid
+     * clear
+     * swap
+     * refreshBorder
+     * reverse
+     * stepTiles
+     * stepRow
+     * applyRule
+     * Accessors-------------------------------
+     */
+    
+    ////////////////////////////////////////////////////
+    // Definitions
+    ////////////////////////////////////////////////////
+    
+    private final int width; // number of columns
+    private final int height; // number of rows
+    private final int words; // number of longs per row
+    private final long lastMask; // valid bits of the last word in each row
+    private long[][] cells; // current generation, with row i in cells[i+1] and ghost rows around
+    private long[][] next; // buffer for the next generation, laid out the same way
+    private final long[] westGhost; // ghost cell to the left of each row of cells (0 or 1)
+    private final long[] eastGhost; // ghost cell to the right of each row of cells (0 or 1)
+    
+    ////////////////////////////////////////////////////
+    // Methods
+    ////////////////////////////////////////////////////
+    
+    /**
+     * Creates an empty packed grid of the given dimensions.
+     */
+    public PackedGrid(int width, int height)
+    {
+        this.width = width;
+        this.height = height;
+        words = (width + 63) >>> 6;
+        lastMask = (width % 64 == 0)? -1L: (1L << (width % 64)) - 1;
+        cells = new long[height + 2][words];
+        next = new long[height + 2][words];
+        westGhost = new long[height + 2];
+        eastGhost = new long[height + 2];
+    }
+    
+    /**
+     * Sets every cell to 0.
+     */
+    public void clear()
+    {
+        for (int i = 0; i < height + 2; i++)
+            Arrays.fill(cells[i], 0L);
+    }
+    
+    /**
+     * Makes the generation computed by stepTiles the current one.
+     */
+    public void swap()
+    {
+        long[][] temp = cells;
+        cells = next;
+        next = temp;
+    }
+    
+    /**
+     * Fills in the ghost cells around the grid from the current generation, according to the
+     * given edge rule.
+     */
+    public void refreshBorder(EdgeRule edgeRule)
+    {
+        long[] top = cells[0], bottom = cells[height + 1];
+        long[] first = cells[1], last = cells[height];
+        switch (edgeRule)
+        {
+            case TOROIDAL:
+                System.arraycopy(last, 0, top, 0, words);
+                System.arraycopy(first, 0, bottom, 0, words);
+                break;
+            case KLEIN_BOTTLE:
+                // Crossing the top or bottom edge comes back in on the other side, flipped.
+                reverse(last, top);
+                reverse(first, bottom);
+                break;
+            case MIRROR:
+                System.arraycopy(first, 0, top, 0, words);
+                System.arraycopy(last, 0, bottom, 0, words);
+                break;
+            case ON_EDGES:
+                Arrays.fill(top, -1L);
+                Arrays.fill(bottom, -1L);
+                top[words-1] = lastMask;
+                bottom[words-1] = lastMask;
+                break;
+            case OFF_EDGES:
+            case UNBOUNDED: // only when the rule cannot run on an unbounded plane
+                Arrays.fill(top, 0L);
+                Arrays.fill(bottom, 0L);
+                break;
+            default:
+                throw new IllegalStateException("No edge rule selected (somehow).");
+        }
+        
+        // The ghost rows get ghost cells too, which fills in the corners.
+        int lastShift = (width - 1) & 63; // position of the last cell within the last word
+        for (int i = 0; i < height + 2; i++)
+        {
+            long firstBit = cells[i][0] & 1L;
+            long lastBit = (cells[i][words-1] >>> lastShift) & 1L;
+            switch (edgeRule)
+            {
+                case TOROIDAL:
+                case KLEIN_BOTTLE:
+                    westGhost[i] = lastBit;
+                    eastGhost[i] = firstBit;
+                    break;
+                case MIRROR:
+                    westGhost[i] = firstBit;
+                    eastGhost[i] = lastBit;
+                    break;
+                case ON_EDGES:
+                    westGhost[i] = 1L;
+                    eastGhost[i] = 1L;
+                    break;
+                default:
+                    westGhost[i] = 0L;
+                    eastGhost[i] = 0L;
+            }
+        }
+    }
+    
+    /**
+     * Writes row src into row dst in reverse order, so that cell j of dst is cell width - 1 - j of
+     * src.
+     */
+    private void reverse(long[] src, long[] dst)
+    {
+        // Reversing every bit of the row leaves it shifted up by the unused bits of the last word.
+        int shift = words * 64 - width;
+        for (int k = 0; k < words; k++)
+        {
+            long low = Long.reverse(src[words-1-k]);
+            long high = (k + 1 < words)? Long.reverse(src[words-2-k]): 0L;
+            dst[k] = (shift == 0)? low: (low >>> shift) | (high << (64 - shift));
+        }
+    }
+    
+    /**
+     * Computes words from (inclusive) to to (exclusive) of rows top (inclusive) to bottom
+     * (exclusive) of the next generation, which together make up a run of side-by-side tiles of a
+     * TileMap, each group words wide. Returns a mask with bit n set if any cell in the nth tile of
+     * the run changed. There can be at most 64 tiles in the run. The border must have been
+     * refreshed since the grid last changed. The rule is given as a pair of bit masks: a dead
+     * cell with n live neighbors comes to life if bit n of birth is set, and a live cell with n
+     * live neighbors stays alive if bit n of survive is set.
+     *
+     * If counts isn't null, the births and deaths of the nth tile of the run in the new generation
+     * are counted along the way into counts[base + 4n] and counts[base + 4n + 1], and its count of
+     * live cells in counts[base + 4n + 2] is brought up to date by adding the births and taking
+     * away the deaths (counts[base + 4n + 3], for dying cells, stays 0). If hashes isn't null,
+     * the Zobrist hash of the nth tile of the run in the new generation goes into
+     * hashes[first + n], keyed the same way as Simulation.getHash keys the words of a packed grid.
+     */
+    public long stepTiles(int top, int bottom, int from, int to, int group, int birth,
+        int survive, int[] counts, int base, long[] hashes, int first)
+    {
+        int tiles = (to - from + group - 1) / group;
+        if (counts != null)
+        {
+            for (int n = 0; n < tiles; n++)
+            {
+                counts[base + 4 * n] = 0;
+                counts[base + 4 * n + 1] = 0;
+            }
+        }
+        if (hashes != null)
+            Arrays.fill(hashes, first, first + tiles, 0);
+        long changed = 0;
+        for (int i = top; i < bottom; i++)
+        {
+            changed |= stepRow(i + 1, from, to, group, birth, survive, counts, base, hashes,
+                first);
+        }
+        return Long.reverse(changed) >>> (64 - tiles);
+    }
+    
+    /**
+     * Computes words from (inclusive) to to (exclusive) of row r of the cell arrays (row r - 1 of
+     * the grid) for the next generation, from the row itself and the rows just above and below it.
+     * The words are taken in groups of the given size (the last may be short), and the result has
+     * one bit for each group, set if any cell in the group changed, with the last group in the
+     * lowest bit. If counts isn't null, the cells of each group are counted into it, and if
+     * hashes isn't null, the keys of the group's words are XORed into it, as for stepTiles.
+     */
+    private long stepRow(int r, int from, int to, int group, int birth, int survive,
+        int[] counts, int base, long[] hashes, int first)
+    {
+        long[] up = cells[r-1], mid = cells[r], down = cells[r+1], out = next[r];
+        
+        // The ghost cells just beyond the left and right ends of the three rows:
+        long upWest = westGhost[r-1], midWest = westGhost[r], downWest = westGhost[r+1];
+        long upEast = eastGhost[r-1], midEast = eastGhost[r], downEast = eastGhost[r+1];
+        int eastShift = (width - 1) & 63; // position of the last cell within the last word
+        boolean conway = (birth == 0b1000 && survive == 0b1100);
+        long changed = 0, any = 0;
+        int left = group; // words left in the current group
+        int births = 0, deaths = 0; // in the current group, if counted
+        long hash = 0; // of the current group, if hashed
+        long position = (long) (r - 1) * words; // Zobrist position of the row's first word
+        
+        for (int k = from; k < to; k++)
+        {
+            /*
+             * Each neighbor bitboard lines up a neighbor of every cell with the cell itself. The
+             * "west" board holds each cell's left neighbor, so it is the row shifted one place
+             * toward higher bits, with the last bit of the previous word carried in.
+             */
+            long u = up[k], m = mid[k], d = down[k];
+            long uw, mw, dw, ue, me, de;
+            if (k > 0)
+            {
+                uw = (u << 1) | (up[k-1] >>> 63);
+                mw = (m << 1) | (mid[k-1] >>> 63);
+                dw = (d << 1) | (down[k-1] >>> 63);
+            }
+            else
+            {
+                uw = (u << 1) | upWest;
+                mw = (m << 1) | midWest;
+                dw = (d << 1) | downWest;
+            }
+            if (k < words - 1)
+            {
+                ue = (u >>> 1) | (up[k+1] << 63);
+                me = (m >>> 1) | (mid[k+1] << 63);
+                de = (d >>> 1) | (down[k+1] << 63);
+            }
+            else
+            {
+                ue = (u >>> 1) | (upEast << eastShift);
+                me = (m >>> 1) | (midEast << eastShift);
+                de = (d >>> 1) | (downEast << eastShift);
+            }
+            
+            /*
+             * Sum the eight neighbor boards into a 4-bit count (b3 b2 b1 b0) per cell, using full
+             * adders on groups of three and then adding up the carries.
+             */
+            long s1 = uw ^ u ^ ue, c1 = (uw & u) | (ue & (uw ^ u));
+            long s2 = mw ^ me ^ dw, c2 = (mw & me) | (dw & (mw ^ me));
+            long s3 = d ^ de, c3 = d & de;
+            long b0 = s1 ^ s2 ^ s3, c4 = (s1 & s2) | (s3 & (s1 ^ s2));
+            long t = c1 ^ c2 ^ c3, c5 = (c1 & c2) | (c3 & (c1 ^ c2));
+            long b1 = t ^ c4, c6 = t & c4;
+            long b2 = c5 ^ c6;
+            long b3 = c5 & c6;
+            
+            long result;
+            if (conway)
+            {
+                // Alive with exactly 3 neighbors, or alive already with exactly 2.
+                result = b1 & ~b2 & ~b3 & (b0 | m);
+            }
+            else
+                result = applyRule(m, b0, b1, b2, b3, birth, survive);
+            if (k == words - 1)
+                result &= lastMask;
+            
+            out[k] = result;
+            
+            // Fold the changes into one bit per group of words.
+            long change = result ^ m;
+            any |= change;
+            if (counts != null)
+            {
+                births += Long.bitCount(change & result);
+                deaths += Long.bitCount(change & m);
+            }
+            if (hashes != null)
+                hash ^= Zobrist.key(position + k, result);
+            if (--left == 0 || k == to - 1)
+            {
+                changed = (changed << 1) | ((any != 0)? 1: 0);
+                any = 0;
+                left = group;
+                if (hashes != null)
+                {
+                    hashes[first++] ^= hash;
+                    hash = 0;
+                }
+                if (counts != null)
+                {
+                    counts[base] += births;
+                    counts[base + 1] += deaths;
+                    counts[base + 2] += births - deaths;
+                    births = deaths = 0;
+                    base += 4;
+                }
+            }
+        }
+        return changed;
+    }
+    
+    /**
+     * Applies a general rule to a word of cells m whose neighbor counts are given by the bits
+     * b3 b2 b1 b0.
+     */
+    static long applyRule(long m, long b0, long b1, long b2, long b3, int birth,
+        int survive)
+    {
+        long born = 0, stay = 0;
+        for (int n = 0; n <= 8; n++)
+        {
+            if (((birth | survive) >>> n & 1) == 0)
+                continue;
+            long count = (((n & 1) != 0)? b0: ~b0) & (((n & 2) != 0)? b1: ~b1) &
+                (((n & 4) != 0)? b2: ~b2) & (((n & 8) != 0)? b3: ~b3);
+            if ((birth >>> n & 1) != 0)
+                born |= count;
+            if ((survive >>> n & 1) != 0)
+                stay |= count;
+        }
+        return (~m & born) | (m & stay);
+    }
+    
+    ////////////////////////////////////////////////////
+    // Accessors
+    ////////////////////////////////////////////////////
+    
+    public int getWidth()
+    {
+        return width;
+    }
+    
+    public int getHeight()
+    {
+        return height;
+    }
+    
+    /**
+     * Returns the number of longs used to store each row.
+     */
+    public int getWords()
+    {
+        return words;
+    }
+    
+    /**
+     * Returns the long holding columns 64*k to 64*k + 63 of row i. Bits past the width of the
+     * grid are always 0.
+     */
+    public long getWord(int i, int k)
+    {
+        return cells[i+1][k];
+    }
+    
+    /**
+     * Returns the state (0 or 1) of the cell in row i, column j.
+     */
+    public int get(int i, int j)
+    {
+        return (int) (cells[i+1][j >>> 6] >>> (j & 63)) & 1;
+    }
+    
+    /**
+     * Copies the states of the cells in row i, columns left to right - 1, into states starting
+     * at offset.
+     */
+    public void getRow(int i, int left, int right, int[] states, int offset)
+    {
+        long[] row = cells[i+1];
+        int j = left;
+        while (j < right)
+        {
+            long word = row[j >>> 6] >>> (j & 63);
+            int end = Math.min(right, (j | 63) + 1);
+            for (; j < end; j++, word >>>= 1)
+                states[offset++] = (int) word & 1;
+        }
+    }
+    
+    /**
+     * Counts the live cells of row i in blocks of the given number of columns, which must be a
+     * power of two. The block starting at column left (a multiple of block) is added to
+     * counts[offset], the next to counts[offset + 1], and so on. The last block ends at column
+     * right, which must be a multiple of block or the width of the grid. Blocks never straddle
+     * two longs, so each one takes a single bit count.
+     */
+    public void countRow(int i, int left, int right, int block, int[] counts, int offset)
+    {
+        long[] row = cells[i+1];
+        if (block >= 64)
+        {
+            for (int j = left; j < right; j += 64)
+                counts[offset + (j - left) / block] += Long.bitCount(row[j >>> 6]);
+        }
+        else
+        {
+            long mask = (1L << block) - 1;
+            for (int j = left; j < right; j += block)
+                counts[offset++] += Long.bitCount((row[j >>> 6] >>> (j & 63)) & mask);
+        }
+    }
+    
+    /**
+     * Sets the cell in row i, column j to alive (state 1) or dead (any other state).
+     */
+    public void set(int i, int j, int state)
+    {
+        if (state == 1)
+            cells[i+1][j >>> 6] |= 1L << (j & 63);
+        else
+            cells[i+1][j >>> 6] &= ~(1L << (j & 63));
+    }
+    
+    /**
+     * Replaces the long holding columns 64*k to 64*k + 63 of row i. Bits past the width of the
+     * grid are ignored.
+     */
+    public void setWord(int i, int k, long word)
+    {
+        cells[i+1][k] = (k == words - 1)? word & lastMask: word;
+    }
+    
+    /**
+     * Counts the number of live cells.
+     */
+    public long getPopulation()
+    {
+        long population = 0;
+        for (int i = 1; i <= height; i++)
+        {
+            for (int k = 0; k < words; k++)
+                population += Long.bitCount(cells[i][k]);
+        }
+        return population;
+    }
+}
@@ -0,0 +1,599 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Reads and writes patterns in the two formats most pattern collections use: run-length encoded
+ * (RLE) files, and plaintext files with the extension .cells. Any other extension is taken to be
+ * RLE.
+ *
+ * Both are streamed: a file is read a buffer of bytes at a time and decoded straight into the
+ * simulation's grid, without building up a string or an array of the whole pattern along the way,
+ * and the grid is written out a row at a time. Reading a large pattern costs little more than
+ * reading the file.
+ *
+ * A pattern is read into the middle of the grid, which is first cleared, and enlarged if the
+ * pattern doesn't fit, though not to more than MAX_SIZE cells in either direction. If an RLE file
+ * names a rule, the simulation switches to it. Multi-state RLE (as written by Golly for
+ * Generations rules) is understood as well. Plaintext files only hold live and dead cells, so
+ * any other state is written out as dead.
+ */
+public class PatternFile
+{
+    /*
+     * Contents:
+     * Definitions-----------------------------
+     * Methods---------------------------------
+     * read
+     * readRle
+     * fillBits
+     * setRow
+     * readPlaintext
+     * place
+     * write
+     * writeRle
+     * nextChange
+     * writePlaintext
+     * isPatternFile
+     * isPlaintext
+     * Inner Classes---------------------------
+     * Input
+     * RleWriter
+     */
+    
+    ////////////////////////////////////////////////////
+    // Definitions
+    ////////////////////////////////////////////////////
+    
+    private static final int BUFFER_SIZE = 1 << 16; // bytes read from the file at once
+    private static final int LINE_LENGTH = 70; // longest line written to an RLE file
+    private static final int MAX_RUN = 1 << 28; // longest run that is accepted
+    public static final int MAX_SIZE = 5000; // largest a pattern can enlarge the grid to
+    
+    ////////////////////////////////////////////////////
+    // Methods
+    ////////////////////////////////////////////////////
+    
+    /**
+     * Reads the pattern in the given file into the middle of the simulation's grid, replacing
+     * whatever was there. Throws an IOException describing the problem if the file is malformed.
+     */
+    public static void read(Path path, Simulation simulation) throws IOException
+    {
+        if (!isPlaintext(path))
+        {
+            try (Input in = new Input(Files.newInputStream(path)))
+            {
+                readRle(in, simulation);
+            }
+            return;
+        }
+        
+        // Plaintext files don't give their size up front, so the file is read once to measure it.
+        int[] size = new int[2];
+        try (Input in = new Input(Files.newInputStream(path)))
+        {
+            readPlaintext(in, null, 0, 0, size);
+        }
+        int[] origin = place(simulation, null, size[0], size[1]);
+        try (Input in = new Input(Files.newInputStream(path)))
+        {
+            readPlaintext(in, simulation, origin[0], origin[1], size);
+        }
+    }
+    
+    /**
+     * Reads an RLE pattern: comment lines starting with #, a header line such as
+     * "x = 3, y = 3, rule = B3/S23", and then runs of cells, each an optional count followed by b
+     * (dead) or o (alive), or by . or A to X (states 0 to 24) with p to y in front for states 25
+     * and up. A $ ends a row, and ! ends the pattern.
+     */
+    private static void readRle(Input in, Simulation simulation) throws IOException
+    {
+        String header;
+        do
+        {
+            header = in.readLine();
+            if (header == null)
+                throw new IOException("The pattern has no header line.");
+            header = header.trim();
+        } while (header.isEmpty() || header.charAt(0) == '#');
+        
+        // The rule goes last, and may itself hold commas, so it is split off first.
+        int width = -1, height = -1;
+        Rule rule = null;
+        try
+        {
+            int ruleStart = header.indexOf("rule");
+            if (ruleStart >= 0)
+            {
+                String notation = header.substring(header.indexOf('=', ruleStart) + 1).trim();
+                rule = Rule.parse(notation.split(":")[0]); // ignore any Golly topology
+                header = header.substring(0, ruleStart);
+            }
+            for (String field : header.split(","))
+            {
+                String[] pair = field.split("=");
+                if (pair[0].trim().equals("x"))
+                    width = Integer.parseInt(pair[1].trim());
+                else if (pair[0].trim().equals("y"))
+                    height = Integer.parseInt(pair[1].trim());
+            }
+        }
+        catch (RuntimeException e) // also covers missing values and malformed rules
+        {
+            throw new IOException("The header line is malformed: " + e.getMessage(), e);
+        }
+        if (width < 0 || height < 0)
+            throw new IOException("The header line needs both x and y.");
+        
+        int[] origin = place(simulation, rule, width, height);
+        int states = simulation.getRule().getStates();
+        int gridWidth = simulation.getWidth();
+        int gridHeight = simulation.getHeight();
+        int i = origin[0], j = origin[1]; // next cell to fill in
+        int count = 0; // count of the current run, or 0 if none was given
+        int prefix = 0; // letter from p to y before the current state, or 0 if none
+        
+        // Two-state rows are put together a long at a time, and then set a long at a time.
+        long[] row = (states == 2)? new long[(gridWidth + 63) / 64]: null;
+        boolean rowEmpty = true; // whether row has nothing to set
+        for (int c = in.read(); ; c = in.read())
+        {
+            if (c < 0 || c == '!' || c == '$')
+            {
+                if (!rowEmpty)
+                    setRow(simulation, i, row);
+                rowEmpty = true;
+                if (c != '$')
+                    break;
+                i = Math.min(gridHeight, i + Math.max(count, 1));
+                j = origin[1];
+                count = 0;
+                continue;
+            }
+            if (c >= '0' && c <= '9')
+            {
+                count = 10 * count + (c - '0');
+                if (count > MAX_RUN)
+                    throw new IOException("The run on line " + in.line + " is too long.");
+                continue;
+            }
+            if (c == '\n')
+                in.line++;
+            if (c == ' ' || c == '\t' || c == '\r' || c == '\n')
+                continue;
+            if (c >= 'p' && c <= 'y' && prefix == 0)
+            {
+                prefix = c;
+                continue;
+            }
+            
+            int run = Math.max(count, 1);
+            int state;
+            if (c == 'b' || c == '.')
+                state = 0;
+            else if (c == 'o')
+                state = 1;
+            else if (c >= 'A' && c <= 'X')
+                state = (prefix == 0)? c - 'A' + 1: 24 * (prefix - 'p' + 1) + c - 'A' + 1;
+            else
+                throw new IOException("Unexpected '" + (char) c + "' on line " + in.line + ".");
+            if (state >= states)
+                throw new IOException("State " + state + " on line " + in.line + " is not one " +
+                    "of the rule's " + states + " states.");
+            
+            // The grid starts out empty, so only the runs of live cells need to be filled in.
+            int end = Math.min(gridWidth, j + run);
+            if (state != 0 && i < gridHeight && j < end)
+            {
+                if (row != null)
+                {
+                    fillBits(row, j, end);
+                    rowEmpty = false;
+                }
+                else
+                {
+                    for (int k = j; k < end; k++)
+                        simulation.setCell(i, k, state);
+                }
+            }
+            j = end;
+            count = 0;
+            prefix = 0;
+        }
+    }
+    
+    /**
+     * Sets bits from to to - 1 of the given row of longs, with bit j in bit j % 64 of long j / 64.
+     */
+    private static void fillBits(long[] row, int from, int to)
+    {
+        int first = from >>> 6, last = (to - 1) >>> 6;
+        long firstMask = -1L << from; // shifts only use the low six bits
+        long lastMask = -1L >>> -to;
+        if (first == last)
+            row[first] |= firstMask & lastMask;
+        else
+        {
+            row[first] |= firstMask;
+            for (int k = first + 1; k < last; k++)
+                row[k] = -1L;
+            row[last] |= lastMask;
+        }
+    }
+    
+    /**
+     * Sets the live cells of row i of the simulation to the bits of the given row of longs (which
+     * must be empty so far), and empties the row for reuse.
+     */
+    private static void setRow(Simulation simulation, int i, long[] row)
+    {
+        for (int k = 0; k < row.length; k++)
+        {
+            if (row[k] != 0)
+            {
+                simulation.setWord(i, k, row[k]);
+                row[k] = 0;
+            }
+        }
+    }
+    
+    /**
+     * Reads a plaintext pattern: comment lines starting with !, and then one line for each row,
+     * with O (or *) for a live cell and . for a dead one. If simulation is null, the pattern is
+     * only measured, and its width and height are put in size. Otherwise it is read into the
+     * simulation, with its top left corner in row top, column left.
+     */
+    private static void readPlaintext(Input in, Simulation simulation, int top, int left,
+        int[] size) throws IOException
+    {
+        int i = 0, j = 0; // row and column of the next cell in the pattern
+        int width = 0, height = 0;
+        boolean comment = false; // whether the current line is a comment
+        for (int c = in.read(); c >= 0; c = in.read())
+        {
+            if (c == '\n')
+            {
+                in.line++;
+                if (!comment)
+                    i++;
+                j = 0;
+                comment = false;
+                continue;
+            }
+            if (comment || c == '\r')
+                continue;
+            if (c == '!' && j == 0)
+            {
+                comment = true;
+                continue;
+            }
+            
+            if (c == 'O' || c == '*')
+            {
+                if (simulation != null && top + i < simulation.getHeight() &&
+                    left + j < simulation.getWidth())
+                    simulation.setCell(top + i, left + j, 1);
+            }
+            else if (c != '.' && c != ' ')
+                throw new IOException("Unexpected '" + (char) c + "' on line " + in.line + ".");
+            j++;
+            width = Math.max(width, j);
+            height = i + 1;
+        }
+        size[0] = width;
+        size[1] = height;
+    }
+    
+    /**
+     * Gets the simulation ready for a pattern of the given dimensions: switches to the given rule
+     * (unless it is null), and clears the grid, enlarging it if the pattern doesn't fit. Returns
+     * the row and column at which the pattern's top left corner goes, so as to center it. Throws
+     * an IOException, leaving the simulation as it was, if the pattern would need the grid to be
+     * larger than MAX_SIZE (a grid that is already larger can hold a pattern of its own size).
+     */
+    private static int[] place(Simulation simulation, Rule rule, int width, int height)
+        throws IOException
+    {
+        if (width > Math.max(MAX_SIZE, simulation.getWidth()) ||
+            height > Math.max(MAX_SIZE, simulation.getHeight()))
+            throw new IOException("The pattern is " + width + " x " + height + " cells, but " +
+                "can be at most " + MAX_SIZE + " x " + MAX_SIZE + ".");
+        if (rule != null)
+            simulation.setRule(rule);
+        if (width > simulation.getWidth() || height > simulation.getHeight())
+            simulation.resize(Math.max(width, simulation.getWidth()),
+                Math.max(height, simulation.getHeight()));
+        else
+            simulation.clear();
+        return new int[] {(simulation.getHeight() - height) / 2,
+            (simulation.getWidth() - width) / 2};
+    }
+    
+    /**
+     * Writes the whole grid to the given file, replacing anything already there. The pattern is
+     * as large as the grid, so reading it back into a grid of the same size puts every cell back
+     * where it was.
+     */
+    public static void write(Simulation simulation, Path path) throws IOException
+    {
+        try (Writer out = Files.newBufferedWriter(path, StandardCharsets.US_ASCII))
+        {
+            if (isPlaintext(path))
+                writePlaintext(simulation, out);
+            else
+                writeRle(simulation, out);
+        }
+    }
+    
+    /**
+     * Writes the grid as RLE. Dead cells at the ends of rows and rows at the bottom of the grid
+     * are left out, as the header already gives the size of the pattern.
+     */
+    private static void writeRle(Simulation simulation, Writer out) throws IOException
+    {
+        int width = simulation.getWidth();
+        int height = simulation.getHeight();
+        out.write("#C Generation " + simulation.getGeneration() + "\n");
+        out.write("x = " + width + ", y = " + height + ", rule = " + simulation.getRule() +
+            "\n");
+        
+        boolean multiState = simulation.getRule().getStates() > 2;
+        RleWriter rle = new RleWriter(out, multiState);
+        int[] row = (multiState)? new int[width]: null;
+        int words = (width + 63) / 64;
+        int current = 0; // row the writer is on
+        for (int i = 0; i < height; i++)
+        {
+            // Find the end of the last run of live cells, skipping empty rows altogether.
+            int end = 0;
+            if (multiState)
+            {
+                simulation.getRow(i, 0, width, row, 0);
+                for (end = width; end > 0 && row[end-1] == 0; end--);
+            }
+            else
+            {
+                for (int k = words - 1; k >= 0 && end == 0; k--)
+                {
+                    long word = simulation.getWord(i, k);
+                    if (word != 0)
+                        end = 64 * k + 64 - Long.numberOfLeadingZeros(word);
+                }
+            }
+            if (end == 0)
+                continue;
+            
+            if (i > current)
+                rle.endRows(i - current);
+            current = i;
+            for (int j = 0; j < end; )
+            {
+                int start = j;
+                if (multiState)
+                {
+                    while (j < end && row[j] == row[start])
+                        j++;
+                    rle.run(j - start, row[start]);
+                }
+                else
+                {
+                    j = nextChange(simulation, i, j, end);
+                    rle.run(j - start, (int) (simulation.getWord(i, start >>> 6) >>> start) & 1);
+                }
+            }
+        }
+        rle.finish();
+    }
+    
+    /**
+     * Returns the first column from j on in row i of a two-state grid whose state differs from
+     * that of column j, or end if there is none before it. Whole longs of the same state are
+     * skipped at once.
+     */
+    private static int nextChange(Simulation simulation, int i, int j, int end)
+    {
+        int k = j >>> 6;
+        long word = simulation.getWord(i, k);
+        long same = -((word >>> j) & 1); // all ones if the cell is alive, or else all zeros
+        long changes = (word ^ same) & (-1L << j);
+        while (changes == 0)
+        {
+            if (64 * ++k >= end)
+                return end;
+            changes = simulation.getWord(i, k) ^ same;
+        }
+        return Math.min(end, 64 * k + Long.numberOfTrailingZeros(changes));
+    }
+    
+    /**
+     * Writes the grid as plaintext, one full row to a line.
+     */
+    private static void writePlaintext(Simulation simulation, Writer out) throws IOException
+    {
+        int width = simulation.getWidth();
+        int[] row = new int[width];
+        out.write("!Generation " + simulation.getGeneration() + "\n");
+        for (int i = 0; i < simulation.getHeight(); i++)
+        {
+            simulation.getRow(i, 0, width, row, 0);
+            for (int j = 0; j < width; j++)
+                out.write((row[j] == 1)? 'O': '.');
+            out.write('\n');
+        }
+    }
+    
+    /**
+     * Returns whether the given file is a pattern (.rle or .cells) rather than something else,
+     * such as a snapshot, judging by its extension.
+     */
+    public static boolean isPatternFile(Path path)
+    {
+        String name = path.getFileName().toString().toLowerCase();
+        return name.endsWith(".rle") || name.endsWith(".cells");
+    }
+    
+    /**
+     * Returns whether the given file is a plaintext (.cells) pattern, judging by its extension.
+     */
+    private static boolean isPlaintext(Path path)
+    {
+        return path.getFileName().toString().toLowerCase().endsWith(".cells");
+    }
+    
+    ////////////////////////////////////////////////////
+    // Inner Classes
+    ////////////////////////////////////////////////////
+    
+    /**
+     * Reads a file a byte at a time, out of a buffer that is refilled as needed. Patterns are
+     * plain ASCII, so there is no decoding. Lines are counted for error messages by readLine and
+     * by the parsers, which already look at every line break, so that read stays as short as
+     * possible.
+     */
+    private static class Input implements Closeable
+    {
+        private final InputStream in; // the file
+        private final byte[] buffer = new byte[BUFFER_SIZE];
+        private int position = 0; // next byte of buffer to read
+        private int limit = 0; // end of the bytes in buffer
+        private int line = 1; // line the next byte is on, kept up to date by whoever reads it
+        
+        private Input(InputStream in)
+        {
+            this.in = in;
+        }
+        
+        /**
+         * Returns the next byte, or -1 at the end of the file.
+         */
+        private int read() throws IOException
+        {
+            if (position == limit)
+            {
+                limit = Math.max(0, in.read(buffer, 0, buffer.length));
+                position = 0;
+                if (limit == 0)
+                    return -1;
+            }
+            return buffer[position++] & 0xFF;
+        }
+        
+        /**
+         * Returns the rest of the current line, without the line break, or null at the end of the
+         * file. Only meant for short lines, such as headers.
+         */
+        private String readLine() throws IOException
+        {
+            int c = read();
+            if (c < 0)
+                return null;
+            StringBuilder s = new StringBuilder();
+            for (; c >= 0 && c != '\n'; c = read())
+            {
+                if (c != '\r')
+                    s.append((char) c);
+            }
+            line++;
+            return s.toString();
+        }
+        
+        public void close() throws IOException
+        {
+            in.close();
+        }
+    }
+    
+    /**
+     * Writes runs of cells in RLE, breaking lines before they grow longer than LINE_LENGTH. Runs
+     * of the same state are not merged, so the caller should pass whole runs. The text is
+     * gathered in a buffer and handed to the writer a buffer at a time.
+     */
+    private static class RleWriter
+    {
+        private final Writer out; // where to write
+        private final boolean multiState; // whether to use the letters of multi-state RLE
+        private final char[] token = new char[16]; // the count and state being written
+        private final char[] buffer = new char[BUFFER_SIZE]; // text not yet handed to out
+        private int length = 0; // characters in buffer
+        private int lineLength = 0; // characters written on the current line
+        
+        private RleWriter(Writer out, boolean multiState)
+        {
+            this.out = out;
+            this.multiState = multiState;
+        }
+        
+        /**
+         * Writes a run of the given number of cells in the given state.
+         */
+        private void run(int count, int state) throws IOException
+        {
+            int length = 0;
+            if (!multiState)
+                token[length++] = (state == 1)? 'o': 'b';
+            else if (state == 0)
+                token[length++] = '.';
+            else if (state <= 24)
+                token[length++] = (char) ('A' + state - 1);
+            else
+            {
+                token[length++] = (char) ('A' + (state - 25) % 24);
+                token[length++] = (char) ('p' + (state - 25) / 24);
+            }
+            put(count, length);
+        }
+        
+        /**
+         * Moves down the given number of rows, to the start of a row.
+         */
+        private void endRows(int count) throws IOException
+        {
+            token[0] = '$';
+            put(count, 1);
+        }
+        
+        /**
+         * Ends the pattern.
+         */
+        private void finish() throws IOException
+        {
+            token[0] = '!';
+            put(1, 1);
+            buffer[length++] = '\n';
+            out.write(buffer, 0, length);
+            length = 0;
+        }
+        
+        /**
+         * Writes the given count (unless it is 1) in front of the first tokenLength characters of
+         * token, which hold the tag in reverse order.
+         */
+        private void put(int count, int tokenLength) throws IOException
+        {
+            if (count > 1)
+            {
+                for (; count > 0; count /= 10)
+                    token[tokenLength++] = (char) ('0' + count % 10);
+            }
+            if (length + tokenLength + 1 > buffer.length)
+            {
+                out.write(buffer, 0, length);
+                length = 0;
+            }
+            if (lineLength + tokenLength > LINE_LENGTH)
+            {
+                buffer[length++] = '\n';
+                lineLength = 0;
+            }
+            lineLength += tokenLength;
+            while (tokenLength > 0)
+                buffer[length++] = token[--tokenLength];
+        }
+    }
+}
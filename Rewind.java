@@ -0,0 +1,237 @@
+import java.util.Arrays;
+
+/**
+ * A record of the last few generations, kept in memory, so that the simulation can be stepped
+ * back. Each step is stored as the cells it changed (see ShadowGrid), which are XORed back to undo
+ * it, in a ring buffer of a fixed number of bytes. Once the buffer is full, the oldest steps are
+ * forgotten to make room for new ones, so the number of steps that can be undone depends on how
+ * much of the grid each one changed.
+ *
+ * Once set (see Simulation.setRewind), the buffer is given each step by the simulation: prepare
+ * stores any edits made since the last step along with it, and record stores the step. Stepping
+ * back undoes the last step, along with any edits made after it, and leaves the grid as it was
+ * just before that step, edits and all. Anything that skips or resets generations other than a
+ * step, such as clearing the grid or opening a snapshot, forgets every stored step, and nothing
+ * is stored on an unbounded plane.
+ */
+public class Rewind extends ShadowGrid
+{
+    /*
+     * Contents:
+     * Definitions-----------------------------
+     * Methods---------------------------------
+     * Rewind
+     * prepare
+     * record
+     * evict
+     * stepBack
+     * put
+     * written
+     * read
+     * Accessors-------------------------------
+     */
+    
+    ////////////////////////////////////////////////////
+    // Definitions
+    ////////////////////////////////////////////////////
+    
+    public static final int DEFAULT_BUDGET = 32 << 20; // bytes of steps kept by the GUI
+    
+    private final byte[] ring; // the encoded steps, oldest first, wrapping around
+    private int head = 0; // index in ring of the next byte to be put
+    private long laps = 0; // times head has wrapped around to the start of ring
+    private long[] starts = new long[64]; // value of written() at the start of each step, circular
+    private int oldest = 0; // index in starts of the oldest step kept
+    private int count = 0; // number of steps kept
+    private long last = -1; // generation the copy of the grid is at, or -1 for none
+    private int readAt; // index in ring of the next byte to be read
+    private long unread; // bytes of the step being undone that are still to be read
+    private int[] lists = new int[4]; // index in ring of each list of the step being undone
+    
+    ////////////////////////////////////////////////////
+    // Methods
+    ////////////////////////////////////////////////////
+    
+    /**
+     * Creates an empty buffer that keeps at most the given number of bytes of steps, along with
+     * a copy of the grid (as large as the grid itself) once it is used.
+     */
+    public Rewind(int budget)
+    {
+        if (budget < 1)
+            throw new IllegalArgumentException("The memory budget must be positive.");
+        ring = new byte[budget];
+    }
+    
+    /**
+     * Gets ready to store the step the simulation is about to take, by storing any edits made
+     * since the last step along with it. If the simulation has not carried on from the last step
+     * stored, every step is forgotten.
+     */
+    public void prepare(Simulation simulation)
+    {
+        if (simulation.isUnbounded())
+        {
+            last = -1;
+            count = 0;
+        }
+        else if (last < 0 || !matches(simulation) || simulation.getGeneration() != last)
+        {
+            reset(simulation);
+            last = simulation.getGeneration();
+            count = 0;
+        }
+        else
+        {
+            encodeChanges(simulation, count > 0);
+            evict();
+        }
+    }
+    
+    /**
+     * Stores the step the simulation just took, forgetting the oldest steps to make room for it.
+     */
+    public void record(Simulation simulation)
+    {
+        if (last < 0 || !matches(simulation) || simulation.getGeneration() != last + 1)
+        {
+            last = -1; // not prepared for
+            count = 0;
+            return;
+        }
+        
+        if (count == starts.length)
+        {
+            // Unwind the circular list into a larger one.
+            long[] larger = new long[2 * count];
+            for (int n = 0; n < count; n++)
+                larger[n] = starts[(oldest + n) % count];
+            starts = larger;
+            oldest = 0;
+        }
+        starts[(oldest + count) % starts.length] = written();
+        count++;
+        encodeChanges(simulation, true);
+        last++;
+        evict();
+    }
+    
+    /**
+     * Forgets the steps whose start has been written over (even the last one, if it didn't fit).
+     */
+    private void evict()
+    {
+        long written = written();
+        while (count > 0 && starts[oldest] < written - ring.length)
+        {
+            oldest = (oldest + 1) % starts.length;
+            count--;
+        }
+    }
+    
+    /**
+     * Undoes the last step stored, along with any edits made since. Returns false, leaving the
+     * simulation alone, if there is no step to undo.
+     */
+    public boolean stepBack(Simulation simulation)
+    {
+        if (count == 0 || !matches(simulation) || simulation.getGeneration() != last)
+            return false;
+        
+        revertChanges(simulation);
+        long start = starts[(oldest + count - 1) % starts.length];
+        
+        // Find the lists stored for the step: the step itself, then any edits stored after it.
+        int listCount = 0;
+        readAt = (int) (start % ring.length);
+        for (unread = written() - start; unread > 0; listCount++)
+        {
+            if (listCount == lists.length)
+                lists = Arrays.copyOf(lists, 2 * listCount);
+            lists[listCount] = readAt;
+            skip();
+        }
+        
+        /*
+         * Undo them newest first. The XORs would give the same grid in any order, but this way
+         * every cell passes back through states it really had, so none are out of range.
+         */
+        for (int n = listCount - 1; n >= 0; n--)
+        {
+            readAt = lists[n];
+            apply(simulation);
+        }
+        laps = start / ring.length;
+        head = (int) (start % ring.length);
+        count--;
+        last--;
+        simulation.setGeneration(last);
+        return true;
+    }
+    
+    /**
+     * Writes a non-negative number into the ring as an unsigned LEB128 varint.
+     */
+    protected void put(int value)
+    {
+        while (true)
+        {
+            byte b = (byte) (value & 0x7F);
+            value >>>= 7;
+            ring[head] = (value != 0)? (byte) (b | 0x80): b;
+            if (++head == ring.length)
+            {
+                head = 0;
+                laps++;
+            }
+            if (value == 0)
+                return;
+        }
+    }
+    
+    /**
+     * Returns the number of bytes put since the buffer was created.
+     */
+    private long written()
+    {
+        return laps * ring.length + head;
+    }
+    
+    /**
+     * Reads a varint back from the ring, for stepBack.
+     */
+    protected int read()
+    {
+        int value = 0;
+        for (int shift = 0; ; shift += 7)
+        {
+            byte b = ring[readAt];
+            if (++readAt == ring.length)
+                readAt = 0;
+            unread--;
+            value |= (b & 0x7F) << shift;
+            if (b >= 0)
+                return value;
+        }
+    }
+    
+    ////////////////////////////////////////////////////
+    // Accessors
+    ////////////////////////////////////////////////////
+    
+    /**
+     * Returns the number of steps that can be undone.
+     */
+    public int getCount()
+    {
+        return count;
+    }
+    
+    /**
+     * Returns the most bytes of steps kept.
+     */
+    public int getBudget()
+    {
+        return ring.length;
+    }
+}
@@ -0,0 +1,440 @@
+/**
+ * An update rule for an outer-totalistic cellular automaton, compiled into a lookup table. The
+ * next state of a cell is table[9*state + count], where count is its number of live (state 1)
+ * neighbors, so applying the rule takes a single array lookup.
+ *
+ * Rules are written in the usual B/S notation. "B3/S23" means that a dead cell with 3 live
+ * neighbors is born and a live cell with 2 or 3 live neighbors survives (Conway's Game of Life).
+ * A third part gives the number of states of a Generations rule, such as "B2/S/3" for Brian's
+ * Brain: a live cell that does not survive starts dying instead, passing through states 2, 3, ...
+ * before finally turning off. Dying cells do not count as neighbors, and nothing can be born on
+ * them. The older S/B form without letters ("23/3" or "/2/3") is also accepted.
+ *
+ * Larger than Life rules count the live cells in a larger square around each cell instead, of
+ * radius r, and give the counts that cause births and survival as ranges. They are written as in
+ * Golly, such as "R5,C0,M1,S34..58,B34..45,NM" for Bosco's Rule: radius 5, 2 states (C0 or C2;
+ * more states make a Generations rule), the cell itself counted (M1), survival with 34 to 58 live
+ * cells and birth with 34 to 45, in the Moore neighborhood (NM, the only one supported). A radius
+ * of 1 is turned into an ordinary B/S rule.
+ *
+ * The table of a Larger than Life rule only covers dead and live cells, and is indexed by
+ * size*state + count instead, where size is one more than the number of cells in the square and
+ * count is the number of live cells in the square, including the cell itself whether or not the
+ * rule counts it. Dying cells simply age.
+ */
+public class Rule
+{
+    /*
+     * Contents:
+     * Definitions-----------------------------
+     * Methods---------------------------------
+     * Rule
+     * largerThanLife
+     * parse
+     * parseLargerThanLife
+     * parseCounts
+     * parseRange
+     * toString
+     * equals
+     * hashCode
+     * Accessors-------------------------------
+     */
+    
+    ////////////////////////////////////////////////////
+    // Definitions
+    ////////////////////////////////////////////////////
+    
+    public static final int MAX_STATES = 256; // most states a Generations rule may have
+    public static final int MAX_RADIUS = 127; // largest radius, so that counts fit in 16 bits
+    
+    private final int birth; // bit n set if a dead cell with n live neighbors is born
+    private final int survive; // bit n set if a live cell with n live neighbors survives
+    private final int states; // number of cell states (2 for ordinary Life-like rules)
+    private final int[] table; // next state, indexed by 9*state + count (see above for a radius)
+    
+    // Larger than Life rules (radius more than 1) only:
+    private final int radius; // distance out to which cells count as neighbors (1 for B/S rules)
+    private final boolean middle; // whether a cell counts itself as a neighbor (M1)
+    private final int birthLow, birthHigh; // range of counts that cause a birth
+    private final int surviveLow, surviveHigh; // range of counts that cause survival
+    
+    ////////////////////////////////////////////////////
+    // Methods
+    ////////////////////////////////////////////////////
+    
+    /**
+     * Compiles the rule with the given birth and survival masks (bit n is set for each neighbor
+     * count n that causes a birth or survival) and number of states.
+     */
+    public Rule(int birth, int survive, int states)
+    {
+        if ((birth | survive) >>> 9 != 0)
+            throw new IllegalArgumentException("Neighbor counts only go up to 8.");
+        if (states < 2 || states > MAX_STATES)
+            throw new IllegalArgumentException("A rule must have from 2 to " + MAX_STATES +
+                " states.");
+        
+        this.birth = birth;
+        this.survive = survive;
+        this.states = states;
+        radius = 1;
+        middle = false;
+        birthLow = birthHigh = surviveLow = surviveHigh = 0;
+        table = new int[9 * states];
+        for (int count = 0; count <= 8; count++)
+        {
+            table[count] = (birth >>> count) & 1;
+            if ((survive >>> count & 1) != 0)
+                table[9 + count] = 1;
+            else
+                table[9 + count] = (states > 2)? 2: 0;
+            for (int state = 2; state < states; state++)
+                table[9*state + count] = (state + 1) % states; // dying cells age regardless
+        }
+    }
+    
+    /**
+     * Creates a Larger than Life rule, which was checked by largerThanLife.
+     */
+    private Rule(int radius, boolean middle, int birthLow, int birthHigh, int surviveLow,
+        int surviveHigh, int states)
+    {
+        birth = survive = 0;
+        this.states = states;
+        this.radius = radius;
+        this.middle = middle;
+        this.birthLow = birthLow;
+        this.birthHigh = birthHigh;
+        this.surviveLow = surviveLow;
+        this.surviveHigh = surviveHigh;
+        
+        int size = (2 * radius + 1) * (2 * radius + 1) + 1;
+        int self = (middle)? 0: 1; // taken off the count of a live cell
+        table = new int[2 * size];
+        for (int count = 0; count < size; count++)
+        {
+            table[count] = (count >= birthLow && count <= birthHigh)? 1: 0;
+            if (count - self >= surviveLow && count - self <= surviveHigh)
+                table[size + count] = 1;
+            else
+                table[size + count] = (states > 2)? 2: 0;
+        }
+    }
+    
+    /**
+     * Returns the Larger than Life rule with the given radius, whether a cell counts itself, the
+     * ranges (inclusive) of counts that cause a birth and survival, and number of states. A
+     * radius of 1 gives the same rule in B/S notation.
+     */
+    public static Rule largerThanLife(int radius, boolean middle, int birthLow, int birthHigh,
+        int surviveLow, int surviveHigh, int states)
+    {
+        if (radius < 1 || radius > MAX_RADIUS)
+            throw new IllegalArgumentException("The radius must be from 1 to " + MAX_RADIUS +
+                ".");
+        if (states < 2 || states > MAX_STATES)
+            throw new IllegalArgumentException("A rule must have from 2 to " + MAX_STATES +
+                " states.");
+        int most = (2 * radius + 1) * (2 * radius + 1); // cells in the neighborhood
+        if (birthLow < 0 || birthLow > birthHigh || birthHigh > most ||
+            surviveLow < 0 || surviveLow > surviveHigh || surviveHigh > most)
+            throw new IllegalArgumentException("Each range of counts must run upward from 0 " +
+                "to at most " + most + ".");
+        
+        if (radius > 1)
+            return new Rule(radius, middle, birthLow, birthHigh, surviveLow, surviveHigh, states);
+        
+        // A live cell that counts itself has one more than its count of live neighbors.
+        int shift = (middle)? 1: 0;
+        int birth = 0, survive = 0;
+        for (int count = 0; count <= 8; count++)
+        {
+            if (count >= birthLow && count <= birthHigh)
+                birth |= 1 << count;
+            if (count + shift >= surviveLow && count + shift <= surviveHigh)
+                survive |= 1 << count;
+        }
+        return new Rule(birth, survive, states);
+    }
+    
+    /**
+     * Compiles a rule written in B/S notation, such as "B3/S23" or "B2/S/3", or a Larger than
+     * Life rule such as "R5,C0,M1,S34..58,B34..45,NM". Throws an IllegalArgumentException
+     * describing the problem if the notation is malformed.
+     */
+    public static Rule parse(String notation)
+    {
+        if (notation.trim().toUpperCase().startsWith("R"))
+            return parseLargerThanLife(notation);
+        
+        String[] parts = notation.trim().split("/", -1);
+        if (parts.length < 2 || parts.length > 3)
+            throw new IllegalArgumentException("A rule looks like B3/S23, or B2/S/3 for a rule " +
+                "with more states.");
+        
+        int birth = -1, survive = -1, states = 2;
+        boolean letters = false;
+        for (int k = 0; k < parts.length; k++)
+        {
+            String part = parts[k].trim().toUpperCase();
+            char c = (part.isEmpty())? ' ': part.charAt(0);
+            if (c == 'B' && birth < 0)
+            {
+                birth = parseCounts(part.substring(1));
+                letters = true;
+            }
+            else if (c == 'S' && survive < 0)
+            {
+                survive = parseCounts(part.substring(1));
+                letters = true;
+            }
+            else if (k == 2)
+            {
+                // The number of states, written either bare or after a C.
+                String number = (c == 'C')? part.substring(1): part;
+                try
+                {
+                    states = Integer.parseInt(number);
+                }
+                catch (NumberFormatException e)
+                {
+                    throw new IllegalArgumentException("\"" + parts[k].trim() + "\" is not a " +
+                        "number of states.");
+                }
+            }
+            else if (!letters && k == 0)
+                survive = parseCounts(part); // S/B form
+            else if (!letters && k == 1)
+                birth = parseCounts(part);
+            else
+                throw new IllegalArgumentException("Unexpected \"" + parts[k].trim() + "\" in " +
+                    "rule " + notation.trim() + ".");
+        }
+        if (birth < 0 || survive < 0)
+            throw new IllegalArgumentException("A rule needs both a B part and an S part.");
+        
+        return new Rule(birth, survive, states);
+    }
+    
+    /**
+     * Compiles a Larger than Life rule, whose parts are separated by commas and may come in any
+     * order. The radius and both ranges are required.
+     */
+    private static Rule parseLargerThanLife(String notation)
+    {
+        int radius = -1, states = 2, middle = 0;
+        int[] birth = null, survive = null;
+        for (String part : notation.trim().toUpperCase().split(",", -1))
+        {
+            part = part.trim();
+            char c = (part.isEmpty())? ' ': part.charAt(0);
+            String value = part.substring(Math.min(1, part.length()));
+            try
+            {
+                if (c == 'R' && radius < 0)
+                    radius = Integer.parseInt(value);
+                else if (c == 'C')
+                    states = Math.max(2, Integer.parseInt(value)); // C0 and C1 mean 2 states
+                else if (c == 'M' && (value.equals("0") || value.equals("1")))
+                    middle = Integer.parseInt(value);
+                else if (c == 'S' && survive == null)
+                    survive = parseRange(value);
+                else if (c == 'B' && birth == null)
+                    birth = parseRange(value);
+                else if (c == 'N' && value.equals("M"))
+                    continue; // the Moore neighborhood, which is the only one
+                else if (c == 'N')
+                    throw new IllegalArgumentException("Only the Moore neighborhood (NM) is " +
+                        "supported.");
+                else
+                    throw new IllegalArgumentException("Unexpected \"" + part + "\" in rule " +
+                        notation.trim() + ".");
+            }
+            catch (NumberFormatException e)
+            {
+                throw new IllegalArgumentException("\"" + part + "\" does not hold a number.");
+            }
+        }
+        if (radius < 0 || birth == null || survive == null)
+            throw new IllegalArgumentException("A Larger than Life rule looks like " +
+                "R5,C0,M1,S34..58,B34..45,NM, and needs at least the R, S and B parts.");
+        
+        return largerThanLife(radius, middle == 1, birth[0], birth[1], survive[0], survive[1],
+            states);
+    }
+    
+    /**
+     * Turns a range of counts such as "34..58", or a single count, into its lowest and highest
+     * counts.
+     */
+    private static int[] parseRange(String range)
+    {
+        int dots = range.indexOf("..");
+        if (dots < 0)
+            return new int[] {Integer.parseInt(range), Integer.parseInt(range)};
+        return new int[] {Integer.parseInt(range.substring(0, dots)),
+            Integer.parseInt(range.substring(dots + 2))};
+    }
+    
+    /**
+     * Turns a string of neighbor counts such as "23" into a bit mask.
+     */
+    private static int parseCounts(String counts)
+    {
+        int mask = 0;
+        for (int k = 0; k < counts.length(); k++)
+        {
+            char c = counts.charAt(k);
+            if (c < '0' || c > '8')
+                throw new IllegalArgumentException("Neighbor counts must be digits from 0 to 8, " +
+                    "not '" + c + "'.");
+            mask |= 1 << (c - '0');
+        }
+        return mask;
+    }
+    
+    /**
+     * Returns the rule in standard B/S notation, or in Golly's notation for a Larger than Life
+     * rule.
+     */
+    public String toString()
+    {
+        if (radius > 1)
+        {
+            return "R" + radius + ",C" + ((states > 2)? states: 0) + ",M" + ((middle)? 1: 0) +
+                ",S" + surviveLow + ".." + surviveHigh + ",B" + birthLow + ".." + birthHigh +
+                ",NM";
+        }
+        
+        StringBuilder s = new StringBuilder("B");
+        for (int n = 0; n <= 8; n++)
+        {
+            if ((birth >>> n & 1) != 0)
+                s.append(n);
+        }
+        s.append("/S");
+        for (int n = 0; n <= 8; n++)
+        {
+            if ((survive >>> n & 1) != 0)
+                s.append(n);
+        }
+        if (states > 2)
+            s.append("/").append(states);
+        return s.toString();
+    }
+    
+    /**
+     * Two rules are equal if they take every cell to the same next state.
+     */
+    public boolean equals(Object other)
+    {
+        if (!(other instanceof Rule))
+            return false;
+        Rule rule = (Rule) other;
+        return birth == rule.birth && survive == rule.survive && states == rule.states &&
+            radius == rule.radius && middle == rule.middle && birthLow == rule.birthLow &&
+            birthHigh == rule.birthHigh && surviveLow == rule.surviveLow &&
+            surviveHigh == rule.surviveHigh;
+    }
+    
+    public int hashCode()
+    {
+        int hash = (birth * 31 + survive) * 31 + states;
+        hash = (hash * 31 + radius) * 31 + ((middle)? 1: 0);
+        hash = ((hash * 31 + birthLow) * 31 + birthHigh) * 31 + surviveLow;
+        return hash * 31 + surviveHigh;
+    }
+    
+    ////////////////////////////////////////////////////
+    // Accessors
+    ////////////////////////////////////////////////////
+    
+    /**
+     * Returns the birth mask: bit n is set if a dead cell with n live neighbors is born. It is 0
+     * for a Larger than Life rule.
+     */
+    public int getBirth()
+    {
+        return birth;
+    }
+    
+    /**
+     * Returns the survival mask: bit n is set if a live cell with n live neighbors survives. It is
+     * 0 for a Larger than Life rule.
+     */
+    public int getSurvive()
+    {
+        return survive;
+    }
+    
+    public int getStates()
+    {
+        return states;
+    }
+    
+    /**
+     * Returns the distance out to which cells count as neighbors: 1 unless this is a Larger than
+     * Life rule.
+     */
+    public int getRadius()
+    {
+        return radius;
+    }
+    
+    /**
+     * Returns whether a cell counts itself among its live neighbors (only ever for a Larger than
+     * Life rule).
+     */
+    public boolean isMiddleCounted()
+    {
+        return middle;
+    }
+    
+    public int getBirthLow()
+    {
+        return birthLow;
+    }
+    
+    public int getBirthHigh()
+    {
+        return birthHigh;
+    }
+    
+    public int getSurviveLow()
+    {
+        return surviveLow;
+    }
+    
+    public int getSurviveHigh()
+    {
+        return surviveHigh;
+    }
+    
+    /**
+     * Returns the next state of a cell, given its current state and number of live neighbors
+     * (not counting itself, even for an M1 rule).
+     */
+    public int next(int state, int count)
+    {
+        if (radius == 1)
+            return table[9*state + count];
+        if (state == 0)
+            return (count >= birthLow && count <= birthHigh)? 1: 0;
+        if (state > 1)
+            return (state + 1) % states;
+        if (middle)
+            count++;
+        if (count >= surviveLow && count <= surviveHigh)
+            return 1;
+        return (states > 2)? 2: 0;
+    }
+    
+    /**
+     * Returns the lookup table itself, indexed by 9*state + count (or as described above for a
+     * Larger than Life rule), for use in tight loops. It must not be modified.
+     */
+    public int[] getTable()
+    {
+        return table;
+    }
+}
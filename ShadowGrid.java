@@ -0,0 +1,330 @@
+/**
+ * A copy of a simulation's grid as it was when last recorded, for recorders that store each
+ * generation as its differences from the one before (see History and Rewind). Finding the
+ * differences only costs work in the tiles that have changed since the copy was taken (see
+ * TileMap.tick), and they are compared against the copy a long at a time for two-state rules.
+ *
+ * The differences are encoded as a series of numbers, which subclasses store however they like.
+ * Each changed tile is given as its index + 1, followed by the positions of its changed cells
+ * within the tile, as gaps from the previous one (starting from -1), and then a 0. For rules with
+ * more than two states, each position is followed by the old state XOR the new one; for two-state
+ * rules every change is a flip. Another 0 ends the list of tiles. Because the changes are XORs,
+ * the same list takes a grid from either generation to the other.
+ *
+ * Only bounded grids can be copied.
+ */
+public abstract class ShadowGrid
+{
+    /*
+     * Contents:
+     * Definitions-----------------------------
+     * Methods---------------------------------
+     * matches
+     * reset
+     * copyGrid
+     * markSeen
+     * encodeChanges
+     * encodeShadow
+     * encodeTile
+     * revertChanges
+     * apply
+     * skip
+     * put
+     * read
+     */
+    
+    ////////////////////////////////////////////////////
+    // Definitions
+    ////////////////////////////////////////////////////
+    
+    protected int width, height, states; // dimensions and number of states of the grid
+    protected long[][] packedShadow; // cells, as returned by Simulation.getWord, for two states
+    protected int[][] intShadow; // cells, for rules with more states
+    private int tileWidth, tileHeight, columns, tileCount; // how the grid is divided into tiles
+    private int[] row; // reused to read a tile's row of the grid, for rules with more states
+    private int previous; // position of the last change encoded in the current tile
+    private TileMap seenTiles; // tile map of the grid when the copy was last brought up to date
+    private long seen; // value of its clock at that time
+    
+    ////////////////////////////////////////////////////
+    // Methods
+    ////////////////////////////////////////////////////
+    
+    /**
+     * Returns whether the copy has the same dimensions, number of states and tiles as the
+     * simulation, so that it can be brought up to date by encodeChanges.
+     */
+    protected boolean matches(Simulation simulation)
+    {
+        return (seenTiles != null && !simulation.isUnbounded() &&
+            simulation.getWidth() == width && simulation.getHeight() == height &&
+            simulation.getRule().getStates() == states &&
+            simulation.getTiles().getTileWidth() == tileWidth &&
+            simulation.getTiles().getTileHeight() == tileHeight);
+    }
+    
+    /**
+     * Sets the copy to the simulation's grid, at its dimensions and number of states.
+     */
+    protected void reset(Simulation simulation)
+    {
+        if (simulation.getWidth() != width || simulation.getHeight() != height ||
+            simulation.getRule().getStates() != states)
+        {
+            width = simulation.getWidth();
+            height = simulation.getHeight();
+            states = simulation.getRule().getStates();
+            packedShadow = (states == 2)? new long[height][(width + 63) / 64]: null;
+            intShadow = (states == 2)? null: new int[height][width];
+        }
+        TileMap tiles = simulation.getTiles();
+        tileWidth = tiles.getTileWidth();
+        tileHeight = tiles.getTileHeight();
+        columns = tiles.getColumns();
+        tileCount = columns * tiles.getRows();
+        row = (states == 2)? null: new int[tileWidth];
+        copyGrid(simulation);
+    }
+    
+    /**
+     * Copies the simulation's whole grid into the copy.
+     */
+    protected void copyGrid(Simulation simulation)
+    {
+        for (int i = 0; i < height; i++)
+        {
+            if (packedShadow != null)
+            {
+                for (int k = 0; k < packedShadow[i].length; k++)
+                    packedShadow[i][k] = simulation.getWord(i, k);
+            }
+            else
+                simulation.getRow(i, 0, width, intShadow[i], 0);
+        }
+        markSeen(simulation);
+    }
+    
+    /**
+     * Takes the simulation's grid as the one the copy was last brought up to date with, such as
+     * after the copy was written into it.
+     */
+    protected void markSeen(Simulation simulation)
+    {
+        seenTiles = simulation.getTiles();
+        seen = seenTiles.tick();
+    }
+    
+    /**
+     * Brings the copy up to date with the simulation, which it must match. If emit is set, the
+     * differences are put as a list of tiles, ended by a 0.
+     */
+    protected void encodeChanges(Simulation simulation, boolean emit)
+    {
+        TileMap tiles = simulation.getTiles();
+        if (tiles.getTileWidth() != tileWidth || tiles.getTileHeight() != tileHeight)
+            throw new IllegalStateException("The grid no longer matches the copy.");
+        
+        // A new tile map means the grid was reallocated, so every tile is checked.
+        for (int t = 0; t < tileCount; t++)
+        {
+            if (tiles != seenTiles || tiles.isChangedSince(t, seen))
+                encodeTile(simulation, t, emit);
+        }
+        if (emit)
+            put(0);
+        markSeen(simulation);
+    }
+    
+    /**
+     * Puts the whole copy as differences from an empty grid, as a list of tiles ended by a 0.
+     */
+    protected void encodeShadow()
+    {
+        for (int t = 0; t < tileCount; t++)
+            encodeTile(null, t, true);
+        put(0);
+    }
+    
+    /**
+     * Compares tile t of the simulation with the copy, and brings the copy up to date. If emit is
+     * set, the differences are also put, unless there are none. If simulation is null, the whole
+     * tile of the copy is put as differences from an empty grid instead.
+     */
+    private void encodeTile(Simulation simulation, int t, boolean emit)
+    {
+        int top = (t / columns) * tileHeight;
+        int left = (t % columns) * tileWidth;
+        int bottom = Math.min(height, top + tileHeight);
+        int right = Math.min(width, left + tileWidth);
+        boolean started = false; // whether the tile's index has been put
+        previous = -1;
+        for (int i = top; i < bottom; i++)
+        {
+            if (packedShadow != null)
+            {
+                // Packed tiles are a whole number of longs wide.
+                long[] shadow = packedShadow[i];
+                for (int k = left >>> 6; k < (right + 63) >>> 6; k++)
+                {
+                    long word = (simulation != null)? simulation.getWord(i, k): 0;
+                    long changes = word ^ shadow[k];
+                    if (changes == 0)
+                        continue;
+                    if (simulation != null)
+                        shadow[k] = word;
+                    if (!emit)
+                        continue;
+                    if (!started)
+                    {
+                        put(t + 1);
+                        started = true;
+                    }
+                    int base = (i - top) * tileWidth + 64 * k - left;
+                    for (; changes != 0; changes &= changes - 1)
+                    {
+                        int position = base + Long.numberOfTrailingZeros(changes);
+                        put(position - previous);
+                        previous = position;
+                    }
+                }
+            }
+            else
+            {
+                int[] shadow = intShadow[i];
+                if (simulation != null)
+                    simulation.getRow(i, left, right, row, 0);
+                for (int j = left; j < right; j++)
+                {
+                    int state = (simulation != null)? row[j - left]: 0;
+                    int change = state ^ shadow[j];
+                    if (change == 0)
+                        continue;
+                    if (simulation != null)
+                        shadow[j] = state;
+                    if (!emit)
+                        continue;
+                    if (!started)
+                    {
+                        put(t + 1);
+                        started = true;
+                    }
+                    int position = (i - top) * tileWidth + j - left;
+                    put(position - previous);
+                    put(change);
+                    previous = position;
+                }
+            }
+        }
+        if (started)
+            put(0);
+    }
+    
+    /**
+     * Sets the cells of the simulation's grid that have changed since the copy was last brought
+     * up to date back to their states in the copy, which the simulation must match.
+     */
+    protected void revertChanges(Simulation simulation)
+    {
+        TileMap tiles = simulation.getTiles();
+        for (int t = 0; t < tileCount; t++)
+        {
+            if (tiles != seenTiles || tiles.isChangedSince(t, seen))
+            {
+                int top = (t / columns) * tileHeight;
+                int left = (t % columns) * tileWidth;
+                int bottom = Math.min(height, top + tileHeight);
+                int right = Math.min(width, left + tileWidth);
+                for (int i = top; i < bottom; i++)
+                {
+                    if (packedShadow != null)
+                    {
+                        long[] shadow = packedShadow[i];
+                        for (int k = left >>> 6; k < (right + 63) >>> 6; k++)
+                        {
+                            if (simulation.getWord(i, k) != shadow[k])
+                                simulation.setWord(i, k, shadow[k]);
+                        }
+                    }
+                    else
+                    {
+                        simulation.getRow(i, left, right, row, 0);
+                        for (int j = left; j < right; j++)
+                        {
+                            if (row[j - left] != intShadow[i][j])
+                                simulation.setCell(i, j, intShadow[i][j]);
+                        }
+                    }
+                }
+            }
+        }
+        markSeen(simulation);
+    }
+    
+    /**
+     * Reads a list of tiles and applies its differences to the copy. If simulation isn't null,
+     * the changed cells are also set to their new states in its grid, which is then taken as the
+     * one the copy was last brought up to date with.
+     */
+    protected void apply(Simulation simulation)
+    {
+        for (int t = read() - 1; t >= 0; t = read() - 1)
+        {
+            if (t >= tileCount)
+                throw new IllegalStateException("The recording is damaged.");
+            int top = (t / columns) * tileHeight;
+            int left = (t % columns) * tileWidth;
+            int position = -1;
+            for (int gap = read(); gap != 0; gap = read())
+            {
+                position += gap;
+                int i = top + position / tileWidth;
+                int j = left + position % tileWidth;
+                if (i >= height || j >= width)
+                    throw new IllegalStateException("The recording is damaged.");
+                if (packedShadow != null)
+                {
+                    long[] shadow = packedShadow[i];
+                    shadow[j >>> 6] ^= 1L << j;
+                    if (simulation != null)
+                        simulation.setWord(i, j >>> 6, shadow[j >>> 6]);
+                }
+                else
+                {
+                    int state = intShadow[i][j] ^ read();
+                    if (state >= states)
+                        throw new IllegalStateException("The recording is damaged.");
+                    intShadow[i][j] = state;
+                    if (simulation != null)
+                        simulation.setCell(i, j, state);
+                }
+            }
+        }
+        if (simulation != null)
+            markSeen(simulation);
+    }
+    
+    /**
+     * Reads a list of tiles without applying it.
+     */
+    protected void skip()
+    {
+        for (int t = read(); t != 0; t = read())
+        {
+            for (int gap = read(); gap != 0; gap = read())
+            {
+                if (packedShadow == null)
+                    read(); // the change in state
+            }
+        }
+    }
+    
+    /**
+     * Stores a non-negative number of the encoded differences.
+     */
+    protected abstract void put(int value);
+    
+    /**
+     * Reads back a number stored by put, for apply.
+     */
+    protected abstract int read();
+}
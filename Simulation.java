@@ -0,0 +1,1328 @@
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * The simulation engine behind the Cellular Automata Playground. It holds the grid of cells along
+ * with the current update and edge rules, and advances the grid through time. It has no AWT or
+ * Swing dependencies, so it can be driven either by the GUI or from the command line on a machine
+ * without a display.
+ *
+ * The update rule is a compiled Rule. Two-state rules store the grid as a PackedGrid, with 64 cells
+ * to a long, and are applied through their birth and survival masks. Generations rules with more
+ * states store the grid as a ByteGrid, with one byte per cell, which is updated eight cells at a
+ * time. So do Larger than Life rules, which count the live cells out to a larger radius with
+ * sliding sums, and use tiles at least twice as wide as the radius.
+ *
+ * Either way, the grid is surrounded by a border of ghost cells that is filled in according to the
+ * edge rule at the start of each generation, so the update itself treats every cell alike.
+ *
+ * The grid is divided into tiles, and a TileMap keeps track of which tiles changed in the last
+ * generation. Only those tiles and their neighbors are recomputed, so still lifes and empty space
+ * cost nothing. Every generation is computed into a second buffer: each tile reads only the
+ * previous generation and writes only its own cells of the next one. Tiles that are skipped are
+ * already identical in both buffers, since they did not change last time either.
+ *
+ * The same tiles let the grid be hashed cheaply: the Zobrist hash of each tile is kept until the
+ * tile changes, so only the changed tiles are hashed again, and while cycle detection is on, the
+ * kernels hash the tiles they compute as they write them. A CycleDetector can use the hash of
+ * each generation to tell when the grid has settled into a still life or an oscillator.
+ *
+ * When there are enough active tiles, they are split among the threads of a ForkJoinPool. Since
+ * the tiles are independent, the result is identical to a single-threaded update.
+ *
+ * If a StatsListener is set, the kernel also counts the births, deaths and live and dying cells
+ * of each tile it computes, and keeps the counts until the tile is computed again. The counts of
+ * a generation are then added up from the tiles, and only the outermost tiles with live cells are
+ * looked at again, to find the exact bounding box.
+ *
+ * Two-state rules can also run on an unbounded plane, either with the UNBOUNDED edge rule, which
+ * stores the plane as a ChunkGrid of 64 x 64 chunks that only exist where there are live cells, or
+ * with the Hashlife engine, which can jump very far ahead on regular patterns. Either way, the grid
+ * becomes a window onto the plane. Rules with more states, with B0 or with a larger radius treat
+ * UNBOUNDED as empty edges instead.
+ */
+public class Simulation
+{
+    /*
+     * Contents:
+     * Definitions-----------------------------
+     * Methods---------------------------------
+     * Simulation
+     * resize
+     * allocate
+     * clear
+     * randomize
+     * randomBands
+     * randomRow
+     * randomWord
+     * randomGap
+     * step
+     * update
+     * advance
+     * countTile
+     * hashingTiles
+     * updateTiles
+     * tilesPerTask
+     * publishStats
+     * firstLive
+     * lastLive
+     * Accessors-------------------------------
+     * Inner Classes---------------------------
+     * GenerationTask
+     * TileTask
+     * SeedTask
+     */
+    
+    ////////////////////////////////////////////////////
+    // Definitions
+    ////////////////////////////////////////////////////
+    
+    private int gridWidth; // width of game grid
+    private int gridHeight; // height of game grid
+    private ByteGrid bytes; // the cells of the game, for other rules
+    private PackedGrid packed; // the cells of the game, for two-state rules of radius 1
+    private ChunkGrid chunks; // the cells of the game, for two-state rules on an unbounded plane
+    private HashLife hashLife; // the cells of the game, for two-state rules run with Hashlife
+    private boolean useHashLife = false; // whether to use Hashlife for two-state rules
+    private int nodeBudget = 1 << 22; // most nodes the Hashlife engine may keep
+    private Rule rule = UpdateRule.CONWAY.getRule(); // currently selected update rule
+    private EdgeRule edgeRule = EdgeRule.TOROIDAL; // currently selected edge rule
+    private long generation = 0; // number of steps taken since the grid was last reset
+    private TileMap tiles; // which parts of the grid are changing
+    private ForkJoinPool pool = ForkJoinPool.commonPool(); // threads for parallel updates, if any
+    private TileTask[] tasks; // reused for every parallel update, so that none allocate
+    private final GenerationTask generationTask = new GenerationTask();
+    private final int[] tileCount = new int[1]; // reused to count the cells of a tile
+    private Metrics metrics; // records how long each step takes, if set
+    private CycleDetector cycles; // watches for generations that repeat, if set
+    private History history; // records every generation, if set
+    private Rewind rewind; // keeps the last few steps so that they can be undone, if set
+    private EditQueue edits; // cells painted by other threads, applied before each step, if set
+    private StatsListener statsListener; // given the counts of every generation, if set
+    private final GenerationStats stats = new GenerationStats(); // reused for every generation
+    private int[] tileCounts; // births, deaths, live and dying cells of each tile, if counted
+    private TileMap countedTiles; // tile map that tileCounts is up to date with, if any
+    private long countedAt; // clock of countedTiles when tileCounts was last brought up to date
+    private long[] tileHashes; // Zobrist hash of each tile computed, if hashed along the way
+    
+    // Tile dimensions, in cells, for each way of storing the grid:
+    private static final int BYTE_TILE_SIZE = 32; // at most ByteGrid.MAX_COUNTED_GROUP
+    private static final int LARGER_TILE_SIZE = 64; // at least, for Larger than Life rules
+    private static final int PACKED_TILE_WIDTH = 256; // four longs
+    private static final int PACKED_TILE_HEIGHT = 32;
+    
+    // Random seeding (see randomize):
+    private static final int SEED_BAND = 64; // rows drawn from each generator
+    private static final double SKIP_DENSITY = 1.0 / 64; // densities below this draw gaps
+    private static final int SEED_BITS = 16; // bits of precision in the density of each long
+    
+    // Approximate amount of work (longs of grid) handed to one thread of a parallel update:
+    private static final int TASK_WORK = 1 << 14;
+    
+    ////////////////////////////////////////////////////
+    // Methods
+    ////////////////////////////////////////////////////
+    
+    /**
+     * Creates an empty grid of the given dimensions.
+     */
+    public Simulation(int width, int height)
+    {
+        resize(width, height);
+    }
+    
+    /**
+     * Changes the dimensions of the grid. This also clears the grid.
+     */
+    public void resize(int width, int height)
+    {
+        if (width < 1 || height < 1)
+            throw new IllegalArgumentException("Grid dimensions must be positive.");
+        
+        gridWidth = width;
+        gridHeight = height;
+        bytes = null;
+        packed = null;
+        chunks = null;
+        hashLife = null;
+        allocate();
+        generation = 0;
+    }
+    
+    /**
+     * Makes sure the grid is stored in the form required by the current update rule and engine,
+     * converting the existing cells if necessary. States that the new rule does not have (such as
+     * dying cells, when switching to a two-state rule) are dropped, and anything outside of the
+     * grid is dropped when switching away from an unbounded plane. An unbounded plane cannot run
+     * rules with B0 or Larger than Life rules, so they always use a bounded grid.
+     */
+    private void allocate()
+    {
+        boolean twoState = (rule.getStates() == 2 && rule.getRadius() == 1); // packed, that is
+        boolean unbounded = twoState && (rule.getBirth() & 1) == 0 &&
+            (useHashLife || edgeRule == EdgeRule.UNBOUNDED);
+        boolean empty = (bytes == null && packed == null && chunks == null && hashLife == null);
+        
+        // The rules or the grid are changing, so earlier generations no longer lead to later ones.
+        if (cycles != null)
+            cycles.reset();
+        
+        if (unbounded && useHashLife)
+        {
+            if (hashLife == null)
+            {
+                HashLife life = new HashLife(nodeBudget);
+                life.setRule(rule.getBirth(), rule.getSurvive());
+                if (!empty)
+                    life.load(gridHeight, gridWidth, this::getCell);
+                bytes = null;
+                packed = null;
+                chunks = null;
+                hashLife = life;
+            }
+            else
+                hashLife.setRule(rule.getBirth(), rule.getSurvive());
+        }
+        else if (unbounded)
+        {
+            if (chunks == null)
+            {
+                ChunkGrid plane = new ChunkGrid();
+                plane.setRule(rule.getBirth(), rule.getSurvive());
+                if (!empty)
+                {
+                    for (int i = 0; i < gridHeight; i++)
+                    {
+                        for (int j = 0; j < gridWidth; j++)
+                            plane.set(i, j, getCell(i, j));
+                    }
+                }
+                bytes = null;
+                packed = null;
+                hashLife = null;
+                chunks = plane;
+            }
+            else
+                chunks.setRule(rule.getBirth(), rule.getSurvive());
+        }
+        else if (twoState && packed == null)
+        {
+            PackedGrid cells = new PackedGrid(gridWidth, gridHeight);
+            if (!empty)
+            {
+                for (int i = 0; i < gridHeight; i++)
+                {
+                    for (int j = 0; j < gridWidth; j++)
+                        cells.set(i, j, getCell(i, j));
+                }
+            }
+            bytes = null;
+            chunks = null;
+            hashLife = null;
+            packed = cells;
+        }
+        else if (!twoState && bytes == null)
+        {
+            ByteGrid cells = new ByteGrid(gridWidth, gridHeight);
+            if (!empty)
+            {
+                for (int i = 0; i < gridHeight; i++)
+                {
+                    for (int j = 0; j < gridWidth; j++)
+                        cells.set(i, j, getCell(i, j));
+                }
+            }
+            packed = null;
+            chunks = null;
+            hashLife = null;
+            bytes = cells;
+        }
+        else if (!twoState)
+        {
+            for (int i = 0; i < gridHeight; i++)
+            {
+                for (int j = 0; j < gridWidth; j++)
+                {
+                    if (bytes.get(i, j) >= rule.getStates())
+                        bytes.set(i, j, 0);
+                }
+            }
+        }
+        
+        // A fresh map starts with every tile marked, since the rules or the cells have changed.
+        if (packed != null)
+            tiles = new TileMap(gridWidth, gridHeight, PACKED_TILE_WIDTH, PACKED_TILE_HEIGHT);
+        else if (rule.getRadius() > 1)
+        {
+            /*
+             * Each run of tiles sums the cells out to the radius around it, so tiles at least
+             * twice the radius across keep that to a small part of the work. They are a whole
+             * number of longs wide, as recorders of two-state grids expect.
+             */
+            int size = Math.max(LARGER_TILE_SIZE, (2 * rule.getRadius() + 63) & ~63);
+            tiles = new TileMap(gridWidth, gridHeight, size, size);
+        }
+        else
+            tiles = new TileMap(gridWidth, gridHeight, BYTE_TILE_SIZE, BYTE_TILE_SIZE);
+    }
+    
+    /**
+     * Clears the entire grid (sets cells to 0).
+     */
+    public void clear()
+    {
+        if (hashLife != null)
+            hashLife.clear();
+        else if (chunks != null)
+            chunks.clear();
+        else if (packed != null)
+            packed.clear();
+        else
+            bytes.clear();
+        
+        tiles.markAll();
+        generation = 0;
+        if (cycles != null)
+            cycles.reset();
+    }
+    
+    /**
+     * Randomizes state of every cell, turning each one "on" with the given probability.
+     */
+    public void randomize(double density)
+    {
+        randomize(density, new SplittableRandom().nextLong());
+    }
+    
+    /**
+     * Randomizes the grid in the same way, but reproducibly: the same seed always gives the same
+     * grid for the same dimensions and density, however many threads fill it in.
+     *
+     * The rows are filled in bands of SEED_BAND, each with its own generator split off from the
+     * seeded one in turn, so that the bands can be filled in parallel. Each long of 64 cells is
+     * made from a few random longs rather than 64 random numbers (see randomWord), and at low
+     * densities the live cells are placed directly by drawing the gaps between them (see
+     * randomRow).
+     */
+    public void randomize(double density, long seed)
+    {
+        if (density < 0 || density > 1)
+            throw new IllegalArgumentException("Density must be between 0 and 1.");
+        
+        SplittableRandom random = new SplittableRandom(seed);
+        SplittableRandom[] bands = new SplittableRandom[(gridHeight + SEED_BAND - 1) / SEED_BAND];
+        for (int b = 0; b < bands.length; b++)
+            bands[b] = random.split();
+        
+        // An unbounded plane is filled from a copy of the rows afterwards.
+        long[][] rows = (packed == null && bytes == null)? new long[gridHeight][]: null;
+        if (pool != null && bands.length > 1)
+            pool.invoke(new SeedTask(0, bands.length, density, bands, rows));
+        else
+            randomBands(0, bands.length, density, bands, rows);
+        
+        if (hashLife != null)
+        {
+            // Building the quadtree in one pass is much cheaper than setting cells one by one.
+            hashLife.load(gridHeight, gridWidth, (i, j) -> (int) (rows[i][j >>> 6] >>> j) & 1);
+        }
+        else if (chunks != null)
+        {
+            chunks.clear(); // so that nothing is left outside of the grid
+            for (int i = 0; i < gridHeight; i++)
+            {
+                for (int k = 0; k < rows[i].length; k++)
+                {
+                    for (long word = rows[i][k]; word != 0; word &= word - 1)
+                        chunks.set(i, 64 * k + Long.numberOfTrailingZeros(word), 1);
+                }
+            }
+        }
+        
+        tiles.markAll();
+        generation = 0;
+        if (cycles != null)
+            cycles.reset();
+    }
+    
+    /**
+     * Fills in the rows of bands from (inclusive) to to (exclusive) for randomize, drawing each
+     * band from its own generator. The rows are written straight into a bounded grid, or into
+     * rows if it isn't null.
+     */
+    private void randomBands(int from, int to, double density, SplittableRandom[] bands,
+        long[][] rows)
+    {
+        int words = (gridWidth + 63) / 64;
+        long[] row = (rows == null)? new long[words]: null;
+        for (int b = from; b < to; b++)
+        {
+            for (int i = b * SEED_BAND; i < Math.min(gridHeight, (b + 1) * SEED_BAND); i++)
+            {
+                if (rows != null)
+                {
+                    rows[i] = new long[words];
+                    randomRow(bands[b], density, rows[i]);
+                    continue;
+                }
+                randomRow(bands[b], density, row);
+                for (int k = 0; k < words; k++)
+                {
+                    if (packed != null)
+                        packed.setWord(i, k, row[k]);
+                    else
+                        bytes.setWord(i, k, row[k]);
+                }
+            }
+        }
+    }
+    
+    /**
+     * Fills a row of longs with random cells, each live with the given probability, with column
+     * 64*k + b in bit b of row[k]. Below SKIP_DENSITY, the gaps between live cells are drawn from
+     * the geometric distribution instead, which takes one random number per live cell.
+     */
+    private void randomRow(SplittableRandom random, double density, long[] row)
+    {
+        if (density >= SKIP_DENSITY)
+        {
+            int bits = (int) Math.round(density * (1 << SEED_BITS));
+            for (int k = 0; k < row.length; k++)
+                row[k] = randomWord(random, bits);
+            if (gridWidth % 64 != 0)
+                row[row.length - 1] &= (1L << gridWidth) - 1; // nothing past the end of the row
+            return;
+        }
+        
+        Arrays.fill(row, 0L);
+        if (density == 0)
+            return;
+        double scale = 1 / Math.log1p(-density);
+        for (double j = randomGap(random, scale); j < gridWidth; j += 1 + randomGap(random, scale))
+            row[(int) j >>> 6] |= 1L << (int) j;
+    }
+    
+    /**
+     * Returns a long whose bits are each set with probability bits / 2^SEED_BITS. The bits of the
+     * probability are taken from the lowest set one up: ORing a random long into the word takes
+     * the probability p of each bit to (1 + p) / 2, and ANDing one takes it to p / 2, so a
+     * density of 0.5 takes a single random long, 0.25 or 0.75 two, and so on.
+     */
+    private static long randomWord(SplittableRandom random, int bits)
+    {
+        if (bits >= 1 << SEED_BITS)
+            return -1L;
+        long word = random.nextLong(); // for the lowest set bit, ORed into an empty word
+        for (int b = Integer.numberOfTrailingZeros(bits) + 1; b < SEED_BITS; b++)
+        {
+            if ((bits >>> b & 1) != 0)
+                word |= random.nextLong();
+            else
+                word &= random.nextLong();
+        }
+        return word;
+    }
+    
+    /**
+     * Returns the number of dead cells before the next live one, when each cell is live with
+     * probability p and scale is 1 / ln(1 - p).
+     */
+    private static double randomGap(SplittableRandom random, double scale)
+    {
+        return Math.floor(Math.log(1 - random.nextDouble()) * scale);
+    }
+    
+    /**
+     * Advances the grid by the given number of generations. With the Hashlife engine, they are
+     * all jumped over at once, so a stats listener is only given the counts of the last one.
+     */
+    public void step(long n)
+    {
+        if (hashLife != null)
+        {
+            if (edits != null)
+                edits.applyTo(this);
+            
+            // Hashlife advances by whole powers of two at a time.
+            long start = (metrics != null)? metrics.beginStep(): 0;
+            hashLife.step(n);
+            tiles.markAll();
+            generation += n;
+            if (statsListener != null)
+                publishStats();
+            if (metrics != null)
+                metrics.endStep(start, n, (long) gridWidth * gridHeight, getPopulation());
+            return;
+        }
+        
+        for (long k = 0; k < n; k++)
+            update();
+    }
+    
+    /**
+     * Advances the grid by one generation. If an edit queue is set, the cells painted since the
+     * last step are applied first. If metrics are set, the step is recorded, if cycle detection is
+     * on, the new generation is checked for repeats, if a history or rewind buffer is set, the
+     * new generation is recorded in it, and if a stats listener is set, it is given the counts of
+     * the new generation.
+     */
+    public void update()
+    {
+        if (edits != null)
+            edits.applyTo(this);
+        long start = (metrics != null)? metrics.beginStep(): 0;
+        if (rewind != null)
+            rewind.prepare(this);
+        advance();
+        if (rewind != null)
+            rewind.record(this);
+        if (history != null)
+            history.record(this);
+        if (cycles != null && cycles.getPeriod() == 0 && hashLife == null)
+            cycles.check(getHash(), generation);
+        if (statsListener != null)
+            publishStats();
+        if (metrics != null)
+            metrics.endStep(start, 1, (long) gridWidth * gridHeight, getPopulation());
+    }
+    
+    /**
+     * Goes through each active tile to conduct the proper updates.
+     */
+    private void advance()
+    {
+        if (hashLife != null || chunks != null)
+        {
+            if (hashLife != null)
+                hashLife.step(1);
+            else
+                chunks.step();
+            tiles.markAll();
+            generation++;
+            return;
+        }
+        
+        if (packed != null)
+            packed.refreshBorder(edgeRule);
+        else if (rule.getRadius() > 1)
+            bytes.mapEdges(edgeRule, rule.getRadius());
+        else
+            bytes.refreshBorder(edgeRule);
+        if (statsListener != null)
+        {
+            /*
+             * Count every tile once, after which the kernels only count the cells that change,
+             * and any tile changed since by other means is counted again.
+             */
+            if (countedTiles != tiles)
+            {
+                if (tileCounts == null ||
+                    tileCounts.length != 4 * tiles.getColumns() * tiles.getRows())
+                    tileCounts = new int[4 * tiles.getColumns() * tiles.getRows()];
+                for (int t = 0; t < tiles.getColumns() * tiles.getRows(); t++)
+                    countTile(t);
+                countedTiles = tiles;
+            }
+            else
+            {
+                for (int n = 0; n < tiles.getChangedCount(); n++)
+                {
+                    int t = tiles.getChangedTile(n);
+                    if (tiles.isChangedSince(t, countedAt))
+                        countTile(t);
+                }
+            }
+        }
+        if (hashingTiles() && (tileHashes == null ||
+            tileHashes.length != tiles.getColumns() * tiles.getRows()))
+            tileHashes = new long[tiles.getColumns() * tiles.getRows()];
+        tiles.prepare(edgeRule, rule.getRadius());
+        int count = tiles.getActiveCount();
+        if (pool != null && count > tilesPerTask())
+        {
+            /*
+             * Deal the active list out evenly among the reusable tasks. There are a few tasks per
+             * thread so that the threads can balance their load by stealing.
+             */
+            if (tasks == null)
+            {
+                tasks = new TileTask[4 * pool.getParallelism()];
+                for (int k = 0; k < tasks.length; k++)
+                    tasks[k] = new TileTask();
+            }
+            int taskCount = Math.min(tasks.length, (count + tilesPerTask() - 1) / tilesPerTask());
+            for (int k = 0; k < taskCount; k++)
+            {
+                tasks[k].reinitialize();
+                tasks[k].from = (int) ((long) count * k / taskCount);
+                tasks[k].to = (int) ((long) count * (k + 1) / taskCount);
+            }
+            generationTask.reinitialize();
+            generationTask.taskCount = taskCount;
+            pool.invoke(generationTask);
+        }
+        else
+            updateTiles(0, count);
+        
+        if (packed != null)
+            packed.swap();
+        else
+            bytes.swap();
+        tiles.finish();
+        if (statsListener != null)
+            countedAt = tiles.tick();
+        if (hashingTiles())
+        {
+            // The tiles that changed were hashed as they were computed.
+            for (int n = 0; n < tiles.getChangedCount(); n++)
+            {
+                int t = tiles.getChangedTile(n);
+                tiles.setHash(t, tileHashes[t]);
+            }
+        }
+        generation++;
+    }
+    
+    /**
+     * Counts the live and dying cells of tile t into tileCounts from scratch, and zeroes its
+     * births and deaths.
+     */
+    private void countTile(int t)
+    {
+        tileCounts[4 * t] = 0;
+        tileCounts[4 * t + 1] = 0;
+        tileCounts[4 * t + 3] = 0;
+        if (packed != null)
+        {
+            tileCounts[4 * t + 2] = getTilePopulation(t);
+            return;
+        }
+        tileCounts[4 * t + 2] = 0;
+        int top = (t / tiles.getColumns()) * tiles.getTileHeight();
+        int left = (t % tiles.getColumns()) * tiles.getTileWidth(); // a multiple of 8
+        int bottom = Math.min(gridHeight, top + tiles.getTileHeight());
+        int right = Math.min(gridWidth, left + tiles.getTileWidth());
+        for (int i = top; i < bottom; i++)
+            bytes.countStates(i, left, right, tileCounts, 4 * t + 2);
+    }
+    
+    /**
+     * Returns whether the tiles computed this generation are hashed along the way, which is the
+     * case while cycle detection is looking for a cycle, other than under Larger than Life rules.
+     */
+    private boolean hashingTiles()
+    {
+        return cycles != null && cycles.getPeriod() == 0 && rule.getRadius() == 1;
+    }
+    
+    /**
+     * Computes the next generation of active tiles from (inclusive) to to (exclusive), in the
+     * order they appear in the tile map's active list.
+     */
+    private void updateTiles(int from, int to)
+    {
+        int birth = rule.getBirth();
+        int survive = rule.getSurvive();
+        int columns = tiles.getColumns();
+        int tileWidth = tiles.getTileWidth();
+        int tileHeight = tiles.getTileHeight();
+        int[] counts = (statsListener != null)? tileCounts: null;
+        long[] hashes = (hashingTiles())? tileHashes: null;
+        
+        for (int n = from; n < to; n++)
+        {
+            int t = tiles.getActiveTile(n);
+            int top = (t / columns) * tileHeight;
+            int left = (t % columns) * tileWidth;
+            int bottom = Math.min(top + tileHeight, gridHeight);
+            
+            /*
+             * Tiles are narrow, so a run of active tiles side by side in the list is computed
+             * together, a whole row at a time, to keep memory access in order.
+             */
+            int run = 1;
+            while (run < 64 && n + run < to && tiles.getActiveTile(n + run) == t + run &&
+                (t + run) % columns != 0)
+                run++;
+            
+            int right = Math.min(left + run * tileWidth, gridWidth);
+            long changed;
+            if (packed != null)
+            {
+                changed = packed.stepTiles(top, bottom, left / 64, (right + 63) / 64,
+                    tileWidth / 64, birth, survive, counts, 4 * t, hashes, t);
+            }
+            else if (rule.getRadius() > 1)
+            {
+                changed = bytes.stepLarger(top, bottom, left, right, tileWidth, rule, counts,
+                    4 * t);
+            }
+            else
+            {
+                changed = bytes.stepTiles(top, bottom, left, right, tileWidth, birth, survive,
+                    rule.getStates(), counts, 4 * t, hashes, t);
+            }
+            for (int r = 0; r < run; r++)
+            {
+                if ((changed >>> r & 1) != 0)
+                    tiles.setChanged(t + r);
+            }
+            n += run - 1;
+        }
+    }
+    
+    /**
+     * Returns the number of active tiles worth handing to one thread of a parallel update. If
+     * there are no more active tiles than this, the update runs on the calling thread.
+     */
+    private int tilesPerTask()
+    {
+        int tileWork = (packed != null)? PACKED_TILE_HEIGHT: BYTE_TILE_SIZE * BYTE_TILE_SIZE / 8;
+        if (rule.getRadius() > 1)
+            tileWork = tiles.getTileWidth() * tiles.getTileHeight(); // a cell at a time
+        return Math.max(1, TASK_WORK / tileWork);
+    }
+    
+    /**
+     * Adds up the counts of the generation just computed and gives them to the stats listener.
+     * The births and deaths come from the tiles that changed, and the totals from every tile,
+     * whose counts are kept until it is computed again. The bounding box is narrowed down to the
+     * outermost rows and columns of tiles with live cells, and only those tiles are searched.
+     */
+    private void publishStats()
+    {
+        if (packed == null && bytes == null)
+        {
+            stats.set(generation, getPopulation(), -1, -1, 0, -1, -1, -1, -1);
+            statsListener.generationComputed(stats);
+            return;
+        }
+        
+        long births = 0, deaths = 0;
+        for (int n = 0; n < tiles.getChangedCount(); n++)
+        {
+            int t = tiles.getChangedTile(n);
+            births += tileCounts[4 * t];
+            deaths += tileCounts[4 * t + 1];
+            tiles.setPopulation(t, tileCounts[4 * t + 2]); // saves counting it again
+        }
+        
+        // Find the totals, and the first and last rows and columns of tiles with live cells.
+        int columns = tiles.getColumns();
+        int tileWidth = tiles.getTileWidth();
+        int tileHeight = tiles.getTileHeight();
+        long population = 0, dying = 0;
+        int topTile = Integer.MAX_VALUE, bottomTile = -1;
+        int leftTile = Integer.MAX_VALUE, rightTile = -1;
+        for (int t = 0; t < tileCounts.length / 4; t++)
+        {
+            dying += tileCounts[4 * t + 3];
+            int live = tileCounts[4 * t + 2];
+            if (live == 0)
+                continue;
+            population += live;
+            topTile = Math.min(topTile, t / columns);
+            bottomTile = t / columns;
+            leftTile = Math.min(leftTile, t % columns);
+            rightTile = Math.max(rightTile, t % columns);
+        }
+        
+        int top = -1, left = -1, bottom = -1, right = -1;
+        if (population > 0)
+        {
+            // Search the rows of the outermost tiles from the outside in.
+            top = topTile * tileHeight;
+            while (firstLive(top, 0, gridWidth) < 0)
+                top++;
+            bottom = Math.min(gridHeight, (bottomTile + 1) * tileHeight) - 1;
+            while (firstLive(bottom, 0, gridWidth) < 0)
+                bottom--;
+            
+            // Each row only needs searching outside of the columns found so far.
+            int leftEdge = leftTile * tileWidth; // the furthest left a live cell could be
+            int rightEdge = Math.min(gridWidth, (rightTile + 1) * tileWidth) - 1;
+            left = Math.min(gridWidth, leftEdge + tileWidth);
+            right = rightTile * tileWidth - 1;
+            for (int i = top; i <= bottom && (left > leftEdge || right < rightEdge); i++)
+            {
+                int r = i / tileHeight;
+                if (tileCounts[4 * (r * columns + leftTile) + 2] > 0)
+                {
+                    int j = firstLive(i, leftEdge, left);
+                    if (j >= 0)
+                        left = j;
+                }
+                if (tileCounts[4 * (r * columns + rightTile) + 2] > 0)
+                    right = Math.max(right, lastLive(i, right + 1, rightEdge + 1));
+            }
+        }
+        stats.set(generation, population, births, deaths, dying, top, left, bottom, right);
+        statsListener.generationComputed(stats);
+    }
+    
+    /**
+     * Returns the first column from left (inclusive) to right (exclusive) of row i that holds a
+     * live cell, or -1 if there is none.
+     */
+    private int firstLive(int i, int left, int right)
+    {
+        if (packed != null && left < right)
+        {
+            for (int k = left >>> 6; k <= (right - 1) >>> 6; k++)
+            {
+                long word = packed.getWord(i, k);
+                if (k == left >>> 6)
+                    word &= -1L << left; // shifts only use the low 6 bits of left
+                if (word != 0)
+                {
+                    int j = 64 * k + Long.numberOfTrailingZeros(word);
+                    return (j < right)? j: -1;
+                }
+            }
+            return -1;
+        }
+        for (int j = left; j < right; j++)
+        {
+            if (bytes.get(i, j) == 1)
+                return j;
+        }
+        return -1;
+    }
+    
+    /**
+     * Returns the last column from left (inclusive) to right (exclusive) of row i that holds a
+     * live cell, or -1 if there is none.
+     */
+    private int lastLive(int i, int left, int right)
+    {
+        if (packed != null && left < right)
+        {
+            for (int k = (right - 1) >>> 6; k >= left >>> 6; k--)
+            {
+                long word = packed.getWord(i, k);
+                if (k == (right - 1) >>> 6)
+                    word &= -1L >>> ~(right - 1); // keeps bits 0 to (right - 1) % 64
+                if (word != 0)
+                {
+                    int j = 64 * k + 63 - Long.numberOfLeadingZeros(word);
+                    return (j >= left)? j: -1;
+                }
+            }
+            return -1;
+        }
+        for (int j = right - 1; j >= left; j--)
+        {
+            if (bytes.get(i, j) == 1)
+                return j;
+        }
+        return -1;
+    }
+    
+    ////////////////////////////////////////////////////
+    // Accessors
+    ////////////////////////////////////////////////////
+    
+    public int getWidth()
+    {
+        return gridWidth;
+    }
+    
+    public int getHeight()
+    {
+        return gridHeight;
+    }
+    
+    public long getGeneration()
+    {
+        return generation;
+    }
+    
+    /**
+     * Sets the generation number, such as when a saved grid is restored.
+     */
+    public void setGeneration(long generation)
+    {
+        this.generation = generation;
+    }
+    
+    public Rule getRule()
+    {
+        return rule;
+    }
+    
+    /**
+     * Switches to the given rule, converting the grid if it needs a different number of states.
+     */
+    public void setRule(Rule rule)
+    {
+        this.rule = rule;
+        allocate();
+    }
+    
+    /**
+     * Switches to one of the built-in rules.
+     */
+    public void setUpdateRule(UpdateRule updateRule)
+    {
+        setRule(updateRule.getRule());
+    }
+    
+    public EdgeRule getEdgeRule()
+    {
+        return edgeRule;
+    }
+    
+    /**
+     * Switches to the given edge rule, converting the grid if it switches to or from an unbounded
+     * plane.
+     */
+    public void setEdgeRule(EdgeRule edgeRule)
+    {
+        this.edgeRule = edgeRule;
+        allocate();
+    }
+    
+    /**
+     * Returns the state of the cell in row i, column j (0 is dead, 1 is alive, 2 is a body).
+     */
+    public int getCell(int i, int j)
+    {
+        if (hashLife != null)
+            return hashLife.get(i, j);
+        if (chunks != null)
+            return chunks.get(i, j);
+        if (packed != null)
+            return packed.get(i, j);
+        return bytes.get(i, j);
+    }
+    
+    /**
+     * Copies the states of the cells in row i, columns left to right - 1, into states starting
+     * at offset. This is much faster than calling getCell on each one.
+     */
+    public void getRow(int i, int left, int right, int[] states, int offset)
+    {
+        if (packed != null)
+            packed.getRow(i, left, right, states, offset);
+        else if (bytes != null)
+            bytes.getRow(i, left, right, states, offset);
+        else
+        {
+            for (int j = left; j < right; j++)
+                states[offset++] = getCell(i, j);
+        }
+    }
+    
+    /**
+     * Counts the live cells of row i in blocks of the given number of columns (a power of two),
+     * adding the block starting at column left to counts[offset], the next to counts[offset + 1],
+     * and so on. Both left and right must be multiples of block, except that right may instead be
+     * the width of the grid.
+     */
+    public void countRow(int i, int left, int right, int block, int[] counts, int offset)
+    {
+        if (packed != null)
+            packed.countRow(i, left, right, block, counts, offset);
+        else if (bytes != null)
+            bytes.countRow(i, left, right, block, counts, offset);
+        else
+        {
+            for (int j = left; j < right; j++)
+            {
+                if (getCell(i, j) == 1)
+                    counts[offset + (j - left) / block]++;
+            }
+        }
+    }
+    
+    /**
+     * Returns the number of live cells in tile t of the tile map. Tiles are only counted again
+     * after they change.
+     */
+    public int getTilePopulation(int t)
+    {
+        int count = tiles.getPopulation(t);
+        if (count < 0)
+        {
+            int top = (t / tiles.getColumns()) * tiles.getTileHeight();
+            int left = (t % tiles.getColumns()) * tiles.getTileWidth();
+            int bottom = Math.min(gridHeight, top + tiles.getTileHeight());
+            int right = Math.min(gridWidth, left + tiles.getTileWidth());
+            tileCount[0] = 0;
+            for (int i = top; i < bottom; i++)
+                countRow(i, left, right, tiles.getTileWidth(), tileCount, 0);
+            count = tileCount[0];
+            tiles.setPopulation(t, count);
+        }
+        return count;
+    }
+    
+    public void setCell(int i, int j, int state)
+    {
+        if (hashLife != null)
+            hashLife.set(i, j, state);
+        else if (chunks != null)
+            chunks.set(i, j, state);
+        else if (packed != null)
+            packed.set(i, j, state);
+        else
+            bytes.set(i, j, state);
+        tiles.markCell(i, j);
+        if (cycles != null)
+            cycles.reset();
+    }
+    
+    /**
+     * Returns the states of the cells in row i, columns 64*k to 64*k + 63, as the bits of a long
+     * with column 64*k in bit 0. Any state other than 1 counts as 0, and so do columns past the
+     * width of the grid. For two-state rules this reads the packed grid directly.
+     */
+    public long getWord(int i, int k)
+    {
+        if (packed != null)
+            return packed.getWord(i, k);
+        long word = 0;
+        for (int b = 0, j = 64 * k; b < 64 && j < gridWidth; b++, j++)
+        {
+            if (getCell(i, j) == 1)
+                word |= 1L << b;
+        }
+        return word;
+    }
+    
+    /**
+     * Sets the cells in row i, columns 64*k to 64*k + 63, to the bits of the given long (with
+     * column 64*k in bit 0), as if by calling setCell with state 0 or 1 on each. Bits past the
+     * width of the grid are ignored. For two-state rules this writes the packed grid directly.
+     */
+    public void setWord(int i, int k, long word)
+    {
+        if (packed != null)
+        {
+            packed.setWord(i, k, word);
+            tiles.markCell(i, 64 * k); // packed tiles are a whole number of longs wide
+            if (cycles != null)
+                cycles.reset();
+            return;
+        }
+        for (int b = 0, j = 64 * k; b < 64 && j < gridWidth; b++, j++)
+            setCell(i, j, (int) (word >>> b) & 1);
+    }
+    
+    /**
+     * Counts the number of live cells (bodies are not counted). On an unbounded plane, this
+     * includes any live cells outside of the grid.
+     */
+    public long getPopulation()
+    {
+        if (hashLife != null)
+            return hashLife.getPopulation();
+        if (chunks != null)
+            return chunks.getPopulation();
+        
+        // Only the tiles that changed since they were last counted are counted again.
+        long population = 0;
+        for (int t = 0; t < tiles.getColumns() * tiles.getRows(); t++)
+            population += getTilePopulation(t);
+        return population;
+    }
+    
+    /**
+     * Sets the pool used to update large grids in parallel, or null to always update on the
+     * calling thread. The common pool is used by default.
+     */
+    public void setPool(ForkJoinPool pool)
+    {
+        this.pool = pool;
+        tasks = null; // the number of tasks depends on the number of threads
+    }
+    
+    public ForkJoinPool getPool()
+    {
+        return pool;
+    }
+    
+    /**
+     * Returns the map of which tiles of the grid are changing. The renderer can use its dirty
+     * tiles to redraw only what changed.
+     */
+    public TileMap getTiles()
+    {
+        return tiles;
+    }
+    
+    /**
+     * Selects whether two-state rules are run with the Hashlife engine rather than the packed
+     * grid. The current cells carry over either way.
+     */
+    public void setHashLife(boolean useHashLife)
+    {
+        this.useHashLife = useHashLife;
+        allocate();
+    }
+    
+    public boolean isHashLife()
+    {
+        return useHashLife;
+    }
+    
+    /**
+     * Returns whether the Hashlife engine is actually running, which is only the case when it is
+     * selected and the current rule has two states.
+     */
+    public boolean isHashLifeActive()
+    {
+        return hashLife != null;
+    }
+    
+    /**
+     * Returns whether the grid is currently a window onto an unbounded plane, either with
+     * Hashlife or with the UNBOUNDED edge rule.
+     */
+    public boolean isUnbounded()
+    {
+        return hashLife != null || chunks != null;
+    }
+    
+    /**
+     * Sets the largest number of quadtree nodes the Hashlife engine may keep cached (each takes
+     * roughly HashLife.NODE_BYTES bytes).
+     */
+    public void setNodeBudget(int nodeBudget)
+    {
+        this.nodeBudget = nodeBudget;
+        if (hashLife != null)
+            hashLife.setBudget(nodeBudget);
+    }
+    
+    public int getNodeBudget()
+    {
+        return nodeBudget;
+    }
+    
+    /**
+     * Sets the metrics that every step is recorded in, or null to record nothing.
+     */
+    public void setMetrics(Metrics metrics)
+    {
+        this.metrics = metrics;
+    }
+    
+    public Metrics getMetrics()
+    {
+        return metrics;
+    }
+    
+    /**
+     * Sets the history that every generation computed by update is recorded in, or null to record
+     * nothing.
+     */
+    public void setHistory(History history)
+    {
+        this.history = history;
+    }
+    
+    public History getHistory()
+    {
+        return history;
+    }
+    
+    /**
+     * Sets the buffer that every step taken by update is kept in so that it can be undone, or
+     * null to keep nothing.
+     */
+    public void setRewind(Rewind rewind)
+    {
+        this.rewind = rewind;
+    }
+    
+    public Rewind getRewind()
+    {
+        return rewind;
+    }
+    
+    /**
+     * Sets a queue of painted cells to be applied at the start of every step, before anything
+     * else, or null for none.
+     */
+    public void setEditQueue(EditQueue edits)
+    {
+        this.edits = edits;
+    }
+    
+    public EditQueue getEditQueue()
+    {
+        return edits;
+    }
+    
+    /**
+     * Sets a listener to be given the counts of every generation computed from now on, or null
+     * for none (see GenerationStats). Counting is only done while a listener is set. After a
+     * listener is set, every tile is counted once before the next generation, and from then on
+     * the kernels only count the births and deaths of the cells they compute (two bit counts per
+     * long of a two-state grid), from which the totals are kept up to date. With the Hashlife
+     * engine, the listener is called once per call to step rather than once per generation (see
+     * StatsListener).
+     */
+    public void setStatsListener(StatsListener statsListener)
+    {
+        this.statsListener = statsListener;
+        countedTiles = null;
+    }
+    
+    public StatsListener getStatsListener()
+    {
+        return statsListener;
+    }
+    
+    /**
+     * Turns cycle detection on or off. While it is on, every generation computed by update is
+     * hashed and checked against the generations before it, back to the last time the cells or
+     * rules were changed by anything else. It is not done for the Hashlife engine, which can skip
+     * over generations.
+     */
+    public void setCycleDetection(boolean on)
+    {
+        cycles = (on)? new CycleDetector(): null;
+    }
+    
+    /**
+     * Returns the cycle detector, which tells whether the grid has started to repeat, or null if
+     * cycle detection is off.
+     */
+    public CycleDetector getCycleDetector()
+    {
+        return cycles;
+    }
+    
+    /**
+     * Returns the Zobrist hash of every cell (see Zobrist), including those outside of the grid
+     * on an unbounded plane. Only the tiles or chunks that changed since they were last hashed are
+     * hashed again. Not available with the Hashlife engine.
+     */
+    public long getHash()
+    {
+        if (hashLife != null)
+            throw new IllegalStateException("The Hashlife engine does not keep a hash.");
+        if (chunks != null)
+            return chunks.getHash();
+        
+        long hash = 0;
+        for (int t = 0; t < tiles.getColumns() * tiles.getRows(); t++)
+        {
+            if (!tiles.isHashed(t))
+                tiles.setHash(t, hashTile(t));
+            hash ^= tiles.getHash(t);
+        }
+        return hash;
+    }
+    
+    /**
+     * Computes the Zobrist hash of the cells of tile t. Either way of storing the grid is hashed a
+     * long at a time, keyed by the position of the long: 64 cells of a packed grid, or 8 lanes of
+     * a byte grid (tiles are a multiple of 8 columns wide).
+     */
+    private long hashTile(int t)
+    {
+        int top = (t / tiles.getColumns()) * tiles.getTileHeight();
+        int left = (t % tiles.getColumns()) * tiles.getTileWidth();
+        int bottom = Math.min(gridHeight, top + tiles.getTileHeight());
+        int right = Math.min(gridWidth, left + tiles.getTileWidth());
+        long hash = 0;
+        if (packed != null)
+        {
+            int words = packed.getWords();
+            for (int i = top; i < bottom; i++)
+            {
+                for (int k = left / 64; k < (right + 63) / 64; k++)
+                    hash ^= Zobrist.key((long) i * words + k, packed.getWord(i, k));
+            }
+        }
+        else
+        {
+            int lanes = (gridWidth + 7) / 8;
+            for (int i = top; i < bottom; i++)
+            {
+                for (int j = left; j < right; j += 8)
+                    hash ^= Zobrist.key((long) i * lanes + j / 8, bytes.getLanes(i, j));
+            }
+        }
+        return hash;
+    }
+    
+    ////////////////////////////////////////////////////
+    // Inner Classes
+    ////////////////////////////////////////////////////
+    
+    /**
+     * Computes one generation of the active tiles by running the first taskCount tile tasks,
+     * which have already been handed their shares of the active list.
+     */
+    private class GenerationTask extends RecursiveAction
+    {
+        private static final long serialVersionUID = 1L; // tasks are never serialized
+        private int taskCount; // number of tile tasks in use this generation
+        
+        protected void compute()
+        {
+            for (int k = 1; k < taskCount; k++)
+                tasks[k].fork();
+            tasks[0].invoke();
+            for (int k = taskCount - 1; k > 0; k--) // newest first, as they are likeliest unstolen
+                tasks[k].join();
+        }
+    }
+    
+    /**
+     * Computes the active tiles from (inclusive) to to (exclusive) of the next generation. The
+     * range is set anew before each parallel update.
+     */
+    private class TileTask extends RecursiveAction
+    {
+        private static final long serialVersionUID = 1L; // tasks are never serialized
+        private int from; // first entry of the active list
+        private int to; // one past the last entry of the active list
+        
+        protected void compute()
+        {
+            updateTiles(from, to);
+        }
+    }
+    
+    /**
+     * Fills in a range of the bands of rows for randomize, splitting it in half until single
+     * bands are left, so that idle threads can steal the halves.
+     */
+    private class SeedTask extends RecursiveAction
+    {
+        private static final long serialVersionUID = 1L; // tasks are never serialized
+        private final int from, to; // bands, from inclusive to exclusive
+        private final double density;
+        private final SplittableRandom[] bands; // generator of each band
+        private final long[][] rows; // where to put the rows, or null for the grid itself
+        
+        private SeedTask(int from, int to, double density, SplittableRandom[] bands,
+            long[][] rows)
+        {
+            this.from = from;
+            this.to = to;
+            this.density = density;
+            this.bands = bands;
+            this.rows = rows;
+        }
+        
+        protected void compute()
+        {
+            if (to - from == 1)
+                randomBands(from, to, density, bands, rows);
+            else if (to > from)
+            {
+                int middle = (from + to) >>> 1;
+                invokeAll(new SeedTask(from, middle, density, bands, rows),
+                    new SeedTask(middle, to, density, bands, rows));
+            }
+        }
+    }
+}
@@ -0,0 +1,252 @@
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Runs a Simulation on its own thread, so that slow generations never hold up the user interface.
+ * Generations are scheduled at fixed times from System.nanoTime: the n-th generation after the
+ * runner starts is due at n periods after it started, so timing errors do not build up, and a
+ * runner that falls a little behind catches up by stepping without waiting. A runner that falls
+ * far behind (such as when the generations themselves take longer than a period) gives up on the
+ * lost time instead of trying to make all of it up at once. The rate can also be UNLIMITED, in
+ * which case the next generation starts as soon as the last one is finished.
+ *
+ * The runner can also stop by itself once the simulation's cycle detector finds that it has
+ * settled into a still life or an oscillator, so that no more time is spent repeating it, or if
+ * computing a generation fails, in which case the failure is kept for the user interface to
+ * report (see getFailure).
+ *
+ * The simulation is not thread-safe, so anything else that touches it while the runner is going
+ * must hold the runner's lock. The lock is fair, so even at an unlimited rate the runner can
+ * never shut out the user interface for more than one generation.
+ */
+public class SimulationRunner implements Runnable
+{
+    /*
+     * Contents:
+     * Definitions-----------------------------
+     * Methods---------------------------------
+     * SimulationRunner
+     * start
+     * stop
+     * run
+     * runGenerations
+     * lock
+     * tryLock
+     * unlock
+     * Accessors-------------------------------
+     */
+    
+    ////////////////////////////////////////////////////
+    // Definitions
+    ////////////////////////////////////////////////////
+    
+    public static final double UNLIMITED = Double.POSITIVE_INFINITY; // rate with no waiting
+    private static final long MAX_LAG = 250_000_000L; // most time to catch up on, in nanoseconds
+    
+    private final Simulation simulation; // the simulation being run
+    private final ReentrantLock lock = new ReentrantLock(true); // guards the simulation
+    private volatile double rate; // generations per second, or UNLIMITED
+    private volatile boolean running = false; // whether the thread should keep going
+    private volatile Thread thread; // the thread running the simulation, if any
+    private volatile boolean stopWhenStable = false; // whether to stop once a cycle is found
+    private volatile Throwable failure; // what stopped the last run, if a generation failed
+    
+    ////////////////////////////////////////////////////
+    // Methods
+    ////////////////////////////////////////////////////
+    
+    /**
+     * Prepares to run the simulation at the given number of generations per second.
+     */
+    public SimulationRunner(Simulation simulation, double rate)
+    {
+        this.simulation = simulation;
+        setRate(rate);
+    }
+    
+    /**
+     * Starts running the simulation, if it isn't already. Must not be called while holding the
+     * lock.
+     */
+    public synchronized void start()
+    {
+        if (running)
+            return;
+        stop(); // the thread may have stopped by itself, but make sure it is finished
+        failure = null;
+        running = true;
+        thread = new Thread(this, "Simulation");
+        thread.setDaemon(true);
+        thread.start();
+    }
+    
+    /**
+     * Stops running the simulation, and waits for the generation in progress (if any) to finish.
+     * Must not be called while holding the lock.
+     */
+    public synchronized void stop()
+    {
+        if (thread == null)
+            return;
+        running = false;
+        LockSupport.unpark(thread);
+        try
+        {
+            thread.join();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+        thread = null;
+    }
+    
+    /**
+     * The body of the simulation thread. If a generation fails, the thread stops and keeps the
+     * failure rather than dying with the runner still marked as running.
+     */
+    public void run()
+    {
+        try
+        {
+            runGenerations();
+        }
+        catch (RuntimeException | Error e)
+        {
+            failure = e;
+        }
+        finally
+        {
+            running = false;
+        }
+    }
+    
+    /**
+     * Computes generations on schedule until the runner is stopped or the simulation is stable.
+     */
+    private void runGenerations()
+    {
+        double lastRate = rate;
+        long next = System.nanoTime(); // when the next generation is due
+        while (running)
+        {
+            double currentRate = rate;
+            if (currentRate != UNLIMITED)
+            {
+                long now = System.nanoTime();
+                if (currentRate != lastRate)
+                {
+                    // Start the new schedule now rather than at the end of the old period.
+                    next = now;
+                    lastRate = currentRate;
+                }
+                if (now - next < 0)
+                {
+                    LockSupport.parkNanos(next - now); // may wake early, so check again
+                    continue;
+                }
+                next += (long) (1e9 / currentRate);
+                if (now - next > MAX_LAG)
+                    next = now;
+            }
+            else
+                lastRate = currentRate;
+            
+            lock.lock();
+            try
+            {
+                simulation.update();
+                CycleDetector cycles = simulation.getCycleDetector();
+                if (stopWhenStable && cycles != null && cycles.getPeriod() > 0)
+                    running = false;
+            }
+            finally
+            {
+                lock.unlock();
+            }
+        }
+    }
+    
+    /**
+     * Acquires the lock on the simulation, waiting for the current generation to finish if
+     * necessary. Every call must be matched by a call to unlock.
+     */
+    public void lock()
+    {
+        lock.lock();
+    }
+    
+    /**
+     * Acquires the lock on the simulation only if no generation is in progress, and returns
+     * whether it did. Every successful call must be matched by a call to unlock.
+     */
+    public boolean tryLock()
+    {
+        return lock.tryLock();
+    }
+    
+    public void unlock()
+    {
+        lock.unlock();
+    }
+    
+    ////////////////////////////////////////////////////
+    // Accessors
+    ////////////////////////////////////////////////////
+    
+    public Simulation getSimulation()
+    {
+        return simulation;
+    }
+    
+    public double getRate()
+    {
+        return rate;
+    }
+    
+    /**
+     * Sets the number of generations per second, or UNLIMITED to run as fast as possible. Takes
+     * effect immediately, even in the middle of a long wait.
+     */
+    public void setRate(double rate)
+    {
+        if (!(rate > 0))
+            throw new IllegalArgumentException("The rate must be positive.");
+        this.rate = rate;
+        Thread t = thread;
+        if (t != null)
+            LockSupport.unpark(t);
+    }
+    
+    /**
+     * Returns whether the simulation is being run. This becomes false by itself when the runner
+     * stops because the simulation is stable or a generation failed.
+     */
+    public boolean isRunning()
+    {
+        return running;
+    }
+    
+    /**
+     * Returns what stopped the runner by itself, if computing a generation failed since it was
+     * last started, or null otherwise.
+     */
+    public Throwable getFailure()
+    {
+        return failure;
+    }
+    
+    public boolean isStopWhenStable()
+    {
+        return stopWhenStable;
+    }
+    
+    /**
+     * Sets whether the runner stops by itself once the simulation's cycle detector (which must be
+     * turned on separately) finds a cycle.
+     */
+    public void setStopWhenStable(boolean stopWhenStable)
+    {
+        this.stopWhenStable = stopWhenStable;
+    }
+}
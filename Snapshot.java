@@ -0,0 +1,445 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A saved copy of a simulation's grid, in a compact binary file that is read and written through
+ * memory-mapped NIO buffers. Saving copies the cells straight into the mapped file, and opening a
+ * snapshot only maps it: nothing is copied onto the heap until the cells are actually read, and
+ * the operating system only reads in the parts of the file that are touched.
+ *
+ * The file starts with a HEADER_SIZE-byte header, in little-endian order:
+ *
+ *     offset  size  contents
+ *     0       4     MAGIC ("CAPS")
+ *     4       4     VERSION
+ *     8       4     width of the grid, in cells
+ *     12      4     height of the grid, in cells
+ *     16      8     generation number
+ *     24      4     birth mask of the rule
+ *     28      4     survival mask of the rule
+ *     32      4     number of states of the rule
+ *     36      4     encoding of the cells: BITS or RUNS
+ *     40      16    name of the edge rule, in ASCII, padded with zeros
+ *     56      4     radius of a Larger than Life rule, or 0 for any other rule
+ *     60      4     1 if a Larger than Life rule counts the middle cell (M1), or 0
+ *
+ * For a Larger than Life rule, the birth and survival fields each hold a range of counts instead,
+ * with the lowest count in the low 16 bits and the highest in the high 16 bits.
+ *
+ * With the BITS encoding, used for two-state rules, each row follows as (width + 63) / 64 longs,
+ * with column 64*k + b in bit b of long k. With the RUNS encoding, used for rules with more
+ * states, height + 1 longs give the offset of each row's runs from the start of the first row
+ * (the last being the end of the data), and each row is a series of runs, each a state byte
+ * followed by the length of the run as an unsigned LEB128 number. Either way, any row can be read
+ * without reading the rows before it.
+ *
+ * Only the cells in the grid are saved, so on an unbounded plane anything outside of the grid is
+ * lost. A mapping can be no larger than 2 GB, which is far more than the largest grids need, and
+ * neither dimension of the grid can be more than MAX_SIZE cells, so that a damaged header can't
+ * ask for a grid too large to hold.
+ */
+public class Snapshot
+{
+    /*
+     * Contents:
+     * Definitions-----------------------------
+     * Methods---------------------------------
+     * Snapshot
+     * save
+     * saveRuns
+     * writeHeader
+     * open
+     * checkRuns
+     * loadInto
+     * getCell
+     * readLength
+     * map
+     * Accessors-------------------------------
+     */
+    
+    ////////////////////////////////////////////////////
+    // Definitions
+    ////////////////////////////////////////////////////
+    
+    public static final int MAGIC = 0x53504143; // "CAPS" in little-endian order
+    public static final int VERSION = 1;
+    public static final int HEADER_SIZE = 64;
+    public static final int BITS = 0; // encoding with one bit per cell
+    public static final int RUNS = 1; // encoding with runs of cells in the same state
+    public static final int MAX_SIZE = 1 << 15; // largest grid dimension a snapshot can hold
+    private static final int NAME_SIZE = 16; // bytes set aside for the edge rule's name
+    
+    private final int width; // width of the grid, in cells
+    private final int height; // height of the grid, in cells
+    private final long generation; // generation the grid was saved at
+    private final Rule rule; // update rule the grid was saved with
+    private final EdgeRule edgeRule; // edge rule the grid was saved with
+    private final int encoding; // BITS or RUNS
+    private final ByteBuffer cells; // the mapped cells, after the header
+    
+    ////////////////////////////////////////////////////
+    // Methods
+    ////////////////////////////////////////////////////
+    
+    private Snapshot(int width, int height, long generation, Rule rule, EdgeRule edgeRule,
+        int encoding, ByteBuffer cells)
+    {
+        this.width = width;
+        this.height = height;
+        this.generation = generation;
+        this.rule = rule;
+        this.edgeRule = edgeRule;
+        this.encoding = encoding;
+        this.cells = cells;
+    }
+    
+    /**
+     * Writes the simulation's grid, rules and generation number to the given file, replacing
+     * anything already there.
+     */
+    public static void save(Simulation simulation, Path path) throws IOException
+    {
+        int width = simulation.getWidth();
+        int height = simulation.getHeight();
+        Rule rule = simulation.getRule();
+        if (width > MAX_SIZE || height > MAX_SIZE)
+            throw new IOException("The grid is too large for a snapshot.");
+        if (rule.getStates() > 2)
+        {
+            saveRuns(simulation, path);
+            return;
+        }
+        
+        int words = (width + 63) / 64;
+        ByteBuffer buffer = map(path, HEADER_SIZE + 8L * words * height);
+        writeHeader(buffer, simulation, BITS);
+        LongBuffer longs = buffer.asLongBuffer();
+        for (int i = 0; i < height; i++)
+        {
+            for (int k = 0; k < words; k++)
+                longs.put(simulation.getWord(i, k));
+        }
+    }
+    
+    /**
+     * Writes a grid with more than two states, run-length encoded. The runs are measured in a
+     * first pass, so that the file can be mapped at exactly the right size.
+     */
+    private static void saveRuns(Simulation simulation, Path path) throws IOException
+    {
+        int width = simulation.getWidth();
+        int height = simulation.getHeight();
+        int[] row = new int[width];
+        long[] offsets = new long[height + 1];
+        for (int i = 0; i < height; i++)
+        {
+            simulation.getRow(i, 0, width, row, 0);
+            long size = 0;
+            for (int j = 0; j < width; )
+            {
+                int start = j;
+                while (j < width && row[j] == row[start])
+                    j++;
+                size += 1 + (64 - Long.numberOfLeadingZeros(j - start) + 6) / 7;
+            }
+            offsets[i+1] = offsets[i] + size;
+        }
+        
+        long index = HEADER_SIZE + 8L * (height + 1);
+        ByteBuffer buffer = map(path, index + offsets[height]);
+        writeHeader(buffer, simulation, RUNS);
+        buffer.asLongBuffer().put(offsets);
+        buffer.position((int) index);
+        for (int i = 0; i < height; i++)
+        {
+            simulation.getRow(i, 0, width, row, 0);
+            for (int j = 0; j < width; )
+            {
+                int start = j;
+                while (j < width && row[j] == row[start])
+                    j++;
+                buffer.put((byte) row[start]);
+                for (int length = j - start; ; length >>>= 7)
+                {
+                    if (length < 0x80)
+                    {
+                        buffer.put((byte) length);
+                        break;
+                    }
+                    buffer.put((byte) (length | 0x80));
+                }
+            }
+        }
+    }
+    
+    /**
+     * Fills in the header at the start of the buffer, and leaves the buffer positioned just
+     * after it.
+     */
+    private static void writeHeader(ByteBuffer buffer, Simulation simulation, int encoding)
+    {
+        Rule rule = simulation.getRule();
+        buffer.putInt(MAGIC);
+        buffer.putInt(VERSION);
+        buffer.putInt(simulation.getWidth());
+        buffer.putInt(simulation.getHeight());
+        buffer.putLong(simulation.getGeneration());
+        boolean larger = (rule.getRadius() > 1);
+        buffer.putInt((larger)? rule.getBirthLow() | rule.getBirthHigh() << 16: rule.getBirth());
+        buffer.putInt((larger)? rule.getSurviveLow() | rule.getSurviveHigh() << 16:
+            rule.getSurvive());
+        buffer.putInt(rule.getStates());
+        buffer.putInt(encoding);
+        byte[] name = simulation.getEdgeRule().name().getBytes(StandardCharsets.US_ASCII);
+        buffer.put(name);
+        buffer.position(buffer.position() + NAME_SIZE - name.length);
+        buffer.putInt((larger)? rule.getRadius(): 0);
+        buffer.putInt((rule.isMiddleCounted())? 1: 0);
+    }
+    
+    /**
+     * Maps a snapshot file and reads its header. The cells are left in the file until they are
+     * read, but run-length encoded rows are checked here, so that a damaged file is never half
+     * loaded.
+     */
+    public static Snapshot open(Path path) throws IOException
+    {
+        ByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ))
+        {
+            if (channel.size() < HEADER_SIZE)
+                throw new IOException("The file is too short to be a snapshot.");
+            if (channel.size() > Integer.MAX_VALUE)
+                throw new IOException("The snapshot is too large to map.");
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        
+        if (buffer.getInt() != MAGIC)
+            throw new IOException("The file is not a snapshot.");
+        if (buffer.getInt() != VERSION)
+            throw new IOException("The snapshot was saved by a different version.");
+        int width = buffer.getInt();
+        int height = buffer.getInt();
+        long generation = buffer.getLong();
+        int birth = buffer.getInt();
+        int survive = buffer.getInt();
+        int states = buffer.getInt();
+        int encoding = buffer.getInt();
+        byte[] name = new byte[NAME_SIZE];
+        buffer.get(name);
+        int radius = buffer.getInt();
+        int middle = buffer.getInt();
+        
+        try
+        {
+            if (width < 1 || height < 1)
+                throw new IllegalArgumentException("The grid dimensions must be positive.");
+            if (width > MAX_SIZE || height > MAX_SIZE)
+                throw new IllegalArgumentException("The grid is larger than " + MAX_SIZE +
+                    " cells across.");
+            Rule rule = (radius == 0)? new Rule(birth, survive, states):
+                Rule.largerThanLife(radius, middle != 0, birth & 0xFFFF, birth >>> 16,
+                    survive & 0xFFFF, survive >>> 16, states);
+            EdgeRule edgeRule = EdgeRule.valueOf(new String(name,
+                StandardCharsets.US_ASCII).trim());
+            // Each row of runs takes an offset and at least one run of two bytes.
+            long size = (encoding == BITS)? 8L * ((width + 63) / 64) * height:
+                8L * (height + 1) + 2L * height;
+            if ((encoding != BITS && encoding != RUNS) || (encoding == BITS) != (states == 2))
+                throw new IllegalArgumentException("The encoding doesn't match the rule.");
+            if (buffer.remaining() < size)
+                throw new IllegalArgumentException("The file is cut short.");
+            ByteBuffer cells = buffer.slice().order(ByteOrder.LITTLE_ENDIAN);
+            if (encoding == RUNS)
+                checkRuns(cells, width, height, states);
+            return new Snapshot(width, height, generation, rule, edgeRule, encoding, cells);
+        }
+        catch (IllegalArgumentException e) // also covers unknown edge rules
+        {
+            throw new IOException("The snapshot is damaged: " + e.getMessage(), e);
+        }
+    }
+    
+    /**
+     * Walks every row of run-length encoded cells, and throws an IllegalArgumentException unless
+     * each row starts where the last one ended, is made of whole runs of valid states, and
+     * covers exactly the width of the grid.
+     */
+    private static void checkRuns(ByteBuffer cells, int width, int height, int states)
+    {
+        long start = 8L * (height + 1);
+        int[] position = {(int) start};
+        for (int i = 0; i <= height; i++)
+        {
+            if (cells.getLong(8 * i) != position[0] - start)
+                throw new IllegalArgumentException("Row " + i + " is out of place.");
+            if (i == height)
+                break;
+            for (int j = 0; j < width; )
+            {
+                if (position[0] >= cells.limit())
+                    throw new IllegalArgumentException("The file is cut short.");
+                if ((cells.get(position[0]++) & 0xFF) >= states)
+                    throw new IllegalArgumentException("Row " + i + " has an invalid state.");
+                int length = readLength(cells, position);
+                if (length < 1 || length > width - j)
+                    throw new IllegalArgumentException("Row " + i + " has a run of " + length +
+                        " cells.");
+                j += length;
+            }
+        }
+        if (position[0] != cells.limit())
+            throw new IllegalArgumentException("The file runs on past the last row.");
+    }
+    
+    /**
+     * Replaces the simulation's grid, rules and generation number with the snapshot's.
+     */
+    public void loadInto(Simulation simulation)
+    {
+        // The rules go first, so that the grid is only allocated once at the new size.
+        simulation.setRule(rule);
+        simulation.setEdgeRule(edgeRule);
+        simulation.resize(width, height);
+        
+        if (encoding == BITS)
+        {
+            // The grid starts out empty, so only the words with live cells need to be set.
+            LongBuffer longs = cells.asLongBuffer();
+            int words = (width + 63) / 64;
+            for (int i = 0; i < height; i++)
+            {
+                for (int k = 0; k < words; k++)
+                {
+                    long word = longs.get(i * words + k);
+                    if (word != 0)
+                        simulation.setWord(i, k, word);
+                }
+            }
+        }
+        else
+        {
+            long start = 8L * (height + 1);
+            int[] position = new int[1];
+            for (int i = 0; i < height; i++)
+            {
+                position[0] = (int) (start + cells.getLong(8 * i));
+                for (int j = 0; j < width; )
+                {
+                    int state = cells.get(position[0]++) & 0xFF;
+                    int length = readLength(cells, position);
+                    if (state != 0)
+                    {
+                        for (int end = j + length; j < end; j++)
+                            simulation.setCell(i, j, state);
+                    }
+                    else
+                        j += length;
+                }
+            }
+        }
+        simulation.setGeneration(generation);
+    }
+    
+    /**
+     * Returns the state of the cell in row i, column j, read straight from the file.
+     */
+    public int getCell(int i, int j)
+    {
+        if (i < 0 || i >= height || j < 0 || j >= width)
+            throw new IndexOutOfBoundsException("Cell (" + i + ", " + j + ") is off the grid.");
+        if (encoding == BITS)
+        {
+            long word = cells.getLong(8 * (i * ((width + 63) / 64) + j / 64));
+            return (int) (word >>> (j & 63)) & 1;
+        }
+        
+        int[] position = {(int) (8L * (height + 1) + cells.getLong(8 * i))};
+        for (int column = 0; ; )
+        {
+            int state = cells.get(position[0]++) & 0xFF;
+            column += readLength(cells, position);
+            if (column > j)
+                return state;
+        }
+    }
+    
+    /**
+     * Reads an unsigned LEB128 number from the cells at position[0], and moves position[0] past
+     * it. Throws an IllegalArgumentException if the number runs past the end of the cells or
+     * doesn't fit in an int.
+     */
+    private static int readLength(ByteBuffer cells, int[] position)
+    {
+        long length = 0;
+        for (int shift = 0; shift < 35; shift += 7)
+        {
+            if (position[0] >= cells.limit())
+                throw new IllegalArgumentException("The file is cut short.");
+            byte b = cells.get(position[0]++);
+            length |= (long) (b & 0x7F) << shift;
+            if (b >= 0)
+            {
+                if (length > Integer.MAX_VALUE)
+                    break;
+                return (int) length;
+            }
+        }
+        throw new IllegalArgumentException("A run is too long.");
+    }
+    
+    /**
+     * Creates (or empties) the given file, sets it to the given size, and maps all of it for
+     * writing in little-endian order.
+     */
+    private static ByteBuffer map(Path path, long size) throws IOException
+    {
+        if (size > Integer.MAX_VALUE)
+            throw new IOException("The grid is too large to save in one snapshot.");
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE,
+            StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ,
+            StandardOpenOption.WRITE))
+        {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            return buffer;
+        }
+    }
+    
+    ////////////////////////////////////////////////////
+    // Accessors
+    ////////////////////////////////////////////////////
+    
+    public int getWidth()
+    {
+        return width;
+    }
+    
+    public int getHeight()
+    {
+        return height;
+    }
+    
+    public long getGeneration()
+    {
+        return generation;
+    }
+    
+    public Rule getRule()
+    {
+        return rule;
+    }
+    
+    public EdgeRule getEdgeRule()
+    {
+        return edgeRule;
+    }
+}
@@ -0,0 +1,18 @@
+/**
+ * Receives the counts of every generation a simulation computes (see Simulation.setStatsListener).
+ * It is called on the thread running the simulation, before the next generation starts, so it
+ * should hand the counts off rather than do anything slow with them (see StatsWriter).
+ *
+ * With the Hashlife engine, Simulation.step jumps over many generations at once without ever
+ * forming the ones in between, so the listener is called once per call to step, with the counts
+ * of the last generation reached, rather than once per generation. The generation numbers it is
+ * given can then skip ahead.
+ */
+public interface StatsListener
+{
+    /**
+     * Called after each generation with its counts. The simulation reuses the same object every
+     * generation, so its values must be copied out if they are to be kept.
+     */
+    void generationComputed(GenerationStats stats);
+}
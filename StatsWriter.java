@@ -0,0 +1,247 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * A StatsListener that writes the counts of every generation as a line of CSV. The thread running
+ * the simulation only copies each generation's counts into a batch; a background thread turns
+ * full batches into text and writes them out, so the simulation never waits on formatting or on
+ * the disk unless the writer falls behind by all of the batches.
+ *
+ * The columns are generation, population, births, deaths, dying, top, left, bottom and right (see
+ * GenerationStats). Nothing is guaranteed to be written until flush or close is called.
+ */
+public class StatsWriter implements StatsListener, Closeable
+{
+    /*
+     * Contents:
+     * Definitions-----------------------------
+     * Methods---------------------------------
+     * StatsWriter
+     * generationComputed
+     * handOff
+     * flush
+     * close
+     * write
+     * Inner Classes---------------------------
+     * Batch
+     */
+    
+    ////////////////////////////////////////////////////
+    // Definitions
+    ////////////////////////////////////////////////////
+    
+    public static final String HEADER = "generation,population,births,deaths,dying,top,left," +
+        "bottom,right";
+    private static final int FIELDS = 9; // numbers in each line
+    private static final int BATCH_SIZE = 1024; // generations gathered before they are written
+    private static final int BATCHES = 4; // batches in use, including the one being filled
+    
+    private final Writer out; // where the CSV goes
+    private final Thread writer; // writes full batches out
+    private final BlockingQueue<Batch> full = new ArrayBlockingQueue<>(BATCHES + 1);
+    private final BlockingQueue<Batch> free = new ArrayBlockingQueue<>(BATCHES);
+    private final Batch closing = new Batch(); // handed to the writer to make it stop
+    private Batch batch = new Batch(); // batch being filled
+    private long batchesHanded = 0; // batches handed to the writer
+    private long batchesWritten = 0; // batches the writer has finished with (guarded by this)
+    private IOException failure; // first error the writer ran into, if any (guarded by this)
+    
+    ////////////////////////////////////////////////////
+    // Methods
+    ////////////////////////////////////////////////////
+    
+    /**
+     * Writes the header line to the given writer, and starts writing generations to it as they
+     * come in. The writer is closed along with this one.
+     */
+    public StatsWriter(Writer out) throws IOException
+    {
+        this.out = out;
+        out.write(HEADER + "\n");
+        for (int k = 1; k < BATCHES; k++)
+            free.add(new Batch());
+        writer = new Thread(this::write, "Stats writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+    
+    /**
+     * Copies the counts of a generation into the current batch.
+     */
+    public void generationComputed(GenerationStats stats)
+    {
+        long[] values = batch.values;
+        int n = batch.length;
+        values[n] = stats.getGeneration();
+        values[n + 1] = stats.getPopulation();
+        values[n + 2] = stats.getBirths();
+        values[n + 3] = stats.getDeaths();
+        values[n + 4] = stats.getDying();
+        values[n + 5] = stats.getTop();
+        values[n + 6] = stats.getLeft();
+        values[n + 7] = stats.getBottom();
+        values[n + 8] = stats.getRight();
+        batch.length = n + FIELDS;
+        if (batch.length == values.length)
+            handOff();
+    }
+    
+    /**
+     * Hands the current batch to the writer and starts a new one, waiting for the writer to
+     * free one up if it has fallen behind.
+     */
+    private void handOff()
+    {
+        boolean interrupted = false;
+        while (true)
+        {
+            try
+            {
+                full.put(batch);
+                break;
+            }
+            catch (InterruptedException e)
+            {
+                interrupted = true; // the batch must be written regardless
+            }
+        }
+        batchesHanded++;
+        while (true)
+        {
+            try
+            {
+                batch = free.take();
+                break;
+            }
+            catch (InterruptedException e)
+            {
+                interrupted = true;
+            }
+        }
+        if (interrupted)
+            Thread.currentThread().interrupt();
+    }
+    
+    /**
+     * Hands any partly filled batch to the writer, waits until every generation so far has been
+     * written and flushed, and throws the first error the writer ran into, if any. Must be called
+     * from the thread running the simulation, or while it is stopped.
+     */
+    public void flush() throws IOException
+    {
+        if (batch.length > 0)
+            handOff();
+        boolean interrupted = false;
+        synchronized (this)
+        {
+            while (batchesWritten < batchesHanded)
+            {
+                try
+                {
+                    wait();
+                }
+                catch (InterruptedException e)
+                {
+                    interrupted = true;
+                }
+            }
+        }
+        if (interrupted)
+            Thread.currentThread().interrupt();
+        synchronized (this)
+        {
+            if (failure != null)
+                throw failure;
+        }
+    }
+    
+    /**
+     * Writes out every generation so far, stops the writer and closes the underlying writer.
+     */
+    public void close() throws IOException
+    {
+        try
+        {
+            flush();
+        }
+        finally
+        {
+            full.add(closing);
+            try
+            {
+                writer.join();
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+            }
+            out.close();
+        }
+    }
+    
+    /**
+     * The writer thread: formats each full batch, writes and flushes it, and returns it to the
+     * free queue, until it is handed the closing batch.
+     */
+    private void write()
+    {
+        StringBuilder text = new StringBuilder();
+        while (true)
+        {
+            Batch next;
+            try
+            {
+                next = full.take();
+            }
+            catch (InterruptedException e)
+            {
+                continue; // only the closing batch stops the writer
+            }
+            if (next == closing)
+                return;
+            
+            text.setLength(0);
+            for (int n = 0; n < next.length; n += FIELDS)
+            {
+                for (int f = 0; f < FIELDS; f++)
+                    text.append(next.values[n + f]).append((f < FIELDS - 1)? ',': '\n');
+            }
+            try
+            {
+                out.append(text);
+                out.flush(); // so that the counts can be watched as they come in
+            }
+            catch (IOException e)
+            {
+                synchronized (this)
+                {
+                    if (failure == null)
+                        failure = e;
+                }
+            }
+            next.length = 0;
+            free.add(next);
+            synchronized (this)
+            {
+                batchesWritten++;
+                notifyAll();
+            }
+        }
+    }
+    
+    ////////////////////////////////////////////////////
+    // Inner Classes
+    ////////////////////////////////////////////////////
+    
+    /**
+     * The counts of a batch of generations, FIELDS numbers to a generation.
+     */
+    private static class Batch
+    {
+        private final long[] values = new long[BATCH_SIZE * FIELDS];
+        private int length = 0; // numbers in use
+    }
+}
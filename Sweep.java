@@ -0,0 +1,342 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Command-line runner for parameter sweeps: every combination of the given rules, edge rules,
+ * sizes, densities and generation counts is randomly seeded, run, and its final population written
+ * as a line of CSV. The runs are independent, so they are spread over a work-stealing pool, one run
+ * per thread at a time, and each line is written as soon as its run finishes (so the lines come
+ * out in no particular order). Only the runs in progress hold a grid, so sweeps of any number of
+ * runs take little memory.
+ *
+ * Each run is seeded from the base seed plus its replicate number, so every combination is run on
+ * the same seeds (see Simulation.randomize), and a sweep gives the same results every time.
+ *
+ * Usage:
+ *     java Sweep [options]
+ *     java CellularAutomata --sweep [options]
+ *
+ * Options (all but --runs, --seed, --threads and --out may be given more than once, and all but
+ * --rule take lists separated by commas):
+ *     --rule NAME       update rule, as for Headless (default CONWAY)
+ *     --edges NAMES     edge rules (default TOROIDAL)
+ *     --size WxH        grid dimensions (default 200x120)
+ *     --density D       densities of live cells, each a number or a range FROM:TO:STEP, such as
+ *                       0.05:0.95:0.05 (default 0.5)
+ *     --steps N         numbers of generations to run (default 1000)
+ *     --runs N          replicates of each combination, with seeds SEED to SEED + N - 1
+ *                       (default 1)
+ *     --seed SEED       base seed (default 1)
+ *     --threads N       number of runs at a time (default: all processors)
+ *     --out FILE        file to write the CSV to (default: standard output)
+ */
+public class Sweep
+{
+    /*
+     * Contents:
+     * Definitions-----------------------------
+     * Methods---------------------------------
+     * Sweep
+     * main
+     * run
+     * runOne
+     * parseList
+     * parseDensities
+     * csv
+     * usage
+     * Inner Classes---------------------------
+     * Batch
+     */
+    
+    ////////////////////////////////////////////////////
+    // Definitions
+    ////////////////////////////////////////////////////
+    
+    private final List<Rule> rules = new ArrayList<>();
+    private final List<EdgeRule> edgeRules = new ArrayList<>();
+    private final List<int[]> sizes = new ArrayList<>(); // {width, height}
+    private final List<Double> densities = new ArrayList<>();
+    private final List<Long> steps = new ArrayList<>();
+    private int runs = 1; // replicates of each combination
+    private long seed = 1; // seed of the first replicate
+    private Writer out; // where the CSV goes (guarded by itself)
+    
+    ////////////////////////////////////////////////////
+    // Methods
+    ////////////////////////////////////////////////////
+    
+    private Sweep()
+    {
+    }
+    
+    /**
+     * Parses the command-line options and runs the sweep.
+     */
+    public static void main(String[] args)
+    {
+        Sweep sweep = new Sweep();
+        int threads = 0; // 0 means the common pool
+        String file = null; // standard output if null
+        try
+        {
+            for (int k = 0; k < args.length; k++)
+            {
+                String option = args[k];
+                if (option.equals("--help") || option.equals("-h"))
+                {
+                    usage();
+                    return;
+                }
+                if (k + 1 >= args.length)
+                    throw new IllegalArgumentException("Missing value for " + option + ".");
+                String value = args[++k];
+                
+                switch (option)
+                {
+                    case "--rule":
+                        sweep.rules.add(Headless.parseRule(value)); // may itself hold commas
+                        break;
+                    case "--edges":
+                        for (String name : parseList(value))
+                            sweep.edgeRules.add(EdgeRule.valueOf(name.toUpperCase()));
+                        break;
+                    case "--size":
+                        for (String size : parseList(value))
+                        {
+                            String[] dims = size.toLowerCase().split("x");
+                            if (dims.length != 2)
+                                throw new IllegalArgumentException("Size must look like 200x120.");
+                            sweep.sizes.add(new int[] {Integer.parseInt(dims[0]),
+                                Integer.parseInt(dims[1])});
+                        }
+                        break;
+                    case "--density":
+                        for (String density : parseList(value))
+                            parseDensities(density, sweep.densities);
+                        break;
+                    case "--steps":
+                        for (String n : parseList(value))
+                            sweep.steps.add(Long.parseLong(n));
+                        break;
+                    case "--runs":
+                        sweep.runs = Integer.parseInt(value);
+                        if (sweep.runs < 1)
+                            throw new IllegalArgumentException("Run count must be positive.");
+                        break;
+                    case "--seed":
+                        sweep.seed = Long.parseLong(value);
+                        break;
+                    case "--threads":
+                        threads = Integer.parseInt(value);
+                        if (threads < 1)
+                            throw new IllegalArgumentException("Thread count must be positive.");
+                        break;
+                    case "--out":
+                        file = value;
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Unknown option " + option + ".");
+                }
+            }
+            if (sweep.rules.isEmpty())
+                sweep.rules.add(UpdateRule.CONWAY.getRule());
+            if (sweep.edgeRules.isEmpty())
+                sweep.edgeRules.add(EdgeRule.TOROIDAL);
+            if (sweep.sizes.isEmpty())
+                sweep.sizes.add(new int[] {200, 120});
+            if (sweep.densities.isEmpty())
+                sweep.densities.add(0.5);
+            if (sweep.steps.isEmpty())
+                sweep.steps.add(1000L);
+            for (int[] size : sweep.sizes)
+            {
+                if (size[0] < 1 || size[1] < 1)
+                    throw new IllegalArgumentException("Grid dimensions must be positive.");
+            }
+            for (double density : sweep.densities)
+            {
+                if (density < 0 || density > 1)
+                    throw new IllegalArgumentException("Density must be between 0 and 1.");
+            }
+            for (long n : sweep.steps)
+            {
+                if (n < 0)
+                    throw new IllegalArgumentException("Generation counts can't be negative.");
+            }
+        }
+        catch (IllegalArgumentException e) // also covers NumberFormatException
+        {
+            System.err.println(e.getMessage());
+            usage();
+            System.exit(1);
+        }
+        
+        try
+        {
+            sweep.out = (file != null)? Files.newBufferedWriter(Paths.get(file)):
+                new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8));
+            long start = System.nanoTime();
+            long total = sweep.run((threads > 0)? new ForkJoinPool(threads):
+                ForkJoinPool.commonPool());
+            sweep.out.close();
+            System.err.printf("%d runs in %.3f s%n", total, (System.nanoTime() - start) / 1e9);
+        }
+        catch (IOException | UncheckedIOException e)
+        {
+            System.err.println("Could not write the results: " + e.getMessage());
+            System.exit(1);
+        }
+    }
+    
+    /**
+     * Writes the CSV header, then does every run in the given pool, and returns the number of
+     * runs.
+     */
+    private long run(ForkJoinPool pool) throws IOException
+    {
+        out.write("rule,edges,width,height,density,seed,steps,population,seconds\n");
+        out.flush();
+        long total = (long) rules.size() * edgeRules.size() * sizes.size() * densities.size() *
+            steps.size() * runs;
+        pool.invoke(new Batch(0, total));
+        return total;
+    }
+    
+    /**
+     * Does the run with the given index, counting through the replicates first and the rules
+     * last, and writes its line of CSV.
+     */
+    private void runOne(long index)
+    {
+        int replicate = (int) (index % runs);
+        index /= runs;
+        long n = steps.get((int) (index % steps.size()));
+        index /= steps.size();
+        double density = densities.get((int) (index % densities.size()));
+        index /= densities.size();
+        int[] size = sizes.get((int) (index % sizes.size()));
+        index /= sizes.size();
+        EdgeRule edgeRule = edgeRules.get((int) (index % edgeRules.size()));
+        index /= edgeRules.size();
+        Rule rule = rules.get((int) index);
+        
+        long start = System.nanoTime();
+        Simulation simulation = new Simulation(size[0], size[1]);
+        simulation.setPool(null); // the pool is already busy with other runs
+        simulation.setRule(rule);
+        simulation.setEdgeRule(edgeRule);
+        simulation.randomize(density, seed + replicate);
+        simulation.step(n);
+        String line = csv(rule.toString()) + "," + edgeRule + "," + size[0] + "," + size[1] +
+            "," + density + "," + (seed + replicate) + "," + n + "," +
+            simulation.getPopulation() + "," +
+            String.format("%.6f", (System.nanoTime() - start) / 1e9) + "\n";
+        
+        synchronized (out)
+        {
+            try
+            {
+                out.write(line);
+                out.flush(); // so that the results can be watched as they come in
+            }
+            catch (IOException e)
+            {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+    
+    /**
+     * Splits a list of values separated by commas.
+     */
+    private static String[] parseList(String value)
+    {
+        return value.split(",");
+    }
+    
+    /**
+     * Adds a density, or each density in a range FROM:TO:STEP (including TO, allowing for
+     * rounding), to the list. A range that would hold no densities is rejected.
+     */
+    private static void parseDensities(String value, List<Double> densities)
+    {
+        String[] parts = value.split(":");
+        if (parts.length == 1)
+        {
+            densities.add(Double.parseDouble(value));
+            return;
+        }
+        if (parts.length != 3)
+            throw new IllegalArgumentException("Density ranges must look like 0.1:0.9:0.1.");
+        double from = Double.parseDouble(parts[0]);
+        double to = Double.parseDouble(parts[1]);
+        double step = Double.parseDouble(parts[2]);
+        if (!(step > 0))
+            throw new IllegalArgumentException("Density steps must be positive.");
+        if (!(from <= to)) // also catches NaN, so that the range is never empty
+            throw new IllegalArgumentException("Density ranges must run from low to high.");
+        for (long k = 0; from + k * step <= to + step * 1e-9; k++)
+            densities.add(Math.min(1, Math.round((from + k * step) * 1e12) / 1e12));
+    }
+    
+    /**
+     * Quotes a CSV field if it holds a comma or a quote.
+     */
+    private static String csv(String field)
+    {
+        if (field.indexOf(',') < 0 && field.indexOf('"') < 0)
+            return field;
+        return "\"" + field.replace("\"", "\"\"") + "\"";
+    }
+    
+    /**
+     * Prints the command-line options.
+     */
+    private static void usage()
+    {
+        System.err.println("Usage: java Sweep [--rule NAME] [--edges NAMES] [--size WxH,...]");
+        System.err.println("           [--density D,FROM:TO:STEP,...] [--steps N,...] [--runs N]");
+        System.err.println("           [--seed SEED] [--threads N] [--out FILE]");
+    }
+    
+    ////////////////////////////////////////////////////
+    // Inner Classes
+    ////////////////////////////////////////////////////
+    
+    /**
+     * Does a range of runs, splitting it in half until single runs are left, so that idle
+     * threads can steal the halves.
+     */
+    private class Batch extends RecursiveAction
+    {
+        private static final long serialVersionUID = 1L; // tasks are never serialized
+        private final long from, to; // indices of the runs, from inclusive to exclusive
+        
+        private Batch(long from, long to)
+        {
+            this.from = from;
+            this.to = to;
+        }
+        
+        protected void compute()
+        {
+            if (to - from == 1)
+                runOne(from);
+            else if (to > from)
+            {
+                long middle = (from + to) >>> 1;
+                invokeAll(new Batch(from, middle), new Batch(middle, to));
+            }
+        }
+    }
+}
@@ -0,0 +1,455 @@
+/**
+ * Keeps track of which parts of the grid are changing, so that quiet areas can be skipped. The
+ * grid is divided into rectangular tiles. A tile can only change in the next generation if it or
+ * one of the eight tiles around it changed in the last one, so only those tiles are recomputed.
+ * Rules that see further than one cell away recompute every tile within that distance instead.
+ *
+ * Separately, the map collects every tile that has changed since the renderer last caught up, so
+ * that only those parts of the display need to be redrawn. Every change is also stamped with a
+ * clock, so that recorders of the grid (see ShadowGrid) can each find the tiles that changed since
+ * they last looked. It also remembers the number of live cells in each tile once it has been
+ * counted, until the tile changes again, so that a zoomed-out view of a large grid can be drawn
+ * from the tile counts. The hash of each tile is remembered in
+ * the same way, so that the hash of the whole grid only needs the changed tiles hashed again.
+ *
+ * All of the bookkeeping is done with lists of tile indices, so the cost of a generation depends
+ * on how much of the grid is active rather than on its total area. Tile t is in row t / columns
+ * and column t % columns of tiles.
+ */
+public class TileMap
+{
+    /*
+     * Contents:
+     * Definitions-----------------------------
+     * Methods---------------------------------
+     * TileMap
+     * markAll
+     * markCell
+     * markTile
+     * prepare
+     * activateRows
+     * activateColumns
+     * activate
+     * setChanged
+     * finish
+     * clearDirty
+     * tick
+     * Accessors-------------------------------
+     */
+    
+    ////////////////////////////////////////////////////
+    // Definitions
+    ////////////////////////////////////////////////////
+    
+    private final int width; // width of the grid, in cells
+    private final int height; // height of the grid, in cells
+    private final int tileWidth; // width of each tile, in cells
+    private final int tileHeight; // height of each tile, in cells
+    private final int columns; // number of tiles across the grid
+    private final int rows; // number of tiles down the grid
+    private final boolean[] changed; // tiles that changed in the last generation
+    private final boolean[] active; // tiles being recomputed in the current generation
+    private final boolean[] changing; // active tiles that turned out to change
+    private final boolean[] dirty; // tiles changed since the last call to clearDirty
+    private final int[] changedList; // indices of the changed tiles
+    private final int[] activeList; // indices of the active tiles
+    private final int[] dirtyList; // indices of the dirty tiles
+    private final int[] population; // live cells in each tile, or -1 if not counted since a change
+    private final long[] hash; // hash of the cells in each tile, if hashed since a change
+    private final boolean[] hashed; // whether each tile's hash is up to date
+    private final long[] stamps; // value of the clock when each tile last changed
+    private int changedCount = 0;
+    private int activeCount = 0;
+    private int dirtyCount = 0;
+    private long clock = 1; // stamp given to the tiles that change now
+    
+    ////////////////////////////////////////////////////
+    // Methods
+    ////////////////////////////////////////////////////
+    
+    /**
+     * Divides a grid of the given dimensions into tiles of the given dimensions (the last row and
+     * column of tiles may be cut short). Every tile starts out marked as changed.
+     */
+    public TileMap(int width, int height, int tileWidth, int tileHeight)
+    {
+        this.width = width;
+        this.height = height;
+        this.tileWidth = tileWidth;
+        this.tileHeight = tileHeight;
+        columns = (width + tileWidth - 1) / tileWidth;
+        rows = (height + tileHeight - 1) / tileHeight;
+        int tiles = columns * rows;
+        changed = new boolean[tiles];
+        active = new boolean[tiles];
+        changing = new boolean[tiles];
+        dirty = new boolean[tiles];
+        changedList = new int[tiles];
+        activeList = new int[tiles];
+        dirtyList = new int[tiles];
+        population = new int[tiles];
+        hash = new long[tiles];
+        hashed = new boolean[tiles];
+        stamps = new long[tiles];
+        markAll();
+    }
+    
+    /**
+     * Marks every tile as changed, such as after the whole grid or the rules have been altered.
+     */
+    public void markAll()
+    {
+        for (int t = 0; t < changed.length; t++)
+            markTile(t);
+    }
+    
+    /**
+     * Marks the tile holding the cell in row i, column j as changed, such as after the cell was
+     * edited by hand.
+     */
+    public void markCell(int i, int j)
+    {
+        markTile((i / tileHeight) * columns + j / tileWidth);
+    }
+    
+    private void markTile(int t)
+    {
+        population[t] = -1;
+        hashed[t] = false;
+        if (!changed[t])
+        {
+            changed[t] = true;
+            changedList[changedCount++] = t;
+        }
+        if (!dirty[t])
+        {
+            dirty[t] = true;
+            dirtyList[dirtyCount++] = t;
+        }
+        stamps[t] = clock;
+    }
+    
+    /**
+     * Works out which tiles need to be recomputed for the next generation: every changed tile
+     * and its eight neighbors, where neighbors across an edge of the grid depend on the edge rule.
+     */
+    public void prepare(EdgeRule edgeRule)
+    {
+        boolean wrap = (edgeRule == EdgeRule.TOROIDAL || edgeRule == EdgeRule.KLEIN_BOTTLE);
+        boolean flip = (edgeRule == EdgeRule.KLEIN_BOTTLE);
+        for (int n = 0; n < changedCount; n++)
+        {
+            int tileRow = changedList[n] / columns;
+            int tileColumn = changedList[n] % columns;
+            for (int a = -1; a < 2; a++)
+            {
+                int r = tileRow + a;
+                if (r < 0 || r >= rows)
+                {
+                    // Other edge rules only reach back inside the tile itself.
+                    if (!wrap)
+                        continue;
+                    r = (r + rows) % rows;
+                    if (flip)
+                    {
+                        /*
+                         * The tile and the cells on either side of it reappear mirrored left to
+                         * right across the top and bottom edges, so mark wherever they land.
+                         */
+                        int left = tileColumn * tileWidth - 1;
+                        int right = Math.min((tileColumn + 1) * tileWidth, width);
+                        for (int x = width - 1 - right; x <= width - 1 - left; x++)
+                            activate(r, Math.floorMod(x, width) / tileWidth);
+                        continue;
+                    }
+                }
+                for (int b = -1; b < 2; b++)
+                {
+                    int c = tileColumn + b;
+                    if (c < 0 || c >= columns)
+                    {
+                        if (!wrap)
+                            continue;
+                        c = (c + columns) % columns;
+                    }
+                    activate(r, c);
+                }
+            }
+        }
+        
+        /*
+         * When a good part of the grid is active, list the tiles in row order instead, so that
+         * memory is visited in order. Scanning every tile then costs little next to the update.
+         */
+        if (activeCount > active.length / 8)
+        {
+            activeCount = 0;
+            for (int t = 0; t < active.length; t++)
+            {
+                if (active[t])
+                    activeList[activeCount++] = t;
+            }
+        }
+    }
+    
+    /**
+     * Works out which tiles need to be recomputed for the next generation, as for prepare, for
+     * rules under which a cell depends on every cell up to the given distance away. The cells
+     * within that distance of a changed tile are followed across the edges of the grid as the
+     * edge rule says, cell by cell rather than tile by tile, since the last row and column of
+     * tiles may be cut short.
+     */
+    public void prepare(EdgeRule edgeRule, int reach)
+    {
+        if (reach == 1)
+        {
+            prepare(edgeRule);
+            return;
+        }
+        
+        boolean wrap = (edgeRule == EdgeRule.TOROIDAL || edgeRule == EdgeRule.KLEIN_BOTTLE);
+        boolean flip = (edgeRule == EdgeRule.KLEIN_BOTTLE);
+        for (int n = 0; n < changedCount; n++)
+        {
+            int tileRow = changedList[n] / columns;
+            int tileColumn = changedList[n] % columns;
+            int top = tileRow * tileHeight - reach;
+            int bottom = Math.min((tileRow + 1) * tileHeight, height) + reach;
+            int left = tileColumn * tileWidth - reach;
+            int right = Math.min((tileColumn + 1) * tileWidth, width) + reach;
+            
+            // Take the rows one lap of the grid at a time, as only wrapping edges go round.
+            for (int i = top; i < bottom; )
+            {
+                int lap = Math.floorDiv(i, height);
+                int stop = Math.min(bottom, (lap + 1) * height);
+                if (lap == 0 || wrap)
+                {
+                    // Each lap round a Klein bottle flips the columns left to right.
+                    if (flip && (lap & 1) != 0)
+                        activateRows(i - lap * height, stop - lap * height, width - right,
+                            width - left, wrap);
+                    else
+                        activateRows(i - lap * height, stop - lap * height, left, right, wrap);
+                }
+                i = stop;
+            }
+        }
+        
+        // As in prepare, list the tiles in row order when a good part of the grid is active.
+        if (activeCount > active.length / 8)
+        {
+            activeCount = 0;
+            for (int t = 0; t < active.length; t++)
+            {
+                if (active[t])
+                    activeList[activeCount++] = t;
+            }
+        }
+    }
+    
+    /**
+     * Activates the tiles holding rows top to bottom - 1 of the grid, and columns left to
+     * right - 1, which may go past the edges and are wrapped if wrap is set or dropped otherwise.
+     */
+    private void activateRows(int top, int bottom, int left, int right, boolean wrap)
+    {
+        for (int r = top / tileHeight; r <= (bottom - 1) / tileHeight; r++)
+        {
+            for (int j = left; j < right; )
+            {
+                int lap = Math.floorDiv(j, width);
+                int stop = Math.min(right, (lap + 1) * width);
+                if (lap == 0 || wrap)
+                    activateColumns(r, j - lap * width, stop - lap * width);
+                j = stop;
+            }
+        }
+    }
+    
+    /**
+     * Activates the tiles in row r of tiles that hold columns left to right - 1 of the grid.
+     */
+    private void activateColumns(int r, int left, int right)
+    {
+        for (int c = left / tileWidth; c <= (right - 1) / tileWidth; c++)
+            activate(r, c);
+    }
+    
+    /**
+     * Adds the tile in row r, column c of tiles to the active list, if it is not there already.
+     */
+    private void activate(int r, int c)
+    {
+        int t = r * columns + c;
+        if (!active[t])
+        {
+            active[t] = true;
+            activeList[activeCount++] = t;
+        }
+    }
+    
+    /**
+     * Records that an active tile changed in the generation being computed. Different threads
+     * may call this at the same time for different tiles.
+     */
+    public void setChanged(int t)
+    {
+        changing[t] = true;
+    }
+    
+    /**
+     * Finishes a generation: the active tiles that changed become the changed tiles, and the
+     * active list is emptied.
+     */
+    public void finish()
+    {
+        for (int n = 0; n < changedCount; n++)
+            changed[changedList[n]] = false;
+        changedCount = 0;
+        
+        for (int n = 0; n < activeCount; n++)
+        {
+            int t = activeList[n];
+            active[t] = false;
+            if (changing[t])
+            {
+                changing[t] = false;
+                markTile(t);
+            }
+        }
+        activeCount = 0;
+    }
+    
+    /**
+     * Forgets the dirty tiles, once the renderer has redrawn them.
+     */
+    public void clearDirty()
+    {
+        for (int n = 0; n < dirtyCount; n++)
+            dirty[dirtyList[n]] = false;
+        dirtyCount = 0;
+    }
+    
+    /**
+     * Returns the current value of the clock, and moves it on: tiles that change after this call
+     * are changed since the value returned (see isChangedSince).
+     */
+    public long tick()
+    {
+        return clock++;
+    }
+    
+    ////////////////////////////////////////////////////
+    // Accessors
+    ////////////////////////////////////////////////////
+    
+    public int getTileWidth()
+    {
+        return tileWidth;
+    }
+    
+    public int getTileHeight()
+    {
+        return tileHeight;
+    }
+    
+    public int getColumns()
+    {
+        return columns;
+    }
+    
+    public int getRows()
+    {
+        return rows;
+    }
+    
+    /**
+     * Returns the number of tiles to be recomputed in the current generation.
+     */
+    public int getActiveCount()
+    {
+        return activeCount;
+    }
+    
+    /**
+     * Returns the index of the nth tile to be recomputed in the current generation.
+     */
+    public int getActiveTile(int n)
+    {
+        return activeList[n];
+    }
+    
+    /**
+     * Returns the number of tiles that changed in the last generation.
+     */
+    public int getChangedCount()
+    {
+        return changedCount;
+    }
+    
+    /**
+     * Returns the index of the nth tile that changed in the last generation.
+     */
+    public int getChangedTile(int n)
+    {
+        return changedList[n];
+    }
+    
+    /**
+     * Returns the number of tiles changed since the last call to clearDirty.
+     */
+    public int getDirtyCount()
+    {
+        return dirtyCount;
+    }
+    
+    /**
+     * Returns the index of the nth tile changed since the last call to clearDirty.
+     */
+    public int getDirtyTile(int n)
+    {
+        return dirtyList[n];
+    }
+    
+    /**
+     * Returns whether tile t has changed since the given value of the clock was returned by tick.
+     */
+    public boolean isChangedSince(int t, long time)
+    {
+        return stamps[t] > time;
+    }
+    
+    /**
+     * Returns the number of live cells in tile t, or -1 if it has changed since it was counted.
+     */
+    public int getPopulation(int t)
+    {
+        return population[t];
+    }
+    
+    public void setPopulation(int t, int count)
+    {
+        population[t] = count;
+    }
+    
+    /**
+     * Returns whether the hash of tile t is up to date, that is, whether the tile has not changed
+     * since its hash was set.
+     */
+    public boolean isHashed(int t)
+    {
+        return hashed[t];
+    }
+    
+    public long getHash(int t)
+    {
+        return hash[t];
+    }
+    
+    public void setHash(int t, long tileHash)
+    {
+        hash[t] = tileHash;
+        hashed[t] = true;
+    }
+}
@@ -0,0 +1,72 @@
+/**
+ * The update rules (cellular automaton models) built into the Cellular Automata Playground. Each
+ * one is a predefined Rule; any other rule can be given in B/S notation instead.
+ */
+public enum UpdateRule
+{
+    /*
+     * Conway's rules:
+     * An on cell turns off if it has less than 2 or more than 3 neighbors.
+     * An off cell turns on if it has exactly 3 neighbors.
+     */
+    CONWAY("B3/S23"),
+    
+    /*
+     * Halite model rules:
+     * An off cell turns on if it has exactly one neighbor. Cells never
+     * turn off.
+     */
+    HALITE("B1/S012345678"),
+    
+    /*
+     * Conway's rules with dead bodies:
+     * Same as Conway, except that when cells die, instead of disappearing,
+     * they turn into a dead cell. Dead cells to not count towards neighbor
+     * count, but they do prevent anything from growing on them. They
+     * disappear after one step.
+     */
+    CONWAY_BODIES("B3/S23/3"),
+    
+    /*
+     * Seeds rules:
+     * An off cell turns on if it has exactly 2 neighbors. All on cells turn
+     * off after one step.
+     */
+    SEEDS("B2/S"),
+    
+    /*
+     * Brian's Brain rules:
+     * Same as Seeds, except that when a cell dies, it leaves behind a body
+     * for one step.
+     */
+    BRIANS_BRAIN("B2/S/3"),
+    
+    /*
+     * Odd rules:
+     * An off cell turns on if it has an odd number of neighbors. All on
+     * cells turn off after one step.
+     */
+    ODD("B1357/S"),
+    
+    /*
+     * Even rules:
+     * An off cell turns on if it has an even, nonzero number of
+     * neighbors. All on cells turn off after one step.
+     */
+    EVEN("B2468/S");
+    
+    private final Rule rule; // compiled form of the rule
+    
+    private UpdateRule(String notation)
+    {
+        rule = Rule.parse(notation);
+    }
+    
+    /**
+     * Returns the compiled rule.
+     */
+    public Rule getRule()
+    {
+        return rule;
+    }
+}
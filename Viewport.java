@@ -0,0 +1,206 @@
+/**
+ * The part of the grid that is shown on screen, and how large it is drawn. Zoomed in, each cell is
+ * a block of cellSize x cellSize pixels; zoomed out past one cell per pixel, each pixel instead
+ * covers a block of shrink x shrink cells, where shrink is a power of two. At most one of the two
+ * is ever more than 1.
+ *
+ * Positions are measured in "world pixels", where the cell in column j starts at world pixel
+ * j * cellSize / shrink. The offsets are the world pixel at the left and top edges of the panel,
+ * so panning only changes the offsets.
+ */
+public class Viewport
+{
+    /*
+     * Contents:
+     * Definitions-----------------------------
+     * Methods---------------------------------
+     * Viewport
+     * setGridSize
+     * fit
+     * zoom
+     * pan
+     * clamp
+     * columnAt
+     * rowAt
+     * screenX
+     * screenY
+     * Accessors-------------------------------
+     */
+    
+    ////////////////////////////////////////////////////
+    // Definitions
+    ////////////////////////////////////////////////////
+    
+    public static final int MAX_CELL_SIZE = 64; // largest cell size when zoomed in, in pixels
+    
+    private final int panelWidth; // width of the panel the grid is drawn on, in pixels
+    private final int panelHeight; // height of that panel, in pixels
+    private int gridWidth; // width of the grid, in cells
+    private int gridHeight; // height of the grid, in cells
+    private int cellSize = 1; // pixels across each cell, when zoomed in
+    private int shrink = 1; // cells across each pixel, when zoomed out
+    private long offsetX = 0; // world pixel at the left edge of the panel
+    private long offsetY = 0; // world pixel at the top edge of the panel
+    
+    ////////////////////////////////////////////////////
+    // Methods
+    ////////////////////////////////////////////////////
+    
+    /**
+     * Creates a viewport for a panel of the given size, in pixels, showing a grid of the given
+     * size, in cells. The whole grid is fitted onto the panel to begin with.
+     */
+    public Viewport(int panelWidth, int panelHeight, int gridWidth, int gridHeight)
+    {
+        this.panelWidth = panelWidth;
+        this.panelHeight = panelHeight;
+        setGridSize(gridWidth, gridHeight);
+    }
+    
+    /**
+     * Tells the viewport the size of the grid. If it has changed, the new grid is fitted onto the
+     * panel; otherwise the view is left as it is.
+     */
+    public void setGridSize(int width, int height)
+    {
+        if (width == gridWidth && height == gridHeight)
+            return;
+        gridWidth = width;
+        gridHeight = height;
+        fit();
+    }
+    
+    /**
+     * Shows the whole grid in the top left corner of the panel, with cells as large as possible.
+     */
+    public void fit()
+    {
+        cellSize = Math.max(1, Math.min(MAX_CELL_SIZE, Math.min(panelWidth / gridWidth,
+            panelHeight / gridHeight)));
+        shrink = 1;
+        while ((gridWidth - 1) / shrink >= panelWidth || (gridHeight - 1) / shrink >= panelHeight)
+            shrink *= 2;
+        offsetX = 0;
+        offsetY = 0;
+    }
+    
+    /**
+     * Zooms in (if in is true) or out by a factor of two, keeping the cell under pixel (x, y) of
+     * the panel in place. Zooming out stops once the whole grid fits on the panel, and zooming in
+     * stops at MAX_CELL_SIZE.
+     */
+    public void zoom(boolean in, int x, int y)
+    {
+        int oldSize = cellSize, oldShrink = shrink;
+        if (in)
+        {
+            if (shrink > 1)
+                shrink /= 2;
+            else if (cellSize < MAX_CELL_SIZE)
+                cellSize = Math.min(MAX_CELL_SIZE, 2*cellSize);
+        }
+        else if ((long) gridWidth * cellSize / shrink > panelWidth ||
+            (long) gridHeight * cellSize / shrink > panelHeight)
+        {
+            if (cellSize > 1)
+                cellSize /= 2;
+            else
+                shrink *= 2;
+        }
+        
+        // The world pixel under (x, y) scales with the zoom, so move the offsets to match.
+        long numerator = (long) cellSize * oldShrink;
+        long denominator = (long) oldSize * shrink;
+        offsetX = Math.floorDiv((offsetX + x) * numerator, denominator) - x;
+        offsetY = Math.floorDiv((offsetY + y) * numerator, denominator) - y;
+        clamp();
+    }
+    
+    /**
+     * Moves the view so that the grid follows the mouse by (dx, dy) pixels.
+     */
+    public void pan(int dx, int dy)
+    {
+        offsetX -= dx;
+        offsetY -= dy;
+        clamp();
+    }
+    
+    /**
+     * Keeps the grid on the panel: a grid narrower than the panel stays against its left edge,
+     * and a wider one can't be scrolled past either of its own edges (and likewise vertically).
+     */
+    private void clamp()
+    {
+        long worldWidth = (long) gridWidth * cellSize / shrink;
+        long worldHeight = (long) gridHeight * cellSize / shrink;
+        offsetX = Math.max(0, Math.min(offsetX, worldWidth - panelWidth));
+        offsetY = Math.max(0, Math.min(offsetY, worldHeight - panelHeight));
+    }
+    
+    /**
+     * Returns the column of the cell at pixel x of the panel. It may be outside of the grid.
+     */
+    public int columnAt(int x)
+    {
+        return (int) Math.floorDiv((offsetX + x) * shrink, cellSize);
+    }
+    
+    /**
+     * Returns the row of the cell at pixel y of the panel. It may be outside of the grid.
+     */
+    public int rowAt(int y)
+    {
+        return (int) Math.floorDiv((offsetY + y) * shrink, cellSize);
+    }
+    
+    /**
+     * Returns the pixel of the panel at which column j starts (which may be off of the panel).
+     */
+    public int screenX(int j)
+    {
+        return (int) (Math.floorDiv((long) j * cellSize, shrink) - offsetX);
+    }
+    
+    /**
+     * Returns the pixel of the panel at which row i starts (which may be off of the panel).
+     */
+    public int screenY(int i)
+    {
+        return (int) (Math.floorDiv((long) i * cellSize, shrink) - offsetY);
+    }
+    
+    ////////////////////////////////////////////////////
+    // Accessors
+    ////////////////////////////////////////////////////
+    
+    public int getPanelWidth()
+    {
+        return panelWidth;
+    }
+    
+    public int getPanelHeight()
+    {
+        return panelHeight;
+    }
+    
+    public int getCellSize()
+    {
+        return cellSize;
+    }
+    
+    public int getShrink()
+    {
+        return shrink;
+    }
+    
+    public long getOffsetX()
+    {
+        return offsetX;
+    }
+    
+    public long getOffsetY()
+    {
+        return offsetY;
+    }
+}
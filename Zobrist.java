@@ -0,0 +1,53 @@
+/**
+ * Zobrist hashing for grids of cells. Every pairing of a position with a nonzero value (a cell's
+ * state, or a whole long of packed cells) has its own pseudorandom 64-bit key, and the hash of a
+ * grid is the XOR of the keys of everything in it. Changing one value only means XORing out its
+ * old key and XORing in the new one, and the hash of a whole grid is the XOR of the hashes of its
+ * parts, so parts that haven't changed never need to be looked at again.
+ *
+ * Classic Zobrist hashing looks the keys up in a table of random numbers, but a table for the
+ * largest grids would take more memory than the grids themselves, so the keys are computed
+ * instead with the mixing function of SplitMix64. As in SplitMix64, positions are spread apart by
+ * multiplying them by the golden gamma, so one round of mixing is enough for each key.
+ */
+public class Zobrist
+{
+    /*
+     * Contents:
+     * Definitions-----------------------------
+     * Methods---------------------------------
+     * key
+     * mix
+     */
+    
+    ////////////////////////////////////////////////////
+    // Definitions
+    ////////////////////////////////////////////////////
+    
+    private static final long GAMMA = 0x9E3779B97F4A7C15L; // odd, so no two positions share it
+    
+    ////////////////////////////////////////////////////
+    // Methods
+    ////////////////////////////////////////////////////
+    
+    /**
+     * Returns the key of the given value at the given position. Zero values have the key 0, so
+     * empty space can simply be skipped.
+     */
+    public static long key(long position, long value)
+    {
+        // Masked rather than branched on, since grids mix zero and nonzero values unpredictably.
+        return mix(position * GAMMA + value) & -((value | -value) >>> 63);
+    }
+    
+    /**
+     * Scrambles the bits of a long. Every output comes from exactly one input, and flipping any
+     * input bit flips about half of the output bits.
+     */
+    public static long mix(long x)
+    {
+        x = (x ^ (x >>> 30)) * 0xBF58476D1CE4E5B9L;
+        x = (x ^ (x >>> 27)) * 0x94D049BB133111EBL;
+        return x ^ (x >>> 31);
+    }
+}
@@ -0,0 +1,127 @@
+package playground.bench;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Checks that stepping the simulation allocates nothing once it has warmed up, for every update
+ * rule and bounded edge rule, on a small and a large board, both on the calling thread and on a
+ * pool of threads. The bytes allocated by every thread in the JVM are measured around a run of
+ * generations, so allocations made on the pool's threads are caught too. Exits with status 1,
+ * after listing every case over its limit, if any were.
+ *
+ * Stepping on the calling thread may allocate nothing at all. Stepping on a pool may allocate
+ * up to POOLED_LIMIT bytes a generation: when the calling thread has to wait for the pool, the
+ * pool gives it a small wait node, which nothing outside of the JDK can avoid.
+ *
+ * Every case is run once before any is measured, since the first run of some code paths loads
+ * and links classes, which allocates.
+ *
+ * The unbounded plane is left out, since it creates chunks wherever the pattern spreads to. Run
+ * it after packaging the module:
+ *     java -cp target/benchmarks.jar playground.bench.AllocationCheck
+ */
+public final class AllocationCheck
+{
+    /*
+     * Contents:
+     * Definitions-----------------------------
+     * Methods---------------------------------
+     * main
+     * check
+     * allocated
+     */
+    
+    ////////////////////////////////////////////////////
+    // Definitions
+    ////////////////////////////////////////////////////
+    
+    private static final String[] RULES = {"CONWAY", "HALITE", "CONWAY_BODIES", "SEEDS",
+        "BRIANS_BRAIN", "ODD", "EVEN"};
+    private static final String[] EDGES = {"TOROIDAL", "ON_EDGES", "OFF_EDGES", "KLEIN_BOTTLE",
+        "MIRROR"};
+    private static final int[][] SIZES = {{200, 120}, {1000, 1000}}; // width and height
+    private static final double DENSITY = 0.3;
+    private static final int WARMUP = 200; // generations before measuring
+    private static final int MEASURED = 100; // generations measured
+    private static final long POOLED_LIMIT = 32; // most bytes a pooled generation may allocate
+    
+    private static final com.sun.management.ThreadMXBean THREADS =
+        (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    
+    ////////////////////////////////////////////////////
+    // Methods
+    ////////////////////////////////////////////////////
+    
+    private AllocationCheck()
+    {
+    }
+    
+    public static void main(String[] args)
+    {
+        ForkJoinPool pool = new ForkJoinPool(2);
+        check(pool, false);
+        int failures = check(pool, true);
+        pool.shutdown();
+        
+        int cases = 2 * SIZES.length * RULES.length * EDGES.length;
+        System.out.println((cases - failures) + " of " + cases + " cases kept to their limits.");
+        if (failures > 0)
+            System.exit(1);
+    }
+    
+    /**
+     * Runs every case, on the calling thread and on the given pool. If report is set, prints
+     * each case that allocated more than its limit, and returns the number of them.
+     */
+    private static int check(ForkJoinPool pool, boolean report)
+    {
+        int failures = 0;
+        for (int[] size : SIZES)
+        {
+            int[][] soup = StepBenchmark.soup(size[0], size[1], DENSITY);
+            for (String rule : RULES)
+            {
+                for (String edges : EDGES)
+                {
+                    for (ForkJoinPool threads : new ForkJoinPool[] {null, pool})
+                    {
+                        Playground playground = new Playground(size[0], size[1], rule, edges,
+                            threads);
+                        playground.load(soup);
+                        for (int g = 0; g < WARMUP; g++)
+                            playground.update();
+                        
+                        // Reading the counters allocates too, which is measured and taken off.
+                        long before = allocated();
+                        long idle = allocated() - before;
+                        before = allocated();
+                        for (int g = 0; g < MEASURED; g++)
+                            playground.update();
+                        long bytes = allocated() - before - idle;
+                        long limit = (threads == null)? 0: POOLED_LIMIT * MEASURED;
+                        if (report && bytes > limit)
+                        {
+                            System.out.println("FAIL " + rule + " / " + edges + " on " +
+                                size[0] + "x" + size[1] + ((threads == null)? "": ", pooled") +
+                                ": " + bytes + " bytes in " + MEASURED + " generations");
+                            failures++;
+                        }
+                    }
+                }
+            }
+        }
+        return failures;
+    }
+    
+    /**
+     * Returns the bytes allocated so far by every live thread.
+     */
+    private static long allocated()
+    {
+        long total = 0;
+        for (long bytes : THREADS.getThreadAllocatedBytes(THREADS.getAllThreadIds()))
+            total += Math.max(0, bytes); // -1 for a thread that has just died
+        return total;
+    }
+}
@@ -0,0 +1,70 @@
+package playground.bench;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the original update (see BaselineEngine) on the same soups and with the same counters
+ * as StepBenchmark, so the two can be lined up side by side. Only the three original edge rules
+ * exist here.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BaselineBenchmark
+{
+    @Param({"CONWAY", "HALITE", "CONWAY_BODIES", "SEEDS", "BRIANS_BRAIN", "ODD", "EVEN"})
+    public String rule;
+    
+    @Param({"TOROIDAL", "ON_EDGES", "OFF_EDGES"})
+    public String edges;
+    
+    @Param({"25x15", "200x120", "1000x1000", "2000x2000"})
+    public String size;
+    
+    @Param({"0.05", "0.2", "0.5"})
+    public double density;
+    
+    private BaselineEngine engine; // the original update being measured
+    private int[][] start; // the starting soup
+    private long area; // number of cells updated each generation
+    
+    @Setup(Level.Trial)
+    public void setUp()
+    {
+        String[] dims = size.split("x");
+        int width = Integer.parseInt(dims[0]);
+        int height = Integer.parseInt(dims[1]);
+        engine = new BaselineEngine(width, height, rule, edges);
+        start = StepBenchmark.soup(width, height, density);
+        area = (long) width * height;
+    }
+    
+    @Setup(Level.Iteration)
+    public void reseed()
+    {
+        engine.load(start);
+    }
+    
+    @Benchmark
+    public long step(StepBenchmark.CellCounter counter)
+    {
+        engine.update();
+        counter.cells += area;
+        return area;
+    }
+}
@@ -0,0 +1,262 @@
+package playground.bench;
+
+/**
+ * The playground's original update, kept as a fixed point of comparison for the current engines.
+ * This is the update() and addAdjacent() pair from the first version of CellularAutomata, with
+ * only the Swing parts taken out: every cell is visited every generation, each live cell adds
+ * one to all eight of its neighbors in a freshly allocated count grid, and the rule is picked
+ * with a switch for every cell. It only knows the three original edge rules.
+ *
+ * Don't optimize this class. Its whole purpose is to stay as slow as the original.
+ */
+final class BaselineEngine
+{
+    /*
+     * Contents:
+     * Definitions-----------------------------
+     * Methods---------------------------------
+     * BaselineEngine
+     * load
+     * update
+     * addAdjacent
+     * getPopulation
+     */
+    
+    ////////////////////////////////////////////////////
+    // Definitions
+    ////////////////////////////////////////////////////
+    
+    enum UpdateRule {CONWAY, HALITE, CONWAY_BODIES, SEEDS, BRIANS_BRAIN, ODD, EVEN};
+    enum EdgeRule {TOROIDAL, ON_EDGES, OFF_EDGES};
+    
+    private final int gridWidth; // width of game grid
+    private final int gridHeight; // height of game grid
+    private final int[][] grid; // the cells of the game
+    private final UpdateRule updateRule; // currently selected update rule
+    private final EdgeRule edgeRule; // currently selected edge rule
+    
+    ////////////////////////////////////////////////////
+    // Methods
+    ////////////////////////////////////////////////////
+    
+    BaselineEngine(int width, int height, String updateRule, String edgeRule)
+    {
+        gridWidth = width;
+        gridHeight = height;
+        grid = new int[height][width];
+        this.updateRule = UpdateRule.valueOf(updateRule);
+        this.edgeRule = EdgeRule.valueOf(edgeRule);
+    }
+    
+    /**
+     * Copies the given states into the grid, which must be the same size.
+     */
+    void load(int[][] cells)
+    {
+        for (int i = 0; i < gridHeight; i++)
+            System.arraycopy(cells[i], 0, grid[i], 0, gridWidth);
+    }
+    
+    /**
+     * Goes through each cell to conduct the proper updates.
+     */
+    void update()
+    {
+        // Parallel updating requires us to used a temporary grid to figure out the updates.
+        int[][] tempGrid = new int[gridHeight][gridWidth];
+        
+        // This temporary grid holds the number of neighbors each cell possesses.
+        for (int i = 0; i < gridHeight; i++)
+        {
+            for (int j = 0; j < gridWidth; j++)
+                tempGrid[i][j] = 0;
+        }
+        for (int i = 0; i < gridHeight; i++)
+        {
+            for (int j = 0; j < gridWidth; j++)
+            {
+                if (grid[i][j] == 1)
+                    addAdjacent(tempGrid, i, j);
+            }
+        }
+        
+        /*
+         * In the case of the edge on model, we assume that every cell just outside the grid is
+         * eternally on. We need to go through and add 3 neighbors to all edge cells, and 5 to
+         * corner cells. We use 2 steps: add 3 to top/bottom, add 3 to left/right, then subtract 1
+         * from corners.
+         */
+        if (edgeRule == EdgeRule.ON_EDGES)
+        {
+            for (int i = 0; i < gridWidth; i++)
+            {
+                tempGrid[0][i] += 3;
+                tempGrid[gridHeight-1][i] += 3;
+            }
+            for (int i = 0; i < gridHeight; i++)
+            {
+                tempGrid[i][0] += 3;
+                tempGrid[i][gridWidth-1] += 3;
+            }
+            tempGrid[0][0]--;
+            tempGrid[gridHeight-1][0]--;
+            tempGrid[0][gridWidth-1]--;
+            tempGrid[gridHeight-1][gridWidth-1]--;
+        }
+        
+        // Finally, we update the main grid.
+        
+        for (int i = 0; i < gridHeight; i++)
+        {
+            for (int j = 0; j < gridWidth; j++)
+            {
+                switch (updateRule)
+                {
+                    case CONWAY:
+                        if (grid[i][j] == 1)
+                        {
+                            if (tempGrid[i][j] < 2 || tempGrid[i][j] > 3)
+                                grid[i][j] = 0;
+                        }
+                        else
+                        {
+                            if (tempGrid[i][j] == 3)
+                                grid[i][j] = 1;
+                        }
+                        break;
+                    
+                    case HALITE:
+                        if (grid [i][j] == 0)
+                        {
+                            if (tempGrid[i][j] == 1)
+                                grid [i][j] = 1;
+                        }
+                        break;
+                    
+                    case CONWAY_BODIES:
+                        if (grid[i][j] == 1)
+                        {
+                            if (tempGrid[i][j] < 2 || tempGrid[i][j] > 3)
+                                grid[i][j] = 2;
+                        }
+                        else if (grid[i][j] == 0)
+                        {
+                            if (tempGrid[i][j] == 3)
+                                grid[i][j] = 1;
+                        }
+                        else
+                            grid[i][j] = 0;
+                        break;
+                    
+                    case SEEDS:
+                        if (grid[i][j] == 0)
+                        {
+                            if (tempGrid[i][j] == 2)
+                                grid[i][j] = 1;
+                        }
+                        else
+                            grid[i][j] = 0;
+                        break;
+                    
+                    case BRIANS_BRAIN:
+                        if (grid[i][j] == 0)
+                        {
+                            if (tempGrid[i][j] == 2)
+                                grid[i][j] = 1;
+                        }
+                        else if (grid[i][j] == 1)
+                            grid[i][j] = 2;
+                        else
+                            grid[i][j] = 0;
+                        break;
+                    
+                    case ODD:
+                        if (grid[i][j] == 0)
+                        {
+                            if (tempGrid[i][j] % 2 == 1)
+                                grid[i][j] = 1;
+                            else
+                                grid[i][j] = 0;
+                        }
+                        else
+                            grid[i][j] = 0;
+                        break;
+                    
+                    case EVEN:
+                        if (grid[i][j] == 0)
+                        {
+                            if ((tempGrid[i][j] % 2 == 0) && (tempGrid[i][j] > 0))
+                                grid[i][j] = 1;
+                            else
+                                grid[i][j] = 0;
+                        }
+                        else
+                            grid[i][j] = 0;
+                        break;
+                    
+                    default:
+                        throw new IllegalStateException("No update rule selected (somehow).");
+                }
+            }
+        }
+    }
+    
+    /**
+     * Updates the temporary grid from the update algorithm by adding 1 to every cell adjacent to
+     * the specified cell, as long as it's filled.
+     */
+    private void addAdjacent(int[][] tempGrid, int i, int j)
+    {
+        for (int a = -1; a < 2; a++)
+        {
+            for (int b = -1; b < 2; b++)
+            {
+                // We figure out the coordinates of i,j's neighbors.
+                int y = i + a;
+                int x = j + b;
+                
+                switch (edgeRule)
+                {
+                    case TOROIDAL:
+                        if (y < 0)
+                            y = gridHeight - 1;
+                        if (y > gridHeight - 1)
+                            y = 0;
+                        if (x < 0)
+                            x = gridWidth - 1;
+                        if (x > gridWidth - 1)
+                            x = 0;
+                        if (a != 0 || b != 0)
+                            tempGrid[y][x]++;
+                        break;
+                    
+                    case ON_EDGES:
+                    case OFF_EDGES:
+                        if (y >= 0 && y < gridHeight && x >= 0 && x < gridWidth)
+                        {
+                            if (a != 0 || b != 0)
+                                tempGrid[y][x]++;
+                        }
+                        break;
+                    
+                    default:
+                        throw new IllegalStateException("No edge rule selected (somehow).");
+                }
+            }
+        }
+    }
+    
+    long getPopulation()
+    {
+        long population = 0;
+        for (int i = 0; i < gridHeight; i++)
+        {
+            for (int j = 0; j < gridWidth; j++)
+            {
+                if (grid[i][j] == 1)
+                    population++;
+            }
+        }
+        return population;
+    }
+}
@@ -0,0 +1,161 @@
+package playground.bench;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * A bridge to the playground's Simulation. The playground's classes live in the default package,
+ * which can't be imported from a named one (and JMH insists on named packages), so they are
+ * looked up by name once and called through method handles, which cost next to nothing compared
+ * to a generation.
+ */
+final class Playground
+{
+    /*
+     * Contents:
+     * Definitions-----------------------------
+     * Methods---------------------------------
+     * Playground
+     * load
+     * update
+     * getPopulation
+     * constant
+     */
+    
+    ////////////////////////////////////////////////////
+    // Definitions
+    ////////////////////////////////////////////////////
+    
+    private static final MethodHandle NEW_SIMULATION; // new Simulation(width, height)
+    private static final MethodHandle SET_UPDATE_RULE; // setUpdateRule(UpdateRule)
+    private static final MethodHandle SET_EDGE_RULE; // setEdgeRule(EdgeRule)
+    private static final MethodHandle SET_POOL; // setPool(ForkJoinPool)
+    private static final MethodHandle SET_CELL; // setCell(i, j, state)
+    private static final MethodHandle UPDATE; // update()
+    private static final MethodHandle GET_POPULATION; // getPopulation()
+    private static final Class<?> UPDATE_RULE; // the UpdateRule enum
+    private static final Class<?> EDGE_RULE; // the EdgeRule enum
+    
+    static
+    {
+        try
+        {
+            MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+            Class<?> simulation = Class.forName("Simulation");
+            UPDATE_RULE = Class.forName("UpdateRule");
+            EDGE_RULE = Class.forName("EdgeRule");
+            NEW_SIMULATION = lookup.findConstructor(simulation,
+                MethodType.methodType(void.class, int.class, int.class))
+                .asType(MethodType.methodType(Object.class, int.class, int.class));
+            SET_UPDATE_RULE = lookup.findVirtual(simulation, "setUpdateRule",
+                MethodType.methodType(void.class, UPDATE_RULE)).asType(MethodType.genericMethodType(
+                2).changeReturnType(void.class));
+            SET_EDGE_RULE = lookup.findVirtual(simulation, "setEdgeRule",
+                MethodType.methodType(void.class, EDGE_RULE)).asType(MethodType.genericMethodType(
+                2).changeReturnType(void.class));
+            SET_POOL = lookup.findVirtual(simulation, "setPool",
+                MethodType.methodType(void.class, ForkJoinPool.class))
+                .asType(MethodType.methodType(void.class, Object.class, ForkJoinPool.class));
+            SET_CELL = lookup.findVirtual(simulation, "setCell",
+                MethodType.methodType(void.class, int.class, int.class, int.class))
+                .asType(MethodType.methodType(void.class, Object.class, int.class, int.class,
+                int.class));
+            UPDATE = lookup.findVirtual(simulation, "update", MethodType.methodType(void.class))
+                .asType(MethodType.methodType(void.class, Object.class));
+            GET_POPULATION = lookup.findVirtual(simulation, "getPopulation",
+                MethodType.methodType(long.class))
+                .asType(MethodType.methodType(long.class, Object.class));
+        }
+        catch (ReflectiveOperationException e)
+        {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+    
+    private final Object simulation; // the Simulation itself
+    
+    ////////////////////////////////////////////////////
+    // Methods
+    ////////////////////////////////////////////////////
+    
+    /**
+     * Creates a simulation of the given size with the named UpdateRule and EdgeRule constants.
+     * A null pool runs every generation on the calling thread.
+     */
+    Playground(int width, int height, String updateRule, String edgeRule, ForkJoinPool pool)
+    {
+        try
+        {
+            simulation = NEW_SIMULATION.invokeExact(width, height);
+            SET_POOL.invokeExact(simulation, pool);
+            SET_UPDATE_RULE.invokeExact(simulation, constant(UPDATE_RULE, updateRule));
+            SET_EDGE_RULE.invokeExact(simulation, constant(EDGE_RULE, edgeRule));
+        }
+        catch (Throwable e)
+        {
+            throw new IllegalStateException("Could not set up the simulation.", e);
+        }
+    }
+    
+    /**
+     * Copies the given states into the grid, which must be the same size.
+     */
+    void load(int[][] cells)
+    {
+        try
+        {
+            for (int i = 0; i < cells.length; i++)
+            {
+                for (int j = 0; j < cells[i].length; j++)
+                    SET_CELL.invokeExact(simulation, i, j, cells[i][j]);
+            }
+        }
+        catch (Throwable e)
+        {
+            throw new IllegalStateException(e);
+        }
+    }
+    
+    /**
+     * Advances the simulation by one generation.
+     */
+    void update()
+    {
+        try
+        {
+            UPDATE.invokeExact(simulation);
+        }
+        catch (Throwable e)
+        {
+            throw new IllegalStateException(e);
+        }
+    }
+    
+    long getPopulation()
+    {
+        try
+        {
+            return (long) GET_POPULATION.invokeExact(simulation);
+        }
+        catch (Throwable e)
+        {
+            throw new IllegalStateException(e);
+        }
+    }
+    
+    /**
+     * Returns the constant of the given enum with the given name.
+     */
+    private static Object constant(Class<?> type, String name)
+    {
+        for (Object value : type.getEnumConstants())
+        {
+            if (((Enum<?>) value).name().equals(name))
+                return value;
+        }
+        throw new IllegalArgumentException("No " + type.getSimpleName() + " called " + name +
+            ".");
+    }
+}
@@ -0,0 +1,141 @@
+package playground.bench;
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the current engine one generation at a time, for every combination of update rule,
+ * edge rule, board size and starting density. Besides generations per second, each run reports
+ * "cells", the number of cell updates per second (the board's area times its generation rate),
+ * so that boards of different sizes can be compared. Run with -prof gc for allocation rates.
+ *
+ * Every iteration starts over from the same seeded soup, so runs are repeatable. The full matrix
+ * is large; narrow it down with -p, for example:
+ *     java -jar target/benchmarks.jar StepBenchmark -p rule=CONWAY -p size=2000x2000 -prof gc
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StepBenchmark
+{
+    /*
+     * Contents:
+     * Definitions-----------------------------
+     * Methods---------------------------------
+     * setUp
+     * reseed
+     * step
+     * soup
+     * Inner Classes---------------------------
+     * CellCounter
+     */
+    
+    ////////////////////////////////////////////////////
+    // Definitions
+    ////////////////////////////////////////////////////
+    
+    static final long SEED = 20120501L; // seed for every starting soup
+    
+    @Param({"CONWAY", "HALITE", "CONWAY_BODIES", "SEEDS", "BRIANS_BRAIN", "ODD", "EVEN"})
+    public String rule;
+    
+    @Param({"TOROIDAL", "ON_EDGES", "OFF_EDGES", "KLEIN_BOTTLE", "MIRROR", "UNBOUNDED"})
+    public String edges;
+    
+    @Param({"25x15", "200x120", "1000x1000", "2000x2000"})
+    public String size;
+    
+    @Param({"0.05", "0.2", "0.5"})
+    public double density;
+    
+    @Param({"1"}) // 0 for the common pool, or any other number of threads
+    public int threads;
+    
+    private Playground playground; // the simulation being measured
+    private int[][] start; // the starting soup
+    private long area; // number of cells updated each generation
+    
+    ////////////////////////////////////////////////////
+    // Methods
+    ////////////////////////////////////////////////////
+    
+    @Setup(Level.Trial)
+    public void setUp()
+    {
+        String[] dims = size.split("x");
+        int width = Integer.parseInt(dims[0]);
+        int height = Integer.parseInt(dims[1]);
+        ForkJoinPool pool = (threads == 0)? ForkJoinPool.commonPool():
+            (threads == 1)? null: new ForkJoinPool(threads);
+        playground = new Playground(width, height, rule, edges, pool);
+        start = soup(width, height, density);
+        area = (long) width * height;
+    }
+    
+    @Setup(Level.Iteration)
+    public void reseed()
+    {
+        playground.load(start);
+    }
+    
+    @Benchmark
+    public long step(CellCounter counter)
+    {
+        playground.update();
+        counter.cells += area;
+        return area;
+    }
+    
+    /**
+     * Returns a width x height soup in which each cell is alive with the given probability. The
+     * same arguments always give the same soup.
+     */
+    static int[][] soup(int width, int height, double density)
+    {
+        Random random = new Random(SEED);
+        int[][] cells = new int[height][width];
+        for (int i = 0; i < height; i++)
+        {
+            for (int j = 0; j < width; j++)
+                cells[i][j] = (random.nextDouble() < density)? 1: 0;
+        }
+        return cells;
+    }
+    
+    ////////////////////////////////////////////////////
+    // Inner Classes
+    ////////////////////////////////////////////////////
+    
+    /**
+     * Counts cell updates, which JMH reports as a rate alongside the generation rate.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class CellCounter
+    {
+        public long cells; // cell updates in the current iteration
+        
+        @Setup(Level.Iteration)
+        public void reset()
+        {
+            cells = 0;
+        }
+    }
+}